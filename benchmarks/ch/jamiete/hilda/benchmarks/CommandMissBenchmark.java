@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.commands.ChannelCommand;
+import ch.jamiete.hilda.commands.CommandManager;
+import ch.jamiete.hilda.configuration.ConfigurationManager;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.SelfUser;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+
+/**
+ * Measures {@link CommandManager#onGuildMessageReceived(GuildMessageReceivedEvent)} for messages that do not
+ * invoke a command, which is nearly every message the bot sees. <p>
+ * Run with {@code mvn -P benchmarks package} followed by {@code java -jar target/Hilda.jar CommandMissBenchmark}.
+ * Allocation can be compared by adding {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandMissBenchmark {
+
+    public static class NoopCommand extends ChannelCommand {
+        public NoopCommand(final Hilda hilda, final String name) {
+            super(hilda);
+            this.setName(name);
+        }
+
+        @Override
+        public void execute(final Message message, final String[] arguments, final String label) {
+        }
+    }
+
+    private static <T> T stub(final Class<T> type, final Object... returns) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            for (final Object value : returns) {
+                if (method.getReturnType().isInstance(value)) {
+                    return value;
+                }
+            }
+
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    if (method.getReturnType() == boolean.class) {
+                        return Boolean.FALSE;
+                    }
+
+                    return method.getReturnType() == long.class ? Long.valueOf(0) : null;
+            }
+        }));
+    }
+
+    /**
+     * The message sent: plain chat, a word starting with the prefix that is not a command, or the prefix alone.
+     */
+    @Param({ "Has anyone seen the new episode yet? It comes out on the 21st", "!nothing to see here", "!" })
+    public String content;
+
+    /**
+     * The number of registered commands.
+     */
+    @Param({ "10", "100" })
+    public int commands;
+
+    private Hilda hilda;
+    private CommandManager manager;
+    private GuildMessageReceivedEvent event;
+
+    @Benchmark
+    public void handle() {
+        this.manager.onGuildMessageReceived(this.event);
+    }
+
+    /**
+     * The check every message used to go through before it was known not to be a command.
+     * @return Whether the message looks like a command.
+     */
+    @Benchmark
+    public boolean split() {
+        final String[] args = this.event.getMessage().getContentRaw().split(" ");
+        return args[0].length() > 0 && args[0].startsWith(CommandManager.PREFIX);
+    }
+
+    @Setup
+    public void setup() {
+        Logger.getLogger("").setLevel(Level.OFF);
+        Hilda.getLogger().setLevel(Level.OFF);
+
+        final Guild guild = CommandMissBenchmark.stub(Guild.class);
+        final TextChannel channel = CommandMissBenchmark.stub(TextChannel.class, guild);
+        final User author = CommandMissBenchmark.stub(User.class);
+        final JDA jda = CommandMissBenchmark.stub(JDA.class, CommandMissBenchmark.stub(SelfUser.class));
+        final Message message = CommandMissBenchmark.stub(Message.class, this.content, author, channel, guild, jda);
+
+        // Build the command manager by itself, with its configuration in memory, so that nothing is read from or written to disk
+        this.hilda = new Hilda(jda);
+        this.manager = new CommandManager(this.hilda, new ConfigurationManager(this.hilda, null));
+
+        for (int i = 0; i < this.commands; i++) {
+            this.manager.registerChannelCommand(new NoopCommand(this.hilda, "command" + i));
+        }
+
+        this.event = new GuildMessageReceivedEvent(jda, 0, message);
+    }
+
+    @TearDown
+    public void teardown() {
+        this.manager.shutdown();
+        this.hilda.getExecutor().shutdownNow();
+    }
+
+}
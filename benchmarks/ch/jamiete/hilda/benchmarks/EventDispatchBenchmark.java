@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.LogFormat;
+import ch.jamiete.hilda.events.AnnotatedEventManager;
+import ch.jamiete.hilda.events.EventHandler;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.guild.GenericGuildEvent;
+
+/**
+ * Measures {@link AnnotatedEventManager#handle(GenericEvent)} against synthetic guild events, without a
+ * connection to Discord. <p>
+ * Run with {@code mvn -P benchmarks package} followed by {@code java -jar target/Hilda.jar}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventDispatchBenchmark {
+
+    public static class BaseEvent extends GenericGuildEvent {
+        public BaseEvent(final JDA api, final Guild guild) {
+            super(api, 0, guild);
+        }
+    }
+
+    public static class Depth1Event extends BaseEvent {
+        public Depth1Event(final JDA api, final Guild guild) {
+            super(api, guild);
+        }
+    }
+
+    public static class Depth2Event extends Depth1Event {
+        public Depth2Event(final JDA api, final Guild guild) {
+            super(api, guild);
+        }
+    }
+
+    public static class Depth3Event extends Depth2Event {
+        public Depth3Event(final JDA api, final Guild guild) {
+            super(api, guild);
+        }
+    }
+
+    public static class Depth4Event extends Depth3Event {
+        public Depth4Event(final JDA api, final Guild guild) {
+            super(api, guild);
+        }
+    }
+
+    public static class CountingListener {
+        private final Blackhole blackhole;
+
+        public CountingListener(final Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @EventHandler
+        public void onEvent(final BaseEvent event) {
+            this.blackhole.consume(event);
+        }
+    }
+
+    public static class FailingListener {
+        private static final RuntimeException FAILURE = new IllegalStateException("Benchmark failure");
+
+        @EventHandler
+        public void onEvent(final BaseEvent event) {
+            throw FailingListener.FAILURE;
+        }
+    }
+
+    /**
+     * Formats every record it is given as the bot's log files would, then discards it.
+     */
+    public static class DiscardingHandler extends Handler {
+        private final Blackhole blackhole;
+
+        public DiscardingHandler(final Blackhole blackhole) {
+            this.blackhole = blackhole;
+            this.setFormatter(new LogFormat());
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void publish(final LogRecord record) {
+            if (this.isLoggable(record)) {
+                this.blackhole.consume(this.getFormatter().format(record));
+            }
+        }
+    }
+
+    private static final long GUILD = 81384788765712384L;
+
+    private static <T> T stub(final Class<T> type, final long id) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getIdLong":
+                    return id;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+            }
+        }));
+    }
+
+    /**
+     * The number of listeners that handle every event.
+     */
+    @Param({ "1", "8", "64" })
+    public int listeners;
+
+    /**
+     * How many subclasses below the class the listeners handle the dispatched event is.
+     */
+    @Param({ "0", "2", "4" })
+    public int depth;
+
+    /**
+     * Whether the allowed servers list is in use. The event's guild is always allowed.
+     */
+    @Param({ "false", "true" })
+    public boolean allowlist;
+
+    /**
+     * Whether an extra listener fails on every event, and whether its failures are logged or quarantined.
+     * Logged failures are formatted in full, stack trace included, by a handler that then discards them.
+     */
+    @Param({ "none", "logged", "quarantined" })
+    public String failure;
+
+    private Hilda hilda;
+    private AnnotatedEventManager manager;
+    private GenericEvent event;
+
+    @Benchmark
+    public void handle() {
+        this.manager.handle(this.event);
+    }
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        final Logger root = Logger.getLogger("");
+
+        for (final Handler handler : root.getHandlers()) {
+            root.removeHandler(handler);
+        }
+
+        if ("logged".equals(this.failure)) {
+            root.addHandler(new DiscardingHandler(blackhole));
+            root.setLevel(Level.INFO);
+            Hilda.getLogger().setLevel(Level.INFO);
+        } else {
+            root.setLevel(Level.OFF);
+            Hilda.getLogger().setLevel(Level.OFF);
+        }
+
+        final JDA jda = EventDispatchBenchmark.stub(JDA.class, 0L);
+        final Guild guild = EventDispatchBenchmark.stub(Guild.class, EventDispatchBenchmark.GUILD);
+
+        this.hilda = new Hilda(jda);
+        this.manager = this.hilda.getEventManager();
+
+        if (this.allowlist) {
+            for (long id = 1; id < 100; id++) {
+                this.hilda.addAllowedServer(EventDispatchBenchmark.GUILD + id);
+            }
+
+            this.hilda.addAllowedServer(EventDispatchBenchmark.GUILD);
+        }
+
+        for (int i = 0; i < this.listeners; i++) {
+            this.manager.register(new CountingListener(blackhole));
+        }
+
+        switch (this.failure) {
+            case "logged":
+                this.manager.setCircuitBreaker(0, 0, 1, 1);
+                this.manager.register(new FailingListener());
+                break;
+
+            case "quarantined":
+                this.manager.setCircuitBreaker(1, 0, 60000, 3600000);
+                this.manager.register(new FailingListener());
+                break;
+        }
+
+        switch (this.depth) {
+            case 0:
+                this.event = new BaseEvent(jda, guild);
+                break;
+            case 2:
+                this.event = new Depth2Event(jda, guild);
+                break;
+            case 4:
+                this.event = new Depth4Event(jda, guild);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported depth " + this.depth);
+        }
+    }
+
+    @TearDown
+    public void teardown() {
+        this.manager.shutdown();
+        this.hilda.getExecutor().shutdownNow();
+    }
+
+}
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ch.jamiete.hilda.events.ListenerTable;
+
+/**
+ * Measures the cost of calling one {@code @EventHandler} method in each of the ways the event manager has used. <p>
+ * Eight listeners are called through one call site, spread over {@link #classes} listener classes so that the
+ * site is monomorphic, bimorphic or megamorphic as it is in {@code AnnotatedEventManager} with many plugins.
+ * Each class is a copy of {@link Listener} loaded by its own class loader. Each benchmark reports the time for a
+ * single call.
+ * Run with {@code mvn -P benchmarks package} followed by {@code java -jar target/Hilda.jar ListenerInvokeBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerInvokeBenchmark {
+    private static final int LISTENERS = 8;
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class, Object.class, int.class);
+
+    public static class Event {
+    }
+
+    public static class Listener {
+        final Blackhole blackhole;
+
+        public Listener(final Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        void onEvent(final Event event) {
+            this.blackhole.consume(event);
+        }
+
+        /**
+         * Calls the listener as a generated table would, with one invoker class per listener class.
+         */
+        public static class Invoker implements ListenerTable.Invoker {
+            @Override
+            public void invoke(final Object listener, final Object argument, final int count) {
+                ((Listener) listener).onEvent((Event) argument);
+            }
+        }
+    }
+
+    /**
+     * Defines its own copy of {@link Listener} and its invoker, leaving every other class to its parent.
+     */
+    private static final class CopyLoader extends ClassLoader {
+        private CopyLoader() {
+            super(ListenerInvokeBenchmark.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(Listener.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+
+            synchronized (this.getClassLoadingLock(name)) {
+                Class<?> loaded = this.findLoadedClass(name);
+
+                if (loaded == null) {
+                    try (InputStream in = this.getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                        final byte[] bytes = IOUtils.toByteArray(in);
+                        loaded = this.defineClass(name, bytes, 0, bytes.length);
+                    } catch (final IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+
+                return loaded;
+            }
+        }
+    }
+
+    /**
+     * The number of distinct listener classes the listeners are spread over.
+     */
+    @Param({ "1", "2", "8" })
+    public int classes;
+
+    private final Event event = new Event();
+
+    private Object[] listeners;
+    private Method[] methods;
+    private MethodHandle[] handles;
+    private ListenerTable.Invoker[] invokers;
+
+    /**
+     * Calls the methods as the event manager did before handlers were bound, through {@link Method#invoke(Object, Object...)}.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ListenerInvokeBenchmark.LISTENERS)
+    public void reflect() throws Exception {
+        for (int i = 0; i < ListenerInvokeBenchmark.LISTENERS; i++) {
+            this.methods[i].invoke(this.listeners[i], this.event);
+        }
+    }
+
+    /**
+     * Calls the methods as the event manager does for listeners without a generated table, through bound
+     * {@link MethodHandle}s adapted to a common type.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ListenerInvokeBenchmark.LISTENERS)
+    public void handle() throws Throwable {
+        for (int i = 0; i < ListenerInvokeBenchmark.LISTENERS; i++) {
+            this.handles[i].invokeExact((Object) this.event, 0);
+        }
+    }
+
+    /**
+     * Calls the methods as the event manager does for listeners with a generated table, through an invoker.
+     */
+    @Benchmark
+    @OperationsPerInvocation(ListenerInvokeBenchmark.LISTENERS)
+    public void generated() throws Throwable {
+        for (int i = 0; i < ListenerInvokeBenchmark.LISTENERS; i++) {
+            this.invokers[i].invoke(this.listeners[i], this.event, 0);
+        }
+    }
+
+    @Setup
+    public void setup(final Blackhole blackhole) throws ReflectiveOperationException {
+        final Class<?>[] types = new Class<?>[this.classes];
+        final ListenerTable.Invoker[] invokers = new ListenerTable.Invoker[this.classes];
+
+        for (int i = 0; i < this.classes; i++) {
+            final ClassLoader loader = new CopyLoader();
+            types[i] = loader.loadClass(Listener.class.getName());
+            invokers[i] = (ListenerTable.Invoker) loader.loadClass(Listener.Invoker.class.getName()).getConstructor().newInstance();
+        }
+
+        this.listeners = new Object[ListenerInvokeBenchmark.LISTENERS];
+        this.methods = new Method[ListenerInvokeBenchmark.LISTENERS];
+        this.handles = new MethodHandle[ListenerInvokeBenchmark.LISTENERS];
+        this.invokers = new ListenerTable.Invoker[ListenerInvokeBenchmark.LISTENERS];
+
+        for (int i = 0; i < ListenerInvokeBenchmark.LISTENERS; i++) {
+            final Class<?> type = types[i % this.classes];
+            final Method method = type.getDeclaredMethod("onEvent", Event.class);
+            method.setAccessible(true);
+
+            this.listeners[i] = type.getConstructor(Blackhole.class).newInstance(blackhole);
+            this.methods[i] = method;
+            this.handles[i] = MethodHandles.dropArguments(MethodHandles.lookup().unreflect(method).bindTo(this.listeners[i]), 1, int.class).asType(ListenerInvokeBenchmark.INVOKER_TYPE);
+            this.invokers[i] = invokers[i % this.classes];
+        }
+    }
+
+}
@@ -15,6 +15,7 @@
  *******************************************************************************/
 package ch.jamiete.hilda;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -30,6 +31,7 @@ import ch.jamiete.hilda.listeners.ConsoleListener;
 import ch.jamiete.hilda.plugins.PluginManager;
 import ch.jamiete.hilda.runnables.HeartbeatTask;
 import ch.jamiete.hilda.runnables.LogRotateTask;
+import ch.jamiete.hilda.util.ConcurrentLongSet;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.OnlineStatus;
@@ -42,43 +44,69 @@ public class Hilda {
     }
 
     protected final JDA bot;
+    private final AnnotatedEventManager events;
 
     private final ScheduledThreadPoolExecutor executor = new HildaScheduledExecutor(3, new HildaThreadFactory());
-    private final List<String> allowed = new ArrayList<String>();
+    private final ConcurrentLongSet allowed = new ConcurrentLongSet();
 
     private CommandManager commander;
     private ConfigurationManager configs;
     private PluginManager plugins;
 
     public Hilda(final String apikey) throws LoginException, IllegalArgumentException, InterruptedException {
-        this.bot = new JDABuilder(apikey).setAutoReconnect(false).setToken(apikey).setEventManager(new AnnotatedEventManager(this)).setStatus(OnlineStatus.DO_NOT_DISTURB).build().awaitReady();
+        this.events = new AnnotatedEventManager(this);
+        this.bot = new JDABuilder(apikey).setAutoReconnect(false).setToken(apikey).setEventManager(this.events).setStatus(OnlineStatus.DO_NOT_DISTURB).build().awaitReady();
+    }
+
+    /**
+     * Creates an instance around an existing {@link JDA} without connecting to Discord. <p>
+     * Events are not delivered automatically and must be passed to {@link #getEventManager()}.
+     * @param bot The JDA instance to use
+     * @see #startOffline(File, File)
+     */
+    public Hilda(final JDA bot) {
+        this.events = new AnnotatedEventManager(this);
+        this.bot = bot;
     }
 
     /**
      * Adds a server to the list of allowed servers.
      * @param id The ID of the server
      */
+    public void addAllowedServer(final long id) {
+        this.allowed.add(id);
+    }
+
+    /**
+     * Adds a server to the list of allowed servers.
+     * @param id The ID of the server
+     * @throws IllegalArgumentException If the ID is not a valid ID
+     */
     public void addAllowedServer(final String id) {
-        synchronized (this.allowed) {
-            if (!this.allowed.contains(id)) {
-                this.allowed.add(id);
-            }
-        }
+        this.addAllowedServer(Sanity.idCheck(id, "Must provide a valid server ID."));
     }
 
     /**
      * Get a list of server IDs that should be allowed to trigger code. <p>
-     * This may return an empty list.
+     * This may return an empty list. While the list is not empty, every event that belongs to a server is
+     * filtered by it, including guild messages delivered as the generic {@code MessageReceivedEvent} family,
+     * which earlier versions let through.
      * @return Unmodifiable list of server IDs
      */
     public List<String> getAllowedServers() {
-        synchronized (this.allowed) {
-            if (this.allowed.size() == 0) {
-                return Collections.emptyList();
-            }
+        final long[] ids = this.allowed.toArray();
 
-            return Util.unmodifiableList(this.allowed);
+        if (ids.length == 0) {
+            return Collections.emptyList();
         }
+
+        final List<String> list = new ArrayList<>(ids.length);
+
+        for (final long id : ids) {
+            list.add(Long.toString(id));
+        }
+
+        return Collections.unmodifiableList(list);
     }
 
     /**
@@ -102,6 +130,13 @@ public class Hilda {
         return this.configs;
     }
 
+    /**
+     * @return The {@link AnnotatedEventManager} instance
+     */
+    public AnnotatedEventManager getEventManager() {
+        return this.events;
+    }
+
     /**
      * @return The {@link ScheduledThreadPoolExecutor} instance
      */
@@ -124,14 +159,31 @@ public class Hilda {
         return this.bot.getSelfUser().getName();
     }
 
+    /**
+     * Checks whether a server is allowed to trigger code. <p>
+     * Every server is allowed while the list of allowed servers is empty. Lock-free and allocation-free.
+     * @param id The ID of the server
+     * @return Whether the server is allowed
+     */
+    public boolean isAllowedServer(final long id) {
+        return this.allowed.isEmpty() || this.allowed.contains(id);
+    }
+
     /**
      * Removes a server from the list of allowed servers.
      * @param id The ID of the server
      */
+    public void removeAllowedServer(final long id) {
+        this.allowed.remove(id);
+    }
+
+    /**
+     * Removes a server from the list of allowed servers.
+     * @param id The ID of the server
+     * @throws IllegalArgumentException If the ID is not a valid ID
+     */
     public void removeAllowedServer(final String id) {
-        synchronized (this.allowed) {
-            this.allowed.remove(id);
-        }
+        this.removeAllowedServer(Sanity.idCheck(id, "Must provide a valid server ID."));
     }
 
     /**
@@ -144,6 +196,10 @@ public class Hilda {
         this.bot.getPresence().setStatus(OnlineStatus.DO_NOT_DISTURB);
         this.commander.shutdown();
 
+        Hilda.getLogger().info("Shutting down event dispatch...");
+        this.events.shutdown();
+        Hilda.getLogger().info("Event dispatch shut down!");
+
         Hilda.getLogger().info("Shutting down plugins...");
         this.plugins.disablePlugins();
         Hilda.getLogger().info("Plugins shut down!");
@@ -169,6 +225,25 @@ public class Hilda {
         Hilda.getLogger().info("Goodbye!");
     }
 
+    /**
+     * Registers the managers and loads plugins without touching the connection or scheduling maintenance tasks. <p>
+     * Used to replay recorded events against an instance created with {@link #Hilda(JDA)}, isolated from the
+     * configurations and plugins of the working directory.
+     * @param configs The directory to keep configurations in, or {@code null} to keep them in memory only
+     * @param plugins The directory to load plugins from, or {@code null} to load no plugins
+     */
+    public void startOffline(final File configs, final File plugins) {
+        Util.setHilda(this);
+
+        this.configs = new ConfigurationManager(this, configs);
+        this.commander = new CommandManager(this);
+        this.plugins = new PluginManager(this, plugins);
+        this.events.register(this.commander);
+
+        this.plugins.loadPlugins();
+        this.plugins.enablePlugins();
+    }
+
     public void start() {
         this.bot.setAutoReconnect(true);
         Hilda.getLogger().info("Connected to server!");
@@ -186,8 +261,8 @@ public class Hilda {
         this.executor.scheduleAtFixedRate(new HeartbeatTask(this), 5, 5, TimeUnit.MINUTES);
 
         Hilda.getLogger().info("Registering managers...");
-        this.commander = new CommandManager(this);
         this.configs = new ConfigurationManager(this);
+        this.commander = new CommandManager(this);
         this.plugins = new PluginManager(this);
         Hilda.getLogger().info("Managers registered!");
 
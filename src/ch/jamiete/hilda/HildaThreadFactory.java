@@ -12,9 +12,16 @@ public class HildaThreadFactory implements ThreadFactory {
     private final String prefix;
 
     public HildaThreadFactory() {
+        this("HildaPool(" + HildaThreadFactory.poolNumber.getAndIncrement() + ")-thread");
+    }
+
+    /**
+     * @param name The name threads should be given, to which their number will be appended
+     */
+    public HildaThreadFactory(final String name) {
         final SecurityManager manager = System.getSecurityManager();
         this.group = manager != null ? manager.getThreadGroup() : Thread.currentThread().getThreadGroup();
-        this.prefix = "HildaPool(" + HildaThreadFactory.poolNumber.getAndIncrement() + ")-thread-";
+        this.prefix = name + "-";
     }
 
     @Override
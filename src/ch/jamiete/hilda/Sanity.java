@@ -55,6 +55,26 @@ public final class Sanity {
         }
     }
 
+    /**
+     * Checks if a string is a Discord ID.
+     *
+     * @param id string to check
+     * @param failMessage message to throw
+     * @return the ID
+     * @throws IllegalArgumentException if null or not a positive number
+     */
+    public static long idCheck(final String id, final String failMessage) {
+        Sanity.nullCheck(id, failMessage);
+        final long value;
+        try {
+            value = Long.parseLong(id.trim());
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(failMessage, e);
+        }
+        Sanity.truthiness(value > 0, failMessage);
+        return value;
+    }
+
     /**
      * Checks if an object is null.
      *
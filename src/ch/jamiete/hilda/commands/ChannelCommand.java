@@ -172,7 +172,7 @@ public abstract class ChannelCommand extends GenericCommand {
      * @param label The label that was used to invoke the command
      */
     protected void usage(final Message received, final String params, final String label) {
-        this.reply(received, "Incorrect usage. " + CommandManager.PREFIX + label + " " + params);
+        this.reply(received, "Incorrect usage. " + this.hilda.getCommandManager().getPrefix(received.getGuild()) + label + " " + params);
     }
 
 }
@@ -18,8 +18,15 @@ package ch.jamiete.hilda.commands;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import net.dv8tion.jda.api.MessageBuilder;
+import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.TextChannel;
@@ -27,7 +34,22 @@ import org.apache.commons.lang3.StringUtils;
 import ch.jamiete.hilda.Hilda;
 
 public abstract class ChannelSeniorCommand extends ChannelCommand {
+    private static final int HELP_CACHE_SIZE = 64;
+
     private final List<ChannelSubCommand> subcommands = new ArrayList<ChannelSubCommand>();
+    /**
+     * Lower case subcommand names and aliases mapped to their subcommands. Replaced as a whole whenever a subcommand is registered.
+     */
+    private volatile Map<String, ChannelSubCommand> index = Collections.emptyMap();
+    /**
+     * The distinct minimum permissions of visible subcommands, which are all that decide what help shows.
+     */
+    private volatile Permission[] permissions = new Permission[0];
+    /**
+     * Rendered help keyed by prefix, then by the permissions the member holds. Cleared whenever a subcommand is
+     * registered or a prefix changes.
+     */
+    private final Map<String, Map<Long, Message>> help = new ConcurrentHashMap<>();
 
     protected ChannelSeniorCommand(final Hilda hilda) {
         super(hilda);
@@ -45,7 +67,7 @@ public abstract class ChannelSeniorCommand extends ChannelCommand {
             return;
         }
 
-        final ChannelCommand command = this.subcommands.stream().filter(c -> c.getName().equalsIgnoreCase(args[0]) || c.hasAlias(args[0])).findFirst().orElse(null);
+        final ChannelCommand command = this.index.get(args[0].toLowerCase(Locale.ROOT));
 
         if (command == null) {
             this.help(message.getTextChannel(), member);
@@ -70,21 +92,95 @@ public abstract class ChannelSeniorCommand extends ChannelCommand {
     }
 
     /**
-     * Sends a message detailing the subcommands of this command.
+     * Discards all rendered help, so that it is rendered again the next time it is requested.
+     */
+    void clearHelp() {
+        this.help.clear();
+    }
+
+    /**
+     * Sends a message detailing the subcommands of this command. <p>
+     * The message is rendered once for each prefix and combination of the permissions that hide subcommands, then reused.
      * @param channel
      */
     public void help(final TextChannel channel, final Member member) {
+        final String prefix = this.hilda.getCommandManager().getPrefix(channel.getGuild());
+        final Permission[] permissions = this.permissions;
+        long held = 0;
+
+        for (int i = 0; i < permissions.length; i++) {
+            if (member.hasPermission(channel, permissions[i])) {
+                held |= 1L << i;
+            }
+        }
+
+        final Map<Long, Message> rendered = this.help.get(prefix);
+        Message message = rendered == null ? null : rendered.get(held);
+
+        if (message == null) {
+            synchronized (this) {
+                message = this.renderHelp(prefix, permissions, held);
+
+                // Only cache help rendered against the current subcommands
+                if (permissions == this.permissions) {
+                    if (this.help.size() >= ChannelSeniorCommand.HELP_CACHE_SIZE && !this.help.containsKey(prefix)) {
+                        this.help.clear();
+                    }
+
+                    this.help.computeIfAbsent(prefix, p -> new ConcurrentHashMap<>()).put(held, message);
+                }
+            }
+        }
+
+        channel.sendMessage(message).queue();
+    }
+
+    /**
+     * Registers a subcommand to this senior command manager.
+     * @param subcommand The subcommand to register
+     * @return Whether the command was registered
+     */
+    public synchronized boolean registerSubcommand(final ChannelSubCommand subcommand) {
+        if (this.subcommands.contains(subcommand)) {
+            return false;
+        }
+
+        this.subcommands.add(subcommand);
+
+        final Map<String, ChannelSubCommand> index = new HashMap<>();
+        final Set<Permission> permissions = EnumSet.noneOf(Permission.class);
+
+        for (final ChannelSubCommand command : this.subcommands) {
+            index.putIfAbsent(command.getName().toLowerCase(Locale.ROOT), command);
+
+            for (final String alias : command.getAliases()) {
+                index.putIfAbsent(alias.toLowerCase(Locale.ROOT), command);
+            }
+
+            if (!command.getHide() && command.getMinimumPermission() != null) {
+                permissions.add(command.getMinimumPermission());
+            }
+        }
+
+        this.index = Collections.unmodifiableMap(index);
+        this.permissions = permissions.toArray(new Permission[permissions.size()]);
+        this.help.clear();
+
+        return true;
+    }
+
+    private Message renderHelp(final String prefix, final Permission[] permissions, final long held) {
         final MessageBuilder mb = new MessageBuilder();
 
         mb.append(StringUtils.capitalize(this.getName()) + " Help", MessageBuilder.Formatting.UNDERLINE);
         mb.append("\n");
         mb.append(this.getDescription(), MessageBuilder.Formatting.ITALICS);
         mb.append("\n\n");
-        mb.append("Use ").append(CommandManager.PREFIX + this.getName() + " <command>", MessageBuilder.Formatting.BOLD);
+        mb.append("Use ").append(prefix + this.getName() + " <command>", MessageBuilder.Formatting.BOLD);
         mb.append(" to use this command:");
 
         for (final ChannelCommand subcommand : this.subcommands) {
-            if (subcommand.getHide() || subcommand.getMinimumPermission() != null && !member.hasPermission(channel, subcommand.getMinimumPermission())) {
+            if (subcommand.getHide() || subcommand.getMinimumPermission() != null && (held & 1L << Arrays.asList(permissions).indexOf(subcommand.getMinimumPermission())) == 0) {
                 continue;
             }
 
@@ -94,20 +190,7 @@ public abstract class ChannelSeniorCommand extends ChannelCommand {
             mb.append(subcommand.getDescription());
         }
 
-        channel.sendMessage(mb.build()).queue();
-    }
-
-    /**
-     * Registers a subcommand to this senior command manager.
-     * @param subcommand The subcommand to register
-     * @return Whether the command was registered
-     */
-    public boolean registerSubcommand(final ChannelSubCommand subcommand) {
-        if (this.subcommands.contains(subcommand)) {
-            return false;
-        }
-
-        return this.subcommands.add(subcommand);
+        return mb.build();
     }
 
 }
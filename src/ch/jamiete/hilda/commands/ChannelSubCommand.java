@@ -43,7 +43,7 @@ public abstract class ChannelSubCommand extends ChannelCommand {
      */
     @Override
     protected void usage(final Message received, final String params, final String label) {
-        this.reply(received, "Incorrect usage. " + CommandManager.PREFIX + this.senior.getName() + " " + label + " " + params);
+        this.reply(received, "Incorrect usage. " + this.hilda.getCommandManager().getPrefix(received.getGuild()) + this.senior.getName() + " " + label + " " + params);
     }
 
 }
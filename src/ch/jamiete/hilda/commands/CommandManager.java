@@ -18,48 +18,150 @@ package ch.jamiete.hilda.commands;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.HildaThreadFactory;
 import ch.jamiete.hilda.Sanity;
 import ch.jamiete.hilda.Util;
+import ch.jamiete.hilda.configuration.Configuration;
+import ch.jamiete.hilda.configuration.ConfigurationManager;
 import ch.jamiete.hilda.events.EventHandler;
-import ch.jamiete.hilda.runnables.CommandCleanupTask;
+import ch.jamiete.hilda.util.ConcurrentLongMap;
+import ch.jamiete.hilda.util.ConcurrentLongSet;
+import ch.jamiete.hilda.util.CooldownWheel;
+import ch.jamiete.hilda.util.RateLimiter;
 import net.dv8tion.jda.api.MessageBuilder;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.TextChannel;
 import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
 
 public class CommandManager {
     /**
-     * The command prefix that the bot will respond to.
+     * The command prefix that the bot will respond to in servers that have not set their own.
      */
     public static final String PREFIX = "!";
+    /**
+     * How long to collect changes to the ignore lists for before writing them to the configuration, in milliseconds.
+     */
+    private static final long IGNORED_SAVE_DELAY = 5000;
+    /**
+     * Prefix matchers for servers that have set their own prefix, mirroring the {@code commands} configuration.
+     */
+    private final ConcurrentLongMap<PrefixMatcher> prefixes = new ConcurrentLongMap<>();
+    private final PrefixMatcher matcher;
+    private final long self;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+    private final RateLimiter users, channels, guilds;
+    /**
+     * Channels that have been sent a throttling notice within the current rate limit window.
+     */
+    private final CooldownWheel notices;
+    private final LongAdder throttled = new LongAdder();
     private final List<ChannelCommand> channelCommands;
-    private final List<String> ignoredChannels, ignoredUsers;
-    private int executions = 0;
+    /**
+     * Lower case names and aliases mapped to their commands. Replaced as a whole whenever a command is registered.
+     */
+    private volatile Map<String, ChannelCommand> index = Collections.emptyMap();
+    /**
+     * Channels and users whose commands are ignored, mirroring the {@code commands} configuration.
+     */
+    private final ConcurrentLongSet ignoredChannels = new ConcurrentLongSet(), ignoredUsers = new ConcurrentLongSet();
+    /**
+     * Whether the ignore lists have changed since they were last written to the configuration.
+     */
+    private boolean ignoredChanged = false;
+    private final LongAdder executions = new LongAdder();
     private boolean stopping = false;
     private final Hilda hilda;
+    private final ConfigurationManager configs;
 
     public CommandManager(final Hilda hilda) {
+        this(hilda, hilda.getConfigurationManager());
+    }
+
+    /**
+     * Creates a command manager that keeps its settings in the given configurations rather than those of the bot,
+     * for example to run it against configurations held in memory only.
+     * @param hilda The bot
+     * @param configs The configurations to read and save the {@code commands} configuration with
+     */
+    public CommandManager(final Hilda hilda, final ConfigurationManager configs) {
         this.hilda = hilda;
+        this.configs = configs;
 
         this.channelCommands = new ArrayList<>();
-        this.ignoredChannels = new ArrayList<>();
-        this.ignoredUsers = new ArrayList<>();
 
-        this.hilda.getExecutor().scheduleWithFixedDelay(new CommandCleanupTask(this), 10, 10, TimeUnit.MINUTES);
+        this.self = this.hilda.getBot().getSelfUser().getIdLong();
+        this.matcher = new PrefixMatcher(CommandManager.PREFIX, this.self);
+        this.loadPrefixes();
+
+        final Configuration config = this.configs.getConfiguration("commands");
+        final int threads = Math.max(1, config.getInteger("threads", 4));
+        final int queue = Math.max(1, config.getInteger("queue", 100));
+
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queue), new HildaThreadFactory("HildaCommands"));
+        this.executor.allowCoreThreadTimeOut(true);
+
+        final long window = TimeUnit.SECONDS.toMillis(Math.max(1, config.getInteger("rate_window", 10)));
+        this.users = CommandManager.limiter(config.getInteger("rate_user", 5), window, 65536);
+        this.channels = CommandManager.limiter(config.getInteger("rate_channel", 10), window, 16384);
+        this.guilds = CommandManager.limiter(config.getInteger("rate_guild", 30), window, 4096);
+        this.notices = new CooldownWheel(window);
+
+        CommandManager.loadIgnored(config, "ignored_channels", this.ignoredChannels);
+        CommandManager.loadIgnored(config, "ignored_users", this.ignoredUsers);
+    }
+
+    /**
+     * Ignores commands in a channel unless they transcend the ignore. Saved to the {@code commands} configuration shortly afterwards.
+     * @param id The ID of the channel.
+     */
+    public synchronized void addIgnoredChannel(final long id) {
+        if (this.ignoredChannels.add(id)) {
+            this.ignoredChanged();
+        }
     }
 
+    /**
+     * Ignores commands in a channel unless they transcend the ignore. Saved to the {@code commands} configuration shortly afterwards.
+     * @param id The ID of the channel.
+     * @throws IllegalArgumentException If the ID is not a valid ID.
+     */
     public void addIgnoredChannel(final String id) {
-        if (!this.ignoredChannels.contains(id)) {
-            this.ignoredChannels.add(id);
+        this.addIgnoredChannel(Sanity.idCheck(id, "Must provide a valid channel ID."));
+    }
+
+    /**
+     * Ignores every command from a user. Saved to the {@code commands} configuration shortly afterwards.
+     * @param id The ID of the user.
+     */
+    public synchronized void addIgnoredUser(final long id) {
+        if (this.ignoredUsers.add(id)) {
+            this.ignoredChanged();
         }
     }
 
+    /**
+     * Ignores every command from a user. Saved to the {@code commands} configuration shortly afterwards.
+     * @param id The ID of the user.
+     * @throws IllegalArgumentException If the ID is not a valid ID.
+     */
     public void addIgnoredUser(final String id) {
-        if (!this.ignoredUsers.contains(id)) {
-            this.ignoredUsers.add(id);
-        }
+        this.addIgnoredUser(Sanity.idCheck(id, "Must provide a valid user ID."));
     }
 
     /**
@@ -83,7 +185,7 @@ public class CommandManager {
      * @return The {@link ChannelCommand} that responds to the label or {@code null} if no command responds to that label.
      */
     public ChannelCommand getChannelCommand(final String label) {
-        return this.channelCommands.stream().filter(c -> c.getName().equalsIgnoreCase(label) || c.hasAlias(label)).findFirst().orElse(null);
+        return this.index.get(label.toLowerCase(Locale.ROOT));
     }
 
     /**
@@ -94,16 +196,47 @@ public class CommandManager {
         return Collections.unmodifiableList(this.channelCommands);
     }
 
+    /**
+     * @return The number of async commands currently executing.
+     */
+    public int getActiveCommands() {
+        return this.executor.getActiveCount();
+    }
+
+    /**
+     * Lists the statistics of the commands that have spent the longest executing in total, which are the commands using the most capacity.
+     * @param count The maximum number of commands to list.
+     * @return Unmodifiable list of statistics, busiest first.
+     */
+    public List<CommandStatistics> getBusiestCommands(final int count) {
+        final List<CommandStatistics> statistics = new ArrayList<>();
+
+        synchronized (this) {
+            for (final ChannelCommand command : this.channelCommands) {
+                statistics.add(command.getStatistics());
+            }
+        }
+
+        statistics.sort(Comparator.comparingLong((final CommandStatistics s) -> s.getLatency().getTotal()).thenComparingLong(CommandStatistics::getInvocations).reversed());
+        return Collections.unmodifiableList(statistics.subList(0, Math.min(count, statistics.size())));
+    }
+
     public int getExecutions() {
-        return this.executions;
+        return this.executions.intValue();
     }
 
+    /**
+     * @return Unmodifiable list of the IDs of ignored channels.
+     */
     public List<String> getIgnoredChannels() {
-        return Collections.unmodifiableList(this.ignoredChannels);
+        return CommandManager.toList(this.ignoredChannels);
     }
 
+    /**
+     * @return Unmodifiable list of the IDs of ignored users.
+     */
     public List<String> getIgnoredUsers() {
-        return Collections.unmodifiableList(this.ignoredUsers);
+        return CommandManager.toList(this.ignoredUsers);
     }
 
     /**
@@ -121,43 +254,130 @@ public class CommandManager {
      * @return Whether a command has the label registered as an alias.
      */
     public boolean isChannelCommandAlias(final String label) {
-        return this.channelCommands.stream().anyMatch(c -> c.hasAlias(label));
+        final ChannelCommand command = this.getChannelCommand(label);
+        return command != null && command.hasAlias(label);
     }
 
-    public boolean isChannelIgnored(final String id) {
+    /**
+     * Gets the command prefix used in a server.
+     * @param guild The server to check.
+     * @return The server's prefix or {@link #PREFIX} if it has not set one.
+     */
+    public String getPrefix(final Guild guild) {
+        return this.getPrefix(guild.getIdLong());
+    }
+
+    /**
+     * Gets the command prefix used in a server.
+     * @param guild The ID of the server to check.
+     * @return The server's prefix or {@link #PREFIX} if it has not set one.
+     */
+    public String getPrefix(final long guild) {
+        return this.getMatcher(guild).getPrefix();
+    }
+
+    /**
+     * @return The number of async commands waiting for a thread.
+     */
+    public int getQueuedCommands() {
+        return this.executor.getQueue().size();
+    }
+
+    /**
+     * @return The number of invocations turned away because the executor or the command was at capacity.
+     */
+    public long getRejectedCommands() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * @return The number of invocations turned away by the user, channel or server rate limits.
+     */
+    public long getThrottledCommands() {
+        return this.throttled.sum();
+    }
+
+    /**
+     * Checks whether commands in a channel are ignored. Lock-free and allocation-free.
+     * @param id The ID of the channel.
+     * @return Whether the channel is ignored.
+     */
+    public boolean isChannelIgnored(final long id) {
         return this.ignoredChannels.contains(id);
     }
 
+    public boolean isChannelIgnored(final String id) {
+        return this.isChannelIgnored(Sanity.idCheck(id, "Must provide a valid channel ID."));
+    }
+
+    /**
+     * Checks whether commands from a user are ignored. Lock-free and allocation-free.
+     * @param id The ID of the user.
+     * @return Whether the user is ignored.
+     */
+    public boolean isUserIgnored(final long id) {
+        return this.ignoredUsers.contains(id);
+    }
+
     public boolean isUserIgnored(final String id) {
-        return this.ignoredChannels.contains(id);
+        return this.isUserIgnored(Sanity.idCheck(id, "Must provide a valid user ID."));
     }
 
     @EventHandler
     public void onGuildMessageReceived(final GuildMessageReceivedEvent event) {
-        if (event.getAuthor() == this.hilda.getBot().getSelfUser() || this.stopping) {
+        if (this.stopping) {
+            return;
+        }
+
+        // Most messages are not commands, so reject them before anything is allocated
+        final String content = event.getMessage().getContentRaw();
+        final int from = this.getMatcher(event.getGuild().getIdLong()).match(content);
+
+        if (from == -1) {
             return;
         }
 
-        if (this.ignoredUsers.contains(event.getAuthor().getId())) {
+        final int end = CommandTokenizer.end(content, from);
+
+        if (end == from) {
             return;
         }
 
-        final String content = event.getMessage().getContentRaw();
+        if (event.getAuthor() == this.hilda.getBot().getSelfUser() || this.ignoredUsers.contains(event.getAuthor().getIdLong())) {
+            return;
+        }
 
         final long start = System.currentTimeMillis();
-        Hilda.getLogger().fine("Determining message \"" + content + "\" by " + event.getAuthor().getName() + "...");
 
-        final String[] temp_args = content.split(" ");
+        if (Hilda.getLogger().isLoggable(Level.FINE)) {
+            Hilda.getLogger().fine("Determining message \"" + content + "\" by " + event.getAuthor().getName() + "...");
+        }
+
+        final String label = content.substring(from, end);
+        final ChannelCommand command = this.getChannelCommand(label);
 
-        if (temp_args[0].length() > 0 && temp_args[0].startsWith(CommandManager.PREFIX)) {
-            final String label = temp_args[0].substring(1);
+        if (command != null) {
+            command.getStatistics().invoked();
 
-            if (!this.isChannelCommand(label)) {
+            // Commands that will be ignored must not spend rate limit tokens or draw notices
+            if (this.ignoredChannels.contains(event.getChannel().getIdLong()) && !command.shouldTranscend(event.getMessage())) {
+                Hilda.getLogger().fine("Ignoring message due to ignore override");
                 return;
             }
 
-            final String[] args = Arrays.copyOfRange(temp_args, 1, temp_args.length);
-            final ChannelCommand command = this.getChannelCommand(label);
+            if (command.isServerLocked() && !command.matchesLock(event.getMessage())) {
+                Hilda.getLogger().fine("Ignoring message due to server lock");
+                return;
+            }
+
+            if (this.isThrottled(event)) {
+                this.throttled.increment();
+                command.getStatistics().throttled();
+                this.notice(event.getChannel(), "Slow down! Too many commands are being used here. Please wait a few seconds.");
+                return;
+            }
+
+            final String[] args = CommandTokenizer.tokenize(content, end);
 
             if (!event.getChannel().canTalk()) {
                 event.getAuthor().openPrivateChannel().queue(channel -> {
@@ -174,33 +394,39 @@ public class CommandManager {
                 return;
             }
 
-            this.executions++;
+            if (!command.acquire()) {
+                this.busy(event, command);
+                return;
+            }
+
+            this.executions.increment();
 
             final Runnable execute = () -> {
                 try {
                     Hilda.getLogger().info("Executing " + label + " for " + Util.getName(event.getAuthor()) + " (" + event.getAuthor().getId() + ") in " + event.getGuild().getName() + " (" + event.getGuild().getId() + ")");
                     Hilda.getLogger().fine("    > Executing command " + label + "...");
 
-                    if (this.ignoredChannels.contains(event.getChannel().getId()) && !command.shouldTranscend(event.getMessage())) {
-                        Hilda.getLogger().fine("Ignoring message due to ignore override");
-                        return;
-                    }
-
-                    if (command.isServerLocked() && !command.matchesLock(event.getMessage())) {
-                        Hilda.getLogger().fine("Ignoring message due to server lock");
-                        return;
-                    }
-
                     // Check permissions
                     if (command.getMinimumPermission() != null && !event.getMember().hasPermission(event.getChannel(), command.getMinimumPermission())) {
+                        command.getStatistics().denied();
                         event.getChannel().sendMessage("You don't have permission to use that command.").queue();
                         Hilda.getLogger().fine("    > No permission.");
                     } else {
-                        if (command.canExecute(event.getAuthor().getId())) {
-                            command.markExecuted(event.getAuthor().getId());
-                            command.execute(event.getMessage(), args, label);
+                        if (command.canExecute(event.getAuthor().getIdLong())) {
+                            command.markExecuted(event.getAuthor().getIdLong());
+
+                            final long begin = System.nanoTime();
+
+                            try {
+                                command.execute(event.getMessage(), args, label);
+                                command.getStatistics().record(System.nanoTime() - begin, false);
+                            } catch (final Exception e) {
+                                command.getStatistics().record(System.nanoTime() - begin, true);
+                                throw e;
+                            }
                         } else {
-                            event.getChannel().sendMessage("Slow down! You must wait at least " + command.getTimeout() + "s between command invocations.").queue(Util.deleteAfter(5));
+                            command.getStatistics().throttled();
+                            this.notice(event.getChannel(), "Slow down! You must wait at least " + command.getTimeout() + "s between command invocations.");
                         }
                     }
 
@@ -208,27 +434,89 @@ public class CommandManager {
                 } catch (final Exception e) {
                     Hilda.getLogger().log(Level.WARNING, "Encountered an exception while executing " + label + " for " + event.getMember().getEffectiveName() + " in " + event.getGuild().getName(), e);
                     event.getChannel().sendMessage("Something went wrong while executing that command.").queue();
+                } finally {
+                    command.release();
                 }
             };
 
             if (command.isAsync()) {
-                new Thread(execute).start();
-                Hilda.getLogger().fine("Passed message off to an async thread.");
+                try {
+                    this.executor.execute(execute);
+                    Hilda.getLogger().fine("Passed message off to the command executor.");
+                } catch (final RejectedExecutionException e) {
+                    command.release();
+                    this.busy(event, command);
+                }
             } else {
                 execute.run();
             }
         }
 
-        Hilda.getLogger().fine("Finished handling message in " + (System.currentTimeMillis() - start) + "ms.");
+        if (Hilda.getLogger().isLoggable(Level.FINE)) {
+            Hilda.getLogger().fine("Finished handling message in " + (System.currentTimeMillis() - start) + "ms.");
+        }
 
     }
 
+    private void busy(final GuildMessageReceivedEvent event, final ChannelCommand command) {
+        this.rejected.increment();
+        command.getStatistics().throttled();
+        this.notice(event.getChannel(), "I'm busy right now. Please try that again in a moment.");
+    }
+
+    /**
+     * Takes a token from each of the user, channel and server rate limits, or none if any of them has run out.
+     * @return Whether any of the limits has run out.
+     */
+    private boolean isThrottled(final GuildMessageReceivedEvent event) {
+        final long user = event.getAuthor().getIdLong();
+        final long channel = event.getChannel().getIdLong();
+
+        if (this.users != null && !this.users.tryAcquire(user)) {
+            return true;
+        }
+
+        // Refund the tokens already taken when a wider limit turns the command away, so a busy channel or server does not drain its users
+        if (this.channels != null && !this.channels.tryAcquire(channel)) {
+            CommandManager.release(this.users, user);
+            return true;
+        }
+
+        if (this.guilds != null && !this.guilds.tryAcquire(event.getGuild().getIdLong())) {
+            CommandManager.release(this.users, user);
+            CommandManager.release(this.channels, channel);
+            return true;
+        }
+
+        return false;
+    }
+
+    private static void release(final RateLimiter limiter, final long id) {
+        if (limiter != null) {
+            limiter.release(id);
+        }
+    }
+
+    /**
+     * Sends a short-lived notice to a channel unless it has already been sent one within the rate limit window, so that throttling does not itself cost a message each time. Ignored channels are never sent notices.
+     * @param channel The channel to notify.
+     * @param message The notice to send.
+     */
+    private void notice(final TextChannel channel, final String message) {
+        if (this.ignoredChannels.contains(channel.getIdLong()) || this.notices.isCooling(channel.getIdLong())) {
+            return;
+        }
+
+        this.notices.mark(channel.getIdLong());
+        channel.sendMessage(message).queue(Util.deleteAfter(5));
+    }
+
     /**
      * Registers a channel command. Registered commands will be invoked whenever their name or aliases are used in chat. The command's aliases will be cleaned ({@link #cleanChannelAliases(List)}) before it is registered. This means that aliases are first come, first served.
      * @param command The command to register.
      * @throws IllegalArgumentException If the command supplied is null, the command does not have a name, the command is already registered or the command name is already registered.
      */
-    public void registerChannelCommand(final ChannelCommand command) {
+    public synchronized void registerChannelCommand(final ChannelCommand command) {
         Sanity.nullCheck(command, "You must specify a command.");
         Sanity.nullCheck(command.getName(), "Command must be named.");
         Sanity.falsiness(this.channelCommands.contains(command), "Cannot register duplicate command " + command.getName() + ".");
@@ -246,19 +534,211 @@ public class CommandManager {
         }
 
         this.channelCommands.add(command);
+        this.rebuildIndex();
         Hilda.getLogger().info("Registered channel command " + command.getName() + (!command.getAliases().isEmpty() ? " (" + Util.combineSplit(0, command.getAliases().toArray(new String[command.getAliases().size()]), ", ").trim() + ")" : ""));
     }
 
+    /**
+     * Sets the command prefix used in a server and saves it to the {@code commands} configuration. <p>
+     * Mentioning the bot works as a prefix in every server regardless of this setting.
+     * @param guild The ID of the server.
+     * @param prefix The prefix to use or {@code null} to use {@link #PREFIX}.
+     * @throws IllegalArgumentException If the prefix is empty, longer than 16 characters or contains whitespace.
+     */
+    public synchronized void setPrefix(final long guild, final String prefix) {
+        if (prefix != null) {
+            Sanity.truthiness(prefix.length() > 0 && prefix.length() <= 16, "Prefix must be between 1 and 16 characters long.");
+            Sanity.truthiness(CommandTokenizer.end(prefix, 0) == prefix.length(), "Prefix cannot contain whitespace.");
+        }
+
+        final Configuration config = this.configs.getConfiguration("commands");
+        JsonObject prefixes = config.get().getAsJsonObject("prefixes");
+
+        if (prefixes == null) {
+            prefixes = new JsonObject();
+            config.get().add("prefixes", prefixes);
+        }
+
+        if (prefix == null || prefix.equals(CommandManager.PREFIX)) {
+            prefixes.remove(Long.toString(guild));
+            this.prefixes.remove(guild);
+        } else {
+            prefixes.addProperty(Long.toString(guild), prefix);
+            this.prefixes.put(guild, new PrefixMatcher(prefix, this.self));
+        }
+
+        for (final ChannelCommand command : this.channelCommands) {
+            if (command instanceof ChannelSeniorCommand) {
+                ((ChannelSeniorCommand) command).clearHelp();
+            }
+        }
+
+        config.save();
+    }
+
+    private PrefixMatcher getMatcher(final long guild) {
+        final PrefixMatcher matcher = this.prefixes.get(guild);
+        return matcher == null ? this.matcher : matcher;
+    }
+
+    /**
+     * Reads every server's prefix from the {@code commands} configuration into memory.
+     */
+    private void loadPrefixes() {
+        final JsonObject prefixes = this.configs.getConfiguration("commands").get().getAsJsonObject("prefixes");
+
+        if (prefixes == null) {
+            return;
+        }
+
+        for (final Map.Entry<String, JsonElement> entry : prefixes.entrySet()) {
+            try {
+                this.prefixes.put(Long.parseLong(entry.getKey()), new PrefixMatcher(entry.getValue().getAsString(), this.self));
+            } catch (final Exception e) {
+                Hilda.getLogger().log(Level.WARNING, "Ignoring invalid prefix for server " + entry.getKey(), e);
+            }
+        }
+    }
+
+    private static void loadIgnored(final Configuration config, final String name, final ConcurrentLongSet ignored) {
+        final JsonArray array = config.getArray(name);
+        final long[] values = new long[array.size()];
+        int count = 0;
+
+        for (final JsonElement element : array) {
+            try {
+                final long id = element.getAsLong();
+                Sanity.falsiness(id == 0L, "Discord IDs cannot be 0.");
+                values[count++] = id;
+            } catch (final Exception e) {
+                Hilda.getLogger().log(Level.WARNING, "Ignoring invalid ID in " + name, e);
+            }
+        }
+
+        // Build the set once rather than copying it for every ID
+        ignored.set(Arrays.copyOf(values, count));
+    }
+
+    private static RateLimiter limiter(final int tokens, final long window, final int size) {
+        return tokens > 0 ? new RateLimiter(tokens, window, size) : null;
+    }
+
+    private static List<String> toList(final ConcurrentLongSet set) {
+        final long[] ids = set.toArray();
+
+        if (ids.length == 0) {
+            return Collections.emptyList();
+        }
+
+        final List<String> list = new ArrayList<>(ids.length);
+
+        for (final long id : ids) {
+            list.add(Long.toString(id));
+        }
+
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Publishes a new index of every command name and alias. The first command registered with a label keeps it.
+     */
+    private void rebuildIndex() {
+        final Map<String, ChannelCommand> index = new HashMap<>();
+
+        for (final ChannelCommand command : this.channelCommands) {
+            index.putIfAbsent(command.getName().toLowerCase(Locale.ROOT), command);
+
+            for (final String alias : command.getAliases()) {
+                index.putIfAbsent(alias.toLowerCase(Locale.ROOT), command);
+            }
+        }
+
+        this.index = Collections.unmodifiableMap(index);
+    }
+
+    public synchronized void removeIgnoredChannel(final long id) {
+        if (this.ignoredChannels.remove(id)) {
+            this.ignoredChanged();
+        }
+    }
+
     public void removeIgnoredChannel(final String id) {
-        this.ignoredChannels.remove(id);
+        this.removeIgnoredChannel(Sanity.idCheck(id, "Must provide a valid channel ID."));
+    }
+
+    public synchronized void removeIgnoredUser(final long id) {
+        if (this.ignoredUsers.remove(id)) {
+            this.ignoredChanged();
+        }
     }
 
     public void removeIgnoredUser(final String id) {
-        this.ignoredUsers.remove(id);
+        this.removeIgnoredUser(Sanity.idCheck(id, "Must provide a valid user ID."));
+    }
+
+    /**
+     * Schedules the ignore lists to be written to the configuration, so that a burst of changes is written once.
+     */
+    private void ignoredChanged() {
+        if (this.ignoredChanged) {
+            return;
+        }
+
+        this.ignoredChanged = true;
+
+        if (this.stopping) {
+            this.saveIgnored();
+            return;
+        }
+
+        try {
+            this.hilda.getExecutor().schedule(this::saveIgnored, CommandManager.IGNORED_SAVE_DELAY, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            this.saveIgnored();
+        }
+    }
+
+    /**
+     * Writes the ignore lists to the {@code commands} configuration if they have changed since they were last written.
+     */
+    private synchronized void saveIgnored() {
+        if (!this.ignoredChanged) {
+            return;
+        }
+
+        this.ignoredChanged = false;
+
+        final Configuration config = this.configs.getConfiguration("commands");
+        config.get().add("ignored_channels", CommandManager.toArray(this.ignoredChannels));
+        config.get().add("ignored_users", CommandManager.toArray(this.ignoredUsers));
+        config.save();
+    }
+
+    private static JsonArray toArray(final ConcurrentLongSet set) {
+        final JsonArray array = new JsonArray();
+
+        for (final long id : set.toArray()) {
+            array.add(Long.toString(id));
+        }
+
+        return array;
     }
 
     public void shutdown() {
-        this.stopping = true;
+        synchronized (this) {
+            this.stopping = true;
+            this.saveIgnored();
+        }
+
+        this.executor.shutdown();
+
+        try {
+            if (!this.executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                Hilda.getLogger().warning("Abandoning " + this.executor.getActiveCount() + " commands that did not finish in time");
+            }
+        } catch (final InterruptedException e) {
+            Hilda.getLogger().log(Level.WARNING, "Encountered an exception whilst terminating command executor", e);
+        }
     }
 
 }
\ No newline at end of file
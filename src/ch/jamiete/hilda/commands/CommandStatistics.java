@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.commands;
+
+import java.util.concurrent.atomic.LongAdder;
+import ch.jamiete.hilda.util.LatencyHistogram;
+
+/**
+ * Invocation statistics for a single registered {@link ChannelCommand}.
+ */
+public class CommandStatistics {
+    private final GenericCommand command;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder denials = new LongAdder();
+    private final LongAdder throttles = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    CommandStatistics(final GenericCommand command) {
+        this.command = command;
+    }
+
+    /**
+     * @return The number of invocations refused because the user lacked permission
+     */
+    public long getDenials() {
+        return this.denials.sum();
+    }
+
+    /**
+     * @return The number of executions that threw
+     */
+    public long getErrors() {
+        return this.errors.sum();
+    }
+
+    /**
+     * @return The number of times a user has invoked the command, whether or not it then executed
+     */
+    public long getInvocations() {
+        return this.invocations.sum();
+    }
+
+    /**
+     * @return The time taken by each execution
+     */
+    public LatencyHistogram getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * @return The name of the command
+     */
+    public String getName() {
+        return this.command.getName();
+    }
+
+    /**
+     * @return The number of executions that completed without throwing
+     */
+    public long getSuccesses() {
+        return this.successes.sum();
+    }
+
+    /**
+     * @return The number of invocations turned away by rate limits, the command's timeout or a lack of capacity
+     */
+    public long getThrottles() {
+        return this.throttles.sum();
+    }
+
+    void denied() {
+        this.denials.increment();
+    }
+
+    void invoked() {
+        this.invocations.increment();
+    }
+
+    void record(final long nanos, final boolean failed) {
+        this.latency.record(nanos);
+
+        if (failed) {
+            this.errors.increment();
+        } else {
+            this.successes.increment();
+        }
+    }
+
+    void throttled() {
+        this.throttles.increment();
+    }
+
+    @Override
+    public String toString() {
+        return this.command.getName();
+    }
+
+}
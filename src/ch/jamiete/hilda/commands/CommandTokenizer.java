@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.commands;
+
+/**
+ * Index based helpers for splitting a message into a command label and its arguments. <p>
+ * Tokens are separated by any run of whitespace. Nothing is allocated until {@link #tokenize(String, int)} is called.
+ */
+final class CommandTokenizer {
+    private static final String[] EMPTY = new String[0];
+
+    /**
+     * @param content The text to search.
+     * @param from The index to start at.
+     * @return The index of the first whitespace character at or after {@code from}, or the length of the text.
+     */
+    static int end(final String content, final int from) {
+        int i = from;
+
+        while (i < content.length() && !Character.isWhitespace(content.charAt(i))) {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * @param content The text to search.
+     * @param from The index to start at.
+     * @return The index of the first non-whitespace character at or after {@code from}, or the length of the text.
+     */
+    static int skip(final String content, final int from) {
+        int i = from;
+
+        while (i < content.length() && Character.isWhitespace(content.charAt(i))) {
+            i++;
+        }
+
+        return i;
+    }
+
+    /**
+     * Splits the text after an index into tokens. Leading, trailing and repeated whitespace never produce empty tokens.
+     * @param content The text to split.
+     * @param from The index to start at.
+     * @return The tokens in order.
+     */
+    static String[] tokenize(final String content, final int from) {
+        int count = 0;
+
+        for (int i = CommandTokenizer.skip(content, from); i < content.length(); i = CommandTokenizer.skip(content, CommandTokenizer.end(content, i))) {
+            count++;
+        }
+
+        if (count == 0) {
+            return CommandTokenizer.EMPTY;
+        }
+
+        final String[] tokens = new String[count];
+        int i = CommandTokenizer.skip(content, from);
+
+        for (int t = 0; t < count; t++) {
+            final int end = CommandTokenizer.end(content, i);
+            tokens[t] = content.substring(i, end);
+            i = CommandTokenizer.skip(content, end);
+        }
+
+        return tokens;
+    }
+
+    private CommandTokenizer() {
+    }
+
+}
@@ -17,10 +17,11 @@ package ch.jamiete.hilda.commands;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.Sanity;
+import ch.jamiete.hilda.util.CooldownWheel;
 import net.dv8tion.jda.api.Permission;
 
 public abstract class GenericCommand implements Command {
@@ -35,9 +36,12 @@ public abstract class GenericCommand implements Command {
     boolean aliasesFinal = false;
     private boolean hide = false;
     private boolean async = false;
+    private int concurrency = 0;
+    private final AtomicInteger running = new AtomicInteger();
+    private final CommandStatistics statistics = new CommandStatistics(this);
 
     private int timeout = 0;
-    private Map<String, Long> timeouts;
+    private volatile CooldownWheel timeouts;
 
     GenericCommand(final Hilda hilda) {
         this.hilda = hilda;
@@ -48,6 +52,14 @@ public abstract class GenericCommand implements Command {
         return this.aliases == null ? Collections.emptyList() : Collections.unmodifiableList(this.aliases);
     }
 
+    /**
+     * Gets the maximum number of invocations of this command that may run at once.
+     * @return The limit or {@code 0} if there is no limit.
+     */
+    public final int getConcurrency() {
+        return this.concurrency;
+    }
+
     @Override
     public final String getDescription() {
         return this.description;
@@ -71,6 +83,22 @@ public abstract class GenericCommand implements Command {
         return this.name;
     }
 
+    /**
+     * Gets the invocation statistics of this command.
+     * @return The statistics.
+     */
+    public final CommandStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Gets the number of invocations of this command that are running or waiting to run.
+     * @return The number of invocations.
+     */
+    public final int getRunning() {
+        return this.running.get();
+    }
+
     /**
      * {@inheritDoc} <p>
      * Case insensitive.
@@ -113,6 +141,15 @@ public abstract class GenericCommand implements Command {
         this.async = async;
     }
 
+    /**
+     * Sets the maximum number of invocations of this command that may run at once. Further invocations are turned away until one finishes.
+     * @param concurrency The limit or {@code 0} for no limit.
+     */
+    public final void setConcurrency(final int concurrency) {
+        Sanity.falsiness(concurrency < 0, "Concurrency cannot be negative.");
+        this.concurrency = concurrency;
+    }
+
     @Override
     public void setDescription(final String description) {
         this.description = description;
@@ -145,6 +182,31 @@ public abstract class GenericCommand implements Command {
         this.name = name;
     }
 
+    /**
+     * Reserves a slot for an invocation if the concurrency limit allows it. Every successful call must be followed by {@link #release()}.
+     * @return Whether the invocation may run.
+     */
+    boolean acquire() {
+        while (true) {
+            final int running = this.running.get();
+
+            if (this.concurrency > 0 && running >= this.concurrency) {
+                return false;
+            }
+
+            if (this.running.compareAndSet(running, running + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Frees a slot reserved by {@link #acquire()}.
+     */
+    void release() {
+        this.running.decrementAndGet();
+    }
+
     /**
      * Gets the timeout in seconds between command invocations per user.
      * @return timeout in seconds
@@ -159,62 +221,56 @@ public abstract class GenericCommand implements Command {
      */
     public void setTimeout(int timeout) {
         this.timeout = timeout;
-
-        if (timeout == 0) {
-            this.timeouts = null;
-        } else {
-            this.timeouts = Collections.synchronizedMap(new HashMap<>());
-        }
+        this.timeouts = timeout == 0 ? null : new CooldownWheel(timeout * 1000L);
     }
 
     /**
      * Gets whether a particular user can execute the command with regards to the timeout.
      * @param id The user to check
      * @return Whether that user can execute the command
+     * @throws IllegalArgumentException If the ID is not a valid ID
      */
     public boolean canExecute(String id) {
-        if (this.timeout == 0) {
-            return true;
-        }
-
-        long last = this.timeouts.getOrDefault(id, 0L);
-
-        if (last == 0) {
-            return true;
-        }
+        return this.canExecute(Sanity.idCheck(id, "Must provide a valid user ID."));
+    }
 
-        return System.currentTimeMillis() - last >= this.timeout * 1000;
+    /**
+     * Gets whether a particular user can execute the command with regards to the timeout. Lock-free.
+     * @param id The user to check
+     * @return Whether that user can execute the command
+     */
+    public boolean canExecute(final long id) {
+        final CooldownWheel timeouts = this.timeouts;
+        return timeouts == null || !timeouts.isCooling(id);
     }
 
     /**
      * Marks the command as executed by the user at the current time for the timeout timer.
      * @param id
+     * @throws IllegalArgumentException If the ID is not a valid ID
      */
     public void markExecuted(String id) {
-        if (this.timeouts == null) {
-            return;
-        }
-
-        this.timeouts.put(id, System.currentTimeMillis());
+        this.markExecuted(Sanity.idCheck(id, "Must provide a valid user ID."));
     }
 
     /**
-     * Empties the old timeouts from the cache.
+     * Marks the command as executed by the user at the current time for the timeout timer. Lock-free.
+     * @param id The user that executed the command
      */
-    public void clearTimeouts() {
-        if (this.timeouts == null) {
-            return;
-        }
-
-        synchronized (this.timeouts) {
-            this.timeouts.entrySet().removeIf(entry -> {
-                if (System.currentTimeMillis() - entry.getValue() >= this.timeout * 1000) {
-                    return true;
-                }
+    public void markExecuted(final long id) {
+        final CooldownWheel timeouts = this.timeouts;
 
-                return false;
-            });
+        if (timeouts != null) {
+            timeouts.mark(id);
         }
     }
 
+    /**
+     * Formerly emptied the old timeouts from the cache. Timeouts now expire by themselves, so this does nothing.
+     * @deprecated Timeouts no longer need clearing.
+     */
+    @Deprecated
+    public void clearTimeouts() {
+    }
+
 }
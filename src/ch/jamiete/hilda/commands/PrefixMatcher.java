@@ -0,0 +1,72 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.commands;
+
+/**
+ * Finds where the command label starts in a message for one set of prefixes. <p>
+ * Built once whenever a prefix changes so that matching a message only compares characters: the first character
+ * of the message is tested before any prefix is, so most messages are rejected after a single comparison.
+ */
+final class PrefixMatcher {
+    private final String prefix;
+    private final String[] mentions;
+    private final char first;
+
+    /**
+     * @param prefix The text prefix. The label must follow it directly.
+     * @param self The ID of the bot's user, whose mention may be followed by whitespace before the label.
+     */
+    PrefixMatcher(final String prefix, final long self) {
+        this.prefix = prefix;
+        this.mentions = new String[] { "<@" + self + ">", "<@!" + self + ">" };
+        this.first = prefix.charAt(0);
+    }
+
+    /**
+     * @return The text prefix.
+     */
+    String getPrefix() {
+        return this.prefix;
+    }
+
+    /**
+     * Matches the start of a message against the prefixes.
+     * @param content The raw content of the message.
+     * @return The index at which the label starts or {@code -1} if the message does not start with a prefix.
+     */
+    int match(final String content) {
+        if (content.isEmpty()) {
+            return -1;
+        }
+
+        final char c = content.charAt(0);
+
+        if (c == this.first && content.startsWith(this.prefix)) {
+            return this.prefix.length();
+        }
+
+        if (c == '<') {
+            for (final String mention : this.mentions) {
+                if (content.startsWith(mention)) {
+                    return CommandTokenizer.skip(content, mention.length());
+                }
+            }
+        }
+
+        return -1;
+    }
+
+}
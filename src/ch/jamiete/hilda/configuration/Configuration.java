@@ -30,12 +30,16 @@ import ch.jamiete.hilda.Hilda;
 /**
  * A representation of a configuration file loaded from disk. <p>
  * <b>Do not store references of a configuration file. Fetch it every time you need it.</b> <p>
- * If you do store references of a configuration file, these may become stale over time as new instances of that configuration file are saved to and loaded from disk. As such, data loss becomes possible.
+ * If you do store references of a configuration file, these may become stale over time as new instances of that configuration file are saved to and loaded from disk. As such, data loss becomes possible. <p>
+ * A configuration without a file is only held in memory and is never saved.
  */
 public class Configuration {
     private final File file;
     private JsonObject json;
 
+    /**
+     * @param file The file to load from and save to, or {@code null} to only hold the configuration in memory
+     */
     public Configuration(final File file) {
         this.file = file;
     }
@@ -136,7 +140,7 @@ public class Configuration {
     }
 
     public void load() {
-        if (!this.file.exists()) {
+        if (this.file == null || !this.file.exists()) {
             this.json = new JsonObject();
             return;
         }
@@ -175,6 +179,10 @@ public class Configuration {
     }
 
     public void save() {
+        if (this.file == null) {
+            return;
+        }
+
         Charset charset = null;
 
         try {
@@ -219,7 +227,7 @@ public class Configuration {
      */
     private void safety() {
         if (this.json == null) {
-            Hilda.getLogger().warning("JSON object in " + this.file.getName() + " was null; re-loading this configuration...");
+            Hilda.getLogger().warning("JSON object in " + (this.file == null ? "an in-memory configuration" : this.file.getName()) + " was null; re-loading this configuration...");
             this.load();
         }
     }
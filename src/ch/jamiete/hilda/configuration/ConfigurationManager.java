@@ -27,11 +27,25 @@ import ch.jamiete.hilda.plugins.HildaPlugin;
 public class ConfigurationManager {
     private static final int TIME_LIMIT = 5 * 60 * 1000;
     private final List<ConfigurationWrapper> configs = Collections.synchronizedList(new ArrayList<>());
+    private final File directory;
 
     public ConfigurationManager(final Hilda hilda) {
-        hilda.getExecutor().scheduleWithFixedDelay(() -> {
-            this.unload();
-        }, 10, 10, TimeUnit.MINUTES);
+        this(hilda, new File("configs"));
+    }
+
+    /**
+     * @param hilda The bot
+     * @param directory The directory configuration files are kept in, or {@code null} to keep every configuration
+     * in memory only, in which case configurations are never saved or unloaded
+     */
+    public ConfigurationManager(final Hilda hilda, final File directory) {
+        this.directory = directory;
+
+        if (directory != null) {
+            hilda.getExecutor().scheduleWithFixedDelay(() -> {
+                this.unload();
+            }, 10, 10, TimeUnit.MINUTES);
+        }
     }
 
     public Configuration getConfiguration(final HildaPlugin plugin) {
@@ -65,7 +79,7 @@ public class ConfigurationManager {
             return config.getConfiguration();
         }
 
-        config = new ConfigurationWrapper(tmpId, new Configuration(new File("configs/" + id)));
+        config = new ConfigurationWrapper(tmpId, new Configuration(this.directory == null ? null : new File(this.directory, id)));
 
         synchronized (this.configs) {
             this.configs.add(config);
@@ -17,20 +17,27 @@
   *******************************************************************************/
 package ch.jamiete.hilda.events;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.HildaThreadFactory;
+import ch.jamiete.hilda.Sanity;
 import ch.jamiete.hilda.Util;
+import ch.jamiete.hilda.replay.EventRecorder;
 import net.dv8tion.jda.api.events.Event;
 import net.dv8tion.jda.api.events.GenericEvent;
 import net.dv8tion.jda.api.events.channel.text.GenericTextChannelEvent;
@@ -61,8 +68,28 @@ import net.dv8tion.jda.api.hooks.IEventManager;
  * @see EventHandler
  */
 public class AnnotatedEventManager implements IEventManager {
-    private final Set<Object> listeners = new HashSet<>();
-    private final Map<Class<? extends GenericEvent>, Map<Object, List<Method>>> methods = new HashMap<>();
+    private static final long LANE_STOP_TIMEOUT = 10000;
+    private static final int LANE_CAPACITY = 10000;
+
+    /**
+     * The generated listener table of each listener class, including the classes without one, so that
+     * registering a class again does not look for its table again.
+     */
+    private static final ClassValue<Optional<ListenerTable>> TABLES = new ClassValue<Optional<ListenerTable>>() {
+        @Override
+        protected Optional<ListenerTable> computeValue(final Class<?> type) {
+            return AnnotatedEventManager.loadTable(type);
+        }
+    };
+
+    private final Object lock = new Object();
+    private volatile ListenerRegistry registry = ListenerRegistry.EMPTY;
+    private volatile DispatchLane[] lanes = null;
+    private volatile EventRecorder recorder = null;
+    private volatile ExecutorService executor = null;
+    private boolean shutdown = false;
+    private final EventWaiter waiter = new EventWaiter(this);
+    private volatile CircuitBreaker.Settings breaker = new CircuitBreaker.Settings(20, 0.5, 60000, 30000);
 
     private Hilda hilda;
 
@@ -70,187 +97,663 @@ public class AnnotatedEventManager implements IEventManager {
         this.hilda = hilda;
     }
 
+    /**
+     * Gets the lanes used for parallel dispatch. <p>
+     * The first lane handles events that do not belong to a guild.
+     * @return The lanes, or an empty list if parallel dispatch is disabled
+     */
+    public List<DispatchLane> getDispatchLanes() {
+        final DispatchLane[] lanes = this.lanes;
+        return lanes == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(lanes));
+    }
+
+    /**
+     * Gets the statistics of every registered listener method.
+     * @return An unmodifiable list of statistics
+     */
+    public List<ListenerStatistics> getListenerStatistics() {
+        return Collections.unmodifiableList(this.registry.getStatistics());
+    }
+
     @Override
     public List<Object> getRegisteredListeners() {
-        return Collections.unmodifiableList(new LinkedList<>(this.listeners));
+        return Collections.unmodifiableList(this.registry.getListeners());
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void handle(final GenericEvent event) {
-        Class<? extends GenericEvent> eventClass = event.getClass();
+        final EventRecorder recorder = this.recorder;
+
+        if (recorder != null) {
+            recorder.record(event);
+        }
+
+        if (this.waiter.isWaiting()) {
+            this.waiter.offer(event);
+        }
+
+        final DispatchEntry entry = this.registry.getDispatch(event.getClass());
+
+        if (entry.targets.length == 0) {
+            return;
+        }
 
         // Check if server's events should be ignored
 
-        List<String> allowed = hilda.getAllowedServers();
+        final long guild = entry.guild.applyAsLong(event);
 
-        if (!allowed.isEmpty()) {
-            if (event instanceof GenericGuildEvent) {
-                final GenericGuildEvent ev = (GenericGuildEvent) event;
+        if (guild != 0L && !this.hilda.isAllowedServer(guild)) {
+            return;
+        }
 
-                if (!allowed.contains(ev.getGuild().getId())) {
-                    return;
-                }
+        // Send event to all relevant listeners
+
+        final DispatchLane[] lanes = this.lanes;
+
+        if (lanes == null) {
+            this.invoke(event, entry);
+            return;
+        }
+
+        if (!this.submit(lanes, event, entry, guild)) {
+            // The lane is being replaced or stopped, so queue the event on its replacement or handle it here
+            final DispatchLane[] current = this.lanes;
+
+            if (current == null || current == lanes || !this.submit(current, event, entry, guild)) {
+                this.invoke(event, entry);
             }
+        }
+    }
+
+    /**
+     * Queues an event on the lane for its guild.
+     * @return Whether the lane accepted the event, which is {@code false} if it is stopping or the thread was interrupted
+     */
+    private boolean submit(final DispatchLane[] lanes, final GenericEvent event, final DispatchEntry entry, final long guild) {
+        final DispatchLane lane = guild == 0L ? lanes[0] : lanes[1 + Math.floorMod(Long.hashCode(guild * 0x9E3779B97F4A7C15L), lanes.length - 1)];
+
+        try {
+            return lane.submit(event, guild, entry.priority);
+        } catch (final InterruptedException e) {
+            Hilda.getLogger().log(Level.WARNING, "Interrupted while waiting to queue an event on event lane " + lane.getName(), e);
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return The recorder incoming events are written to, or {@code null} if events are not being recorded
+     */
+    public EventRecorder getRecorder() {
+        return this.recorder;
+    }
+
+    /**
+     * @param eventClass The event class
+     * @return The priority events of the class are dispatched with when parallel dispatch is enabled
+     */
+    public EventPriority getEventPriority(final Class<? extends GenericEvent> eventClass) {
+        return this.registry.getPriority(eventClass);
+    }
+
+    /**
+     * @return The waiter for one-off events such as replies and reactions to a particular message
+     */
+    public EventWaiter getWaiter() {
+        return this.waiter;
+    }
+
+    /**
+     * Gets the listener methods with the slowest invocations.
+     * @param count The maximum number of listener methods to return
+     * @return The statistics of the slowest listener methods by 99th percentile latency, slowest first
+     */
+    public List<ListenerStatistics> getSlowestListeners(final int count) {
+        final List<ListenerStatistics> statistics = this.registry.getStatistics();
+        statistics.sort(Comparator.comparingLong((final ListenerStatistics s) -> s.getLatency().getPercentile(99)).thenComparingLong(s -> s.getLatency().getMean()).reversed());
+        return Collections.unmodifiableList(statistics.subList(0, Math.min(count, statistics.size())));
+    }
+
+    /**
+     * Gets whether events are handled by dispatch lanes rather than the thread that delivered them.
+     * @return Whether parallel dispatch is enabled
+     */
+    public boolean isParallelDispatch() {
+        return this.lanes != null;
+    }
+
+    /**
+     * Sets the priority events of a class and its subclasses are dispatched with when parallel dispatch is enabled. <p>
+     * By default messages are {@link EventPriority#HIGH}, reactions are {@link EventPriority#NORMAL} and
+     * user events such as presence updates and typing are {@link EventPriority#LOW}. Every other event is
+     * {@link EventPriority#NORMAL} unless a superclass has been given a priority.
+     * @param eventClass The event class
+     * @param priority The priority, or {@code null} to inherit the priority of the superclass
+     * @throws IllegalArgumentException If the event class is null
+     */
+    public void setEventPriority(final Class<? extends GenericEvent> eventClass, final EventPriority priority) {
+        Sanity.nullCheck(eventClass, "Must provide an event class.");
+
+        synchronized (this.lock) {
+            this.registry = this.registry.withPriority(eventClass, priority);
+        }
+    }
 
-            if (event instanceof GenericGuildMessageEvent) {
-                final GenericGuildMessageEvent ev = (GenericGuildMessageEvent) event;
+    /**
+     * Enables, resizes or disables parallel dispatch. <p>
+     * When enabled, events are handed to one of {@code lanes} worker threads chosen by the ID of their guild,
+     * plus one more lane for events that do not belong to a guild. Events from the same guild are always
+     * handled by the same lane in the order they were received, while different guilds are handled in parallel.
+     * Each lane queues at most 10000 events and blocks the thread delivering events while it is full. <p>
+     * Lanes being replaced finish the events already queued on them before they stop, while events that arrive
+     * in the meantime go to the new lanes, so events from one guild may briefly be handled out of order. This
+     * should therefore ideally be called before the bot starts receiving events.
+     * @param lanes The number of lanes for guild events, or {@code 0} to handle events on the thread that delivers them
+     * @throws IllegalArgumentException If the number of lanes is negative
+     */
+    public void setParallelDispatch(final int lanes) {
+        this.setParallelDispatch(lanes, AnnotatedEventManager.LANE_CAPACITY, OverflowPolicy.BLOCK);
+    }
 
-                if (!allowed.contains(ev.getGuild().getId())) {
-                    return;
+    /**
+     * Enables, resizes or disables parallel dispatch with bounded lane queues.
+     * @param lanes The number of lanes for guild events, or {@code 0} to handle events on the thread that delivers them
+     * @param capacity The largest number of events each lane queues
+     * @param overflow What to do with events for a lane that is full
+     * @throws IllegalArgumentException If the number of lanes is negative, the capacity is not positive or the policy is null
+     * @see #setParallelDispatch(int)
+     */
+    public void setParallelDispatch(final int lanes, final int capacity, final OverflowPolicy overflow) {
+        Sanity.falsiness(lanes < 0, "Cannot have a negative number of lanes.");
+        Sanity.falsiness(capacity < 1, "Lane capacity must be positive.");
+        Sanity.nullCheck(overflow, "Must provide an overflow policy.");
+
+        final DispatchLane[] previous;
+
+        synchronized (this.lock) {
+            previous = this.lanes;
+
+            if (lanes == 0) {
+                this.lanes = null;
+            } else {
+                final HildaThreadFactory factory = new HildaThreadFactory("HildaEvents");
+                final DispatchLane[] created = new DispatchLane[lanes + 1];
+
+                for (int i = 0; i < created.length; i++) {
+                    created[i] = new DispatchLane(this, i == 0 ? "global" : "guild-" + i, capacity, overflow);
+                    created[i].start(factory.newThread(created[i]));
                 }
+
+                this.lanes = created;
             }
+        }
+
+        this.stopLanes(previous);
+    }
+
+    /**
+     * Gets whether invocation counts, error counts and latencies are recorded for each listener method.
+     * @return Whether statistics are recorded
+     */
+    public boolean isStatistics() {
+        return this.registry.isStatistics();
+    }
+
+    /**
+     * Records every incoming event, including those without listeners or from servers that are not allowed.
+     * @param recorder The recorder to write events to, or {@code null} to stop recording
+     * @return The previous recorder, which is not closed, or {@code null} if there was none
+     */
+    public EventRecorder setRecorder(final EventRecorder recorder) {
+        synchronized (this.lock) {
+            final EventRecorder previous = this.recorder;
+            this.recorder = recorder;
+            return previous;
+        }
+    }
 
-            if (event instanceof GenericGuildMessageReactionEvent) {
-                final GenericGuildMessageReactionEvent ev = (GenericGuildMessageReactionEvent) event;
+    /**
+     * Configures when listener methods are quarantined for failing too often. <p>
+     * A quarantined method is not invoked and its failures are not logged. Once the cool-down has passed,
+     * the next event is passed to it as a retry; it is released if that succeeds and quarantined again if not.
+     * By default a method is quarantined once at least 20 invocations, and half of all invocations, have
+     * failed within a minute, and is retried every 30 seconds.
+     * @param failures The minimum number of failures within the window, or {@code 0} to never quarantine
+     * @param ratio The minimum proportion of invocations within the window that failed, between 0 and 1
+     * @param window The length of the window in milliseconds
+     * @param cooldown How long to quarantine a method for before retrying it, in milliseconds
+     * @throws IllegalArgumentException If any value is out of range
+     */
+    public void setCircuitBreaker(final int failures, final double ratio, final long window, final long cooldown) {
+        Sanity.falsiness(failures < 0, "Cannot require a negative number of failures.");
+        Sanity.truthiness(ratio >= 0 && ratio <= 1, "Ratio must be between 0 and 1.");
+        Sanity.truthiness(window > 0 && cooldown > 0, "Window and cool-down must be positive.");
+
+        this.breaker = new CircuitBreaker.Settings(failures, ratio, window, cooldown);
+    }
+
+    /**
+     * Sets whether invocation counts, error counts and latencies are recorded for each listener method. <p>
+     * Enabled by default. When disabled, listener methods are invoked without any timing.
+     * @param statistics Whether statistics should be recorded
+     */
+    public void setStatistics(final boolean statistics) {
+        synchronized (this.lock) {
+            this.registry = this.registry.withStatistics(statistics);
+        }
+    }
+
+    /**
+     * Stops parallel dispatch, waiting for queued events to be handled, then delivers any partial batches,
+     * stops recording events and waits for asynchronous listeners to finish their queues. Events queued for
+     * asynchronous listeners after this are discarded.
+     */
+    public void shutdown() {
+        this.setParallelDispatch(0);
 
-                if (!allowed.contains(ev.getGuild().getId())) {
-                    return;
+        final EventRecorder recorder = this.setRecorder(null);
+
+        if (recorder != null) {
+            recorder.close();
+        }
+
+        final ExecutorService executor;
+
+        synchronized (this.lock) {
+            executor = this.executor;
+            this.executor = null;
+            this.shutdown = true;
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+
+            try {
+                if (!executor.awaitTermination(AnnotatedEventManager.LANE_STOP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                    Hilda.getLogger().warning("Asynchronous listeners did not finish their queued events in time");
                 }
+            } catch (final InterruptedException e) {
+                Hilda.getLogger().log(Level.WARNING, "Interrupted while waiting for asynchronous listeners to finish", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (final ListenerMethod method : this.registry.getMethods()) {
+            if (method.getBatcher() != null) {
+                method.getBatcher().flush();
             }
+        }
+    }
 
-            if (event instanceof GenericRoleEvent) {
-                final GenericRoleEvent ev = (GenericRoleEvent) event;
+    /**
+     * Invokes the listener methods for an event that has already passed filtering.
+     * @param event The event
+     */
+    void dispatch(final GenericEvent event) {
+        this.invoke(event, this.registry.getDispatch(event.getClass()));
+    }
 
-                if (!allowed.contains(ev.getGuild().getId())) {
-                    return;
+    private void invoke(final GenericEvent event, final DispatchEntry entry) {
+        for (final DispatchTarget target : entry.targets) {
+            try {
+                if (target.filter != null && !target.filter.accept(event)) {
+                    continue;
                 }
-            }
 
-            if (event instanceof GenericTextChannelEvent) {
-                final GenericTextChannelEvent ev = (GenericTextChannelEvent) event;
+                if (target.key != null) {
+                    target.method.getCoalescer().offer(event, target.key.applyAsLong(event));
+                    continue;
+                }
 
-                if (!allowed.contains(ev.getGuild().getId())) {
-                    return;
+                if (target.method.getBatcher() != null) {
+                    target.method.getBatcher().offer(event);
+                    continue;
                 }
+
+                if (target.method.getQueue() != null) {
+                    target.method.getQueue().offer(event, target.overflowKey == null ? 0L : target.overflowKey.applyAsLong(event));
+                    continue;
+                }
+            } catch (final InterruptedException e) {
+                Hilda.getLogger().log(Level.WARNING, "Interrupted while waiting to queue an event for " + target.method.getStatistics(), e);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final Throwable throwable) {
+                this.handleException(event, target.method, throwable);
+                continue;
+            }
+
+            this.invoke(target.method, event, event, 0, entry.statistics);
+        }
+    }
+
+    /**
+     * Invokes a single listener method outside of normal dispatch, such as when coalesced events are released.
+     * @param method The listener method
+     * @param event The event
+     * @param count The count to pass to methods that declare it
+     */
+    void invoke(final ListenerMethod method, final GenericEvent event, final int count) {
+        this.invoke(method, event, event, count, this.registry.isStatistics());
+    }
+
+    /**
+     * Invokes a batching listener method with a batch of events.
+     * @param method The listener method
+     * @param batch The events, in the order they were dispatched
+     */
+    void invoke(final ListenerMethod method, final List<GenericEvent> batch) {
+        this.invoke(method, batch.get(batch.size() - 1), Collections.unmodifiableList(batch), batch.size(), this.registry.isStatistics());
+    }
+
+    /**
+     * Invokes a listener method through its circuit breaker.
+     * @param method The listener method
+     * @param event The event being handled, for error reporting
+     * @param argument The argument to pass to the method
+     * @param count The count to pass to methods that declare it
+     * @param statistics Whether to record statistics
+     */
+    private void invoke(final ListenerMethod method, final GenericEvent event, final Object argument, final int count, final boolean statistics) {
+        final CircuitBreaker.Settings settings = this.breaker;
+
+        if (!method.getBreaker().allow(settings)) {
+            return;
+        }
+
+        try {
+            if (statistics) {
+                this.invokeMeasured(method, argument, count);
+            } else {
+                method.invoke(argument, count);
             }
+        } catch (final Throwable throwable) {
+            switch (method.getBreaker().failure(settings)) {
+                case CLOSED:
+                    this.handleException(event, method, throwable);
+                    break;
+
+                case TRIPPED:
+                    this.handleException(event, method, throwable);
+                    Hilda.getLogger().warning("Quarantined " + method.getStatistics() + " for failing too often; it will be retried in " + Util.getFriendlyTime(settings.cooldown));
+                    break;
+
+                case REOPENED:
+                    Hilda.getLogger().fine("Quarantined " + method.getStatistics() + " failed its retry with " + throwable);
+                    break;
+            }
+
+            return;
+        }
 
-            if (event instanceof GenericVoiceChannelEvent) {
-                final GenericVoiceChannelEvent ev = (GenericVoiceChannelEvent) event;
+        if (method.getBreaker().success()) {
+            Hilda.getLogger().info("Released " + method.getStatistics() + " from quarantine after a successful retry");
+        }
+    }
+
+    /**
+     * Runs a task on the pool that drains the queues of asynchronous listener methods, creating it if needed.
+     * @param task The task to run
+     * @throws RejectedExecutionException If the event manager has been shut down
+     */
+    void execute(final Runnable task) {
+        ExecutorService executor = this.executor;
+
+        if (executor == null) {
+            synchronized (this.lock) {
+                if (this.shutdown) {
+                    throw new RejectedExecutionException("The event manager has been shut down");
+                }
 
-                if (!allowed.contains(ev.getGuild().getId())) {
-                    return;
+                if (this.executor == null) {
+                    this.executor = Executors.newCachedThreadPool(new HildaThreadFactory("HildaListeners"));
                 }
+
+                executor = this.executor;
             }
         }
 
-        // Send event to all relevant listeners
+        executor.execute(task);
+    }
+
+    /**
+     * Runs a task on the Hilda executor after a delay.
+     * @param task The task to run
+     * @param delay The delay in milliseconds
+     * @return The scheduled task
+     */
+    ScheduledFuture<?> schedule(final Runnable task, final long delay) {
+        return this.hilda.getExecutor().schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
 
-        do {
-            final Map<Object, List<Method>> listeners = this.methods.get(eventClass);
-
-            if (listeners != null) {
-                final Class<? extends GenericEvent> eventClassFinal = eventClass;
-
-                listeners.entrySet().forEach(e -> e.getValue().forEach(method -> {
-                    try {
-                        method.setAccessible(true);
-                        method.invoke(e.getKey(), event);
-                    } catch (final IllegalAccessException e1) {
-                        Hilda.getLogger().log(Level.WARNING, "Encountered a reflection exception while handling event", e1);
-                    } catch (final Throwable throwable) {
-                        final StringBuilder sb = new StringBuilder();
-
-                        sb.append("An event listener for ").append(eventClassFinal.getName()).append(" encountered an exception");
-
-                        // Provide more information
-                        if (event instanceof GenericGuildEvent) {
-                            final GenericGuildEvent ev = (GenericGuildEvent) event;
-                            sb.append(" in ").append(Util.getName(ev.getGuild()));
-                        }
-
-                        if (event instanceof GenericGuildMessageEvent) {
-                            final GenericGuildMessageEvent ev = (GenericGuildMessageEvent) event;
-                            sb.append(" with message ").append(ev.getMessageId());
-                            sb.append(" in ").append(Util.getName(ev.getGuild()));
-                        }
-
-                        if (event instanceof GenericGuildMessageReactionEvent) {
-                            final GenericGuildMessageReactionEvent ev = (GenericGuildMessageReactionEvent) event;
-                            sb.append(" with message ").append(ev.getMessageId());
-                            sb.append(" in ").append(Util.getName(ev.getGuild()));
-                        }
-
-                        if (event instanceof GenericRoleEvent) {
-                            final GenericRoleEvent ev = (GenericRoleEvent) event;
-                            sb.append(" with role ").append(ev.getRole().getId());
-                            sb.append(" in ").append(Util.getName(ev.getGuild()));
-                        }
-
-                        if (event instanceof GenericTextChannelEvent) {
-                            final GenericTextChannelEvent ev = (GenericTextChannelEvent) event;
-                            sb.append(" with channel ").append(ev.getChannel().getId());
-                            sb.append(" in ").append(Util.getName(ev.getGuild()));
-                        }
-
-                        if (event instanceof GenericVoiceChannelEvent) {
-                            final GenericVoiceChannelEvent ev = (GenericVoiceChannelEvent) event;
-                            sb.append(" with channel ").append(ev.getChannel().getId());
-                            sb.append(" in ").append(Util.getName(ev.getGuild()));
-                        }
-
-                        // Log
-                        if (throwable instanceof InvocationTargetException && throwable.getCause() != null) {
-                            Hilda.getLogger().log(Level.WARNING, sb.toString(), throwable.getCause());
-                        } else {
-                            Hilda.getLogger().log(Level.WARNING, sb.toString(), throwable);
-                        }
-
-                        if (!(event instanceof UnhandledEventExceptionEvent)) {
-                            this.handle(new UnhandledEventExceptionEvent(event.getJDA(), 0L, throwable, event));
-                        }
-                    }
-                }));
+    private void invokeMeasured(final ListenerMethod method, final Object argument, final int count) throws Throwable {
+        final long start = System.nanoTime();
+
+        try {
+            method.invoke(argument, count);
+        } catch (final Throwable throwable) {
+            method.getStatistics().record(System.nanoTime() - start, true);
+            throw throwable;
+        }
+
+        method.getStatistics().record(System.nanoTime() - start, false);
+    }
+
+    private void stopLanes(final DispatchLane[] lanes) {
+        if (lanes == null) {
+            return;
+        }
+
+        for (final DispatchLane lane : lanes) {
+            try {
+                lane.stop(AnnotatedEventManager.LANE_STOP_TIMEOUT);
+            } catch (final InterruptedException e) {
+                Hilda.getLogger().log(Level.WARNING, "Interrupted while stopping event lane " + lane.getName(), e);
+                Thread.currentThread().interrupt();
+                return;
             }
+        }
+    }
+
+    private void handleException(final GenericEvent event, final ListenerMethod method, final Throwable throwable) {
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append("An event listener for ").append(method.getEventClass().getName()).append(" encountered an exception");
+
+        // Provide more information
+        if (event instanceof GenericGuildEvent) {
+            final GenericGuildEvent ev = (GenericGuildEvent) event;
+            sb.append(" in ").append(Util.getName(ev.getGuild()));
+        }
+
+        if (event instanceof GenericGuildMessageEvent) {
+            final GenericGuildMessageEvent ev = (GenericGuildMessageEvent) event;
+            sb.append(" with message ").append(ev.getMessageId());
+            sb.append(" in ").append(Util.getName(ev.getGuild()));
+        }
+
+        if (event instanceof GenericGuildMessageReactionEvent) {
+            final GenericGuildMessageReactionEvent ev = (GenericGuildMessageReactionEvent) event;
+            sb.append(" with message ").append(ev.getMessageId());
+            sb.append(" in ").append(Util.getName(ev.getGuild()));
+        }
+
+        if (event instanceof GenericRoleEvent) {
+            final GenericRoleEvent ev = (GenericRoleEvent) event;
+            sb.append(" with role ").append(ev.getRole().getId());
+            sb.append(" in ").append(Util.getName(ev.getGuild()));
+        }
 
-            eventClass = eventClass == Event.class ? null : (Class<? extends Event>) eventClass.getSuperclass();
-        } while (eventClass != null);
+        if (event instanceof GenericTextChannelEvent) {
+            final GenericTextChannelEvent ev = (GenericTextChannelEvent) event;
+            sb.append(" with channel ").append(ev.getChannel().getId());
+            sb.append(" in ").append(Util.getName(ev.getGuild()));
+        }
+
+        if (event instanceof GenericVoiceChannelEvent) {
+            final GenericVoiceChannelEvent ev = (GenericVoiceChannelEvent) event;
+            sb.append(" with channel ").append(ev.getChannel().getId());
+            sb.append(" in ").append(Util.getName(ev.getGuild()));
+        }
+
+        // Log
+        Hilda.getLogger().log(Level.WARNING, sb.toString(), throwable);
+
+        if (!(event instanceof UnhandledEventExceptionEvent)) {
+            this.handle(new UnhandledEventExceptionEvent(event.getJDA(), 0L, throwable, event));
+        }
     }
 
     @Override
     public void register(final Object listener) {
-        if (this.listeners.add(listener)) {
-            this.updateMethods();
+        synchronized (this.lock) {
+            if (!this.registry.contains(listener)) {
+                this.registry = this.registry.with(listener, this.findMethods(listener));
+            }
         }
     }
 
     @Override
     public void unregister(final Object listener) {
-        if (this.listeners.remove(listener)) {
-            this.updateMethods();
+        final List<ListenerMethod> removed;
+
+        synchronized (this.lock) {
+            removed = this.registry.getMethods(listener);
+            this.registry = this.registry.without(listener);
+        }
+
+        removed.forEach(ListenerMethod::close);
+    }
+
+    /**
+     * @param type The generic type of a {@code List} parameter
+     * @return The event class the list holds, or {@code null} if it does not hold events
+     */
+    private static Class<?> getElementType(final Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return null;
+        }
+
+        final Type element = ((ParameterizedType) type).getActualTypeArguments()[0];
+
+        if (element instanceof Class && Event.class.isAssignableFrom((Class<?>) element)) {
+            return (Class<?>) element;
         }
+
+        return null;
     }
 
+    /**
+     * Finds the {@link EventHandler} methods of a single listener, from its generated {@link ListenerTable} if it
+     * has one or by scanning its declared methods otherwise.
+     * @param listener The listener instance, or a {@link Class} to only find static methods
+     * @return The methods found
+     */
     @SuppressWarnings("rawtypes")
-    private void updateMethods() {
-        this.methods.clear();
-        for (final Object listener : this.listeners) {
-            final boolean isClass = listener instanceof Class;
-            final Class<?> c = isClass ? (Class) listener : listener.getClass();
-            final Method[] allMethods = c.getDeclaredMethods();
-
-            for (final Method m : allMethods) {
-                if (!m.isAnnotationPresent(EventHandler.class) || isClass && !Modifier.isStatic(m.getModifiers())) {
+    private List<ListenerMethod> findMethods(final Object listener) {
+        final List<ListenerMethod> found = new ArrayList<>();
+        final boolean isClass = listener instanceof Class;
+        final Class<?> c = isClass ? (Class) listener : listener.getClass();
+        final ListenerTable table = AnnotatedEventManager.getTable(c);
+
+        if (table != null) {
+            for (final ListenerTable.Entry entry : table.getEntries()) {
+                if (isClass && !entry.isStatic) {
                     continue;
                 }
 
-                final Class<?>[] pType = m.getParameterTypes();
+                final String name = c.getName() + "#" + entry.name;
 
-                if (pType.length == 1 && Event.class.isAssignableFrom(pType[0])) {
-                    @SuppressWarnings("unchecked")
-                    final Class<? extends Event> eventClass = (Class<? extends Event>) pType[0];
+                if (AnnotatedEventManager.isValid(name, entry.annotation, entry.batch)) {
+                    found.add(ListenerMethod.generated(this, listener, c, entry));
+                }
+            }
 
-                    if (!this.methods.containsKey(eventClass)) {
-                        this.methods.put(eventClass, new HashMap<>());
-                    }
+            return found;
+        }
 
-                    if (!this.methods.get(eventClass).containsKey(listener)) {
-                        this.methods.get(eventClass).put(listener, new ArrayList<>());
-                    }
+        for (final Method m : c.getDeclaredMethods()) {
+            if (!m.isAnnotationPresent(EventHandler.class) || isClass && !Modifier.isStatic(m.getModifiers())) {
+                continue;
+            }
 
-                    this.methods.get(eventClass).get(listener).add(m);
-                }
+            final Class<?>[] pType = m.getParameterTypes();
+            final boolean coalesces = m.getAnnotation(EventHandler.class).coalesce() != CoalesceKey.NONE;
+            final Class<?> batched = pType.length == 1 && pType[0] == List.class ? AnnotatedEventManager.getElementType(m.getGenericParameterTypes()[0]) : null;
+
+            if (batched != null) {
+                this.addMethod(found, listener, m, batched, true);
+            } else if ((pType.length == 1 || coalesces && pType.length == 2 && pType[1] == int.class) && Event.class.isAssignableFrom(pType[0])) {
+                // Coalescing methods may also take the number of events that were replaced
+                this.addMethod(found, listener, m, pType[0], false);
             }
         }
+
+        return found;
+    }
+
+    /**
+     * Binds a scanned {@link EventHandler} method to its listener if its options can be combined.
+     * @param found The list to add the method to
+     * @param listener The listener instance, or the {@link Class} for static listeners
+     * @param m The method
+     * @param eventClass The event class the method receives
+     * @param batch Whether the method receives a list of events
+     */
+    private void addMethod(final List<ListenerMethod> found, final Object listener, final Method m, final Class<?> eventClass, final boolean batch) {
+        final String name = m.getDeclaringClass().getName() + "#" + m.getName();
+
+        if (!AnnotatedEventManager.isValid(name, m.getAnnotation(EventHandler.class), batch)) {
+            return;
+        }
+
+        try {
+            found.add(ListenerMethod.reflect(this, listener, m, eventClass, batch));
+        } catch (final IllegalAccessException e) {
+            Hilda.getLogger().log(Level.WARNING, "Encountered a reflection exception while registering " + name, e);
+        }
+    }
+
+    /**
+     * Checks that the options of an {@link EventHandler} method can be combined, logging a warning if not.
+     * @param name The name of the method for the warning
+     * @param annotation The annotation of the method
+     * @param batch Whether the method receives a list of events
+     * @return Whether the method can be registered
+     */
+    private static boolean isValid(final String name, final EventHandler annotation, final boolean batch) {
+        final boolean coalesces = annotation.coalesce() != CoalesceKey.NONE;
+
+        if (annotation.async() && (coalesces || batch || annotation.queueSize() < 1)) {
+            Hilda.getLogger().warning("Skipping asynchronous method " + name + " as it coalesces or batches events or has an invalid queue size");
+            return false;
+        }
+
+        if (batch && (coalesces || annotation.batchSize() < 1 || annotation.batchWindow() < 1)) {
+            Hilda.getLogger().warning("Skipping batching method " + name + " as it coalesces events or has an invalid batch size or window");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param c The listener class
+     * @return The generated listener table of the class, or {@code null} if it was compiled without one
+     */
+    private static ListenerTable getTable(final Class<?> c) {
+        return AnnotatedEventManager.TABLES.get(c).orElse(null);
+    }
+
+    private static Optional<ListenerTable> loadTable(final Class<?> c) {
+        try {
+            final Class<?> table = Class.forName(c.getName() + ListenerTable.SUFFIX, true, c.getClassLoader());
+            return Optional.of(table.asSubclass(ListenerTable.class).getDeclaredConstructor().newInstance());
+        } catch (final ClassNotFoundException e) {
+            return Optional.empty();
+        } catch (final ReflectiveOperationException | ClassCastException e) {
+            Hilda.getLogger().log(Level.WARNING, "Could not load the listener table of " + c.getName() + "; scanning it instead", e);
+            return Optional.empty();
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import net.dv8tion.jda.api.events.GenericEvent;
+
+/**
+ * Buffers events for a batching {@link EventHandler} method. <p>
+ * The first event of a batch opens a window. The batch is delivered as soon as it reaches the batch size,
+ * or once the window closes, whichever comes first. <p>
+ * Batches are delivered one at a time and in the order they were closed, whether they were closed by a
+ * dispatch thread or by the window's timer. A thread that closes a batch while another is delivering leaves it
+ * queued for that thread rather than waiting, so dispatch threads are never held up while a batch is handled.
+ */
+final class Batcher {
+
+    private final AnnotatedEventManager manager;
+    private final ListenerMethod method;
+    private final int size;
+    private final long window;
+    private List<GenericEvent> batch;
+    private long generation = 0;
+    /**
+     * Closed batches waiting to be delivered, oldest first.
+     */
+    private final ArrayDeque<List<GenericEvent>> ready = new ArrayDeque<>();
+    /**
+     * Whether a thread is delivering the ready batches.
+     */
+    private boolean delivering = false;
+
+    Batcher(final AnnotatedEventManager manager, final ListenerMethod method, final int size, final long window) {
+        this.manager = manager;
+        this.method = method;
+        this.size = size;
+        this.window = window;
+        this.batch = new ArrayList<>(size);
+    }
+
+    /**
+     * Delivers the current batch, if there is one. If another thread is delivering, it delivers the batch instead.
+     */
+    void flush() {
+        this.take();
+        this.deliver();
+    }
+
+    /**
+     * Adds an event to the current batch, delivering the batch if it is full.
+     * @param event The event
+     */
+    void offer(final GenericEvent event) {
+        long opened = -1;
+
+        synchronized (this) {
+            this.batch.add(event);
+
+            if (this.batch.size() >= this.size) {
+                this.take();
+            } else if (this.batch.size() == 1) {
+                opened = this.generation;
+            }
+        }
+
+        if (opened != -1) {
+            final long generation = opened;
+            this.manager.schedule(() -> this.expire(generation), this.window);
+        }
+
+        this.deliver();
+    }
+
+    /**
+     * Delivers the ready batches in order, unless another thread is already doing so.
+     */
+    private void deliver() {
+        synchronized (this) {
+            if (this.delivering || this.ready.isEmpty()) {
+                return;
+            }
+
+            this.delivering = true;
+        }
+
+        List<GenericEvent> batch = null;
+
+        try {
+            while (true) {
+                synchronized (this) {
+                    batch = this.ready.pollFirst();
+
+                    if (batch == null) {
+                        this.delivering = false;
+                        return;
+                    }
+                }
+
+                this.manager.invoke(this.method, batch);
+            }
+        } finally {
+            // Let another thread take over if the method threw past the event manager
+            if (batch != null) {
+                synchronized (this) {
+                    this.delivering = false;
+                }
+            }
+        }
+    }
+
+    private void expire(final long generation) {
+        synchronized (this) {
+            // The batch the timer was scheduled for has already been closed
+            if (this.generation == generation) {
+                this.take();
+            }
+        }
+
+        this.deliver();
+    }
+
+    /**
+     * Closes the current batch, if it has any events, and queues it to be delivered.
+     */
+    private synchronized void take() {
+        if (this.batch.isEmpty()) {
+            return;
+        }
+
+        this.ready.addLast(this.batch);
+        this.batch = new ArrayList<>(this.size);
+        this.generation++;
+    }
+
+}
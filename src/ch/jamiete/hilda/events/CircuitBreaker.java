@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Quarantines a listener method that keeps throwing. <p>
+ * While closed, failures are counted over a window. Once enough of the invocations in the window have failed
+ * the breaker opens and the method is not invoked at all. After a cool-down a single invocation is let through
+ * as a probe: if it succeeds the breaker closes again, otherwise it stays open for another cool-down. <p>
+ * The closed path is a volatile read and a counter increment and never reads the clock.
+ */
+final class CircuitBreaker {
+
+    /**
+     * How a breaker should react to failures. Immutable so that it can be swapped as a whole.
+     */
+    static final class Settings {
+        final int failures;
+        final double ratio;
+        final long window;
+        final long cooldown;
+
+        Settings(final int failures, final double ratio, final long window, final long cooldown) {
+            this.failures = failures;
+            this.ratio = ratio;
+            this.window = window;
+            this.cooldown = cooldown;
+        }
+    }
+
+    /**
+     * What happened to the breaker as the result of a failure.
+     */
+    enum Outcome {
+        /** The breaker is still closed. */
+        CLOSED,
+        /** The failure opened the breaker. */
+        TRIPPED,
+        /** The probe failed and the breaker opened again. */
+        REOPENED;
+    }
+
+    private static final int CLOSED = 0;
+    private static final int OPEN = 1;
+    private static final int PROBING = 2;
+
+    private final AtomicInteger state = new AtomicInteger(CircuitBreaker.CLOSED);
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+    private volatile long windowStart = System.currentTimeMillis();
+    private volatile long openedAt;
+
+    /**
+     * Checks whether the method may be invoked. Counts the invocation as suppressed if not.
+     * @param settings The current settings
+     * @return Whether the method may be invoked
+     */
+    boolean allow(final Settings settings) {
+        final int state = this.state.get();
+
+        if (state == CircuitBreaker.CLOSED) {
+            return true;
+        }
+
+        if (state == CircuitBreaker.OPEN && System.currentTimeMillis() - this.openedAt >= settings.cooldown && this.state.compareAndSet(CircuitBreaker.OPEN, CircuitBreaker.PROBING)) {
+            return true;
+        }
+
+        this.suppressed.increment();
+        return false;
+    }
+
+    /**
+     * @return The number of invocations skipped while the breaker was open
+     */
+    long getSuppressed() {
+        return this.suppressed.sum();
+    }
+
+    /**
+     * @return Whether the breaker is open or probing
+     */
+    boolean isOpen() {
+        return this.state.get() != CircuitBreaker.CLOSED;
+    }
+
+    /**
+     * Records a failed invocation.
+     * @param settings The current settings
+     * @return What happened to the breaker
+     */
+    Outcome failure(final Settings settings) {
+        final long now = System.currentTimeMillis();
+
+        if (this.state.compareAndSet(CircuitBreaker.PROBING, CircuitBreaker.OPEN)) {
+            this.openedAt = now;
+            return Outcome.REOPENED;
+        }
+
+        if (now - this.windowStart >= settings.window) {
+            this.windowStart = now;
+            this.calls.reset();
+            this.failures.reset();
+        }
+
+        this.calls.increment();
+        this.failures.increment();
+
+        final long failures = this.failures.sum();
+
+        if (settings.failures > 0 && failures >= settings.failures && failures >= settings.ratio * this.calls.sum() && this.state.compareAndSet(CircuitBreaker.CLOSED, CircuitBreaker.OPEN)) {
+            this.openedAt = now;
+            return Outcome.TRIPPED;
+        }
+
+        return Outcome.CLOSED;
+    }
+
+    /**
+     * Records a successful invocation.
+     * @return Whether the invocation was a probe that closed the breaker
+     */
+    boolean success() {
+        if (this.state.get() == CircuitBreaker.PROBING && this.state.compareAndSet(CircuitBreaker.PROBING, CircuitBreaker.CLOSED)) {
+            this.windowStart = System.currentTimeMillis();
+            this.calls.reset();
+            this.failures.reset();
+            return true;
+        }
+
+        this.calls.increment();
+        return false;
+    }
+
+}
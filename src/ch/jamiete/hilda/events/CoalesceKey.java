@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+/**
+ * What events are grouped by when an {@link EventHandler} coalesces them.
+ * @see EventHandler#coalesce()
+ */
+public enum CoalesceKey {
+
+    /**
+     * Do not coalesce events.
+     */
+    NONE,
+
+    /**
+     * Coalesce events caused by the same user, such as presence updates or typing.
+     */
+    USER,
+
+    /**
+     * Coalesce events in the same channel.
+     */
+    CHANNEL,
+
+    /**
+     * Coalesce events in the same guild.
+     */
+    GUILD;
+
+}
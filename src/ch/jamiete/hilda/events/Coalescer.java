@@ -0,0 +1,83 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import net.dv8tion.jda.api.events.GenericEvent;
+
+/**
+ * Holds back events for a coalescing {@link EventHandler} method. <p>
+ * The first event for a key opens a window. Events for the same key arriving within the window replace
+ * the held event, and once the window closes the method is invoked once with the latest event and the
+ * number of events it replaced.
+ */
+final class Coalescer {
+
+    private static final class Pending {
+        private GenericEvent event;
+        private int replaced = 0;
+
+        private Pending(final GenericEvent event) {
+            this.event = event;
+        }
+    }
+
+    private final AnnotatedEventManager manager;
+    private final ListenerMethod method;
+    private final long window;
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+
+    Coalescer(final AnnotatedEventManager manager, final ListenerMethod method, final long window) {
+        this.manager = manager;
+        this.method = method;
+        this.window = window;
+    }
+
+    /**
+     * Drops every held event without invoking the method.
+     */
+    void discard() {
+        this.pending.clear();
+    }
+
+    /**
+     * Holds an event until the window for its key closes.
+     * @param event The event
+     * @param key The key the event is coalesced by
+     */
+    void offer(final GenericEvent event, final long key) {
+        this.pending.compute(key, (k, held) -> {
+            if (held == null) {
+                this.manager.schedule(() -> this.flush(k), this.window);
+                return new Pending(event);
+            }
+
+            held.event = event;
+            held.replaced++;
+            return held;
+        });
+    }
+
+    private void flush(final Long key) {
+        final Pending held = this.pending.remove(key);
+
+        if (held != null) {
+            this.manager.invoke(this.method, held.event, held.replaced);
+        }
+    }
+
+}
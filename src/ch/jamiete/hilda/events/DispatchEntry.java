@@ -0,0 +1,37 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.function.ToLongFunction;
+import net.dv8tion.jda.api.events.GenericEvent;
+
+/**
+ * Everything {@link AnnotatedEventManager} needs to dispatch events of one concrete class.
+ */
+final class DispatchEntry {
+    final DispatchTarget[] targets;
+    final ToLongFunction<GenericEvent> guild;
+    final boolean statistics;
+    final EventPriority priority;
+
+    DispatchEntry(final DispatchTarget[] targets, final ToLongFunction<GenericEvent> guild, final boolean statistics, final EventPriority priority) {
+        this.targets = targets;
+        this.guild = guild;
+        this.statistics = statistics;
+        this.priority = priority;
+    }
+
+}
@@ -0,0 +1,487 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import ch.jamiete.hilda.Hilda;
+import net.dv8tion.jda.api.events.GenericEvent;
+
+/**
+ * A worker thread with its own queues used by {@link AnnotatedEventManager} when parallel dispatch is enabled. <p>
+ * Every event from a guild is queued on the same lane, in a queue for that guild alone, so events from one guild
+ * are always handled in the order they were received while different guilds are handled in parallel. <p>
+ * The lane takes turns between the guilds with events waiting, handling one event from each at a time. Guilds are
+ * served by the highest {@link EventPriority} of the events they have waiting, so a guild with a message waiting is
+ * served before guilds with only presence updates waiting, even if that message is queued behind presence updates
+ * of its own. Once guilds of a lower priority have been passed over {@link #STARVATION_LIMIT} times in a row one of
+ * them is served next, so that a flood of high priority events delays lower priorities without stopping them. <p>
+ * The lane holds at most {@link #getCapacity()} events. What happens to an event for a full lane is decided by the
+ * lane's {@link OverflowPolicy}. Events are only discarded from the guild of the new event, so that a busy guild
+ * cannot push out the events of another: {@link OverflowPolicy#DROP_OLDEST} discards the oldest event queued for
+ * the guild, or the new event if the guild has none queued, and {@link OverflowPolicy#COALESCE} replaces the newest
+ * event of the same class queued for the guild.
+ */
+public class DispatchLane implements Runnable {
+    /**
+     * How many times in a row guilds waiting at one priority may be passed over for a higher priority.
+     */
+    public static final int STARVATION_LIMIT = 8;
+
+    private static final EventPriority[] PRIORITIES = EventPriority.values();
+
+    /**
+     * The events waiting for one guild, in the order they were received.
+     */
+    private static final class GuildQueue {
+        private final long guild;
+        private final ArrayDeque<GenericEvent> events = new ArrayDeque<>();
+        private final ArrayDeque<EventPriority> priorities = new ArrayDeque<>();
+        private final int[] counts = new int[DispatchLane.PRIORITIES.length];
+        private int ready = -1;
+
+        private GuildQueue(final long guild) {
+            this.guild = guild;
+        }
+
+        /**
+         * @return The highest priority of the events waiting, or {@code -1} if there are none
+         */
+        private int getPriority() {
+            for (int i = 0; i < this.counts.length; i++) {
+                if (this.counts[i] > 0) {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+    }
+
+    private final AnnotatedEventManager manager;
+    private final String name;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = this.lock.newCondition();
+    private final Condition space = this.lock.newCondition();
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Map<Long, GuildQueue> guilds = new HashMap<>();
+    private final ArrayDeque<GuildQueue>[] ready;
+    private final int[] depths = new int[DispatchLane.PRIORITIES.length];
+    private final int[] skipped = new int[DispatchLane.PRIORITIES.length];
+    private final LongAccumulator peak = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator[] peaks = new LongAccumulator[DispatchLane.PRIORITIES.length];
+    private final LongAdder[] dispatched = new LongAdder[DispatchLane.PRIORITIES.length];
+    private final LongAdder dropped = new LongAdder();
+    private int size = 0;
+    private boolean stopping = false;
+    private Thread thread;
+
+    @SuppressWarnings("unchecked")
+    DispatchLane(final AnnotatedEventManager manager, final String name, final int capacity, final OverflowPolicy policy) {
+        this.manager = manager;
+        this.name = name;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.ready = new ArrayDeque[DispatchLane.PRIORITIES.length];
+
+        for (int i = 0; i < this.ready.length; i++) {
+            this.ready[i] = new ArrayDeque<>();
+            this.peaks[i] = new LongAccumulator(Math::max, 0);
+            this.dispatched[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return The largest number of events this lane holds
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return The number of events that have been discarded or replaced because this lane was full
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * @return The number of events that have been dispatched by this lane
+     */
+    public long getDispatched() {
+        long total = 0;
+
+        for (final LongAdder dispatched : this.dispatched) {
+            total += dispatched.sum();
+        }
+
+        return total;
+    }
+
+    /**
+     * @param priority The priority
+     * @return The number of events of that priority that have been dispatched by this lane
+     */
+    public long getDispatched(final EventPriority priority) {
+        return this.dispatched[priority.ordinal()].sum();
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return The largest number of events that have been waiting on this lane at once
+     */
+    public long getPeakQueueDepth() {
+        return this.peak.get();
+    }
+
+    /**
+     * @param priority The priority
+     * @return The largest number of events of that priority that have been waiting on this lane at once
+     */
+    public long getPeakQueueDepth(final EventPriority priority) {
+        return this.peaks[priority.ordinal()].get();
+    }
+
+    /**
+     * @return The number of events currently waiting on this lane
+     */
+    public int getQueueDepth() {
+        this.lock.lock();
+
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @param priority The priority
+     * @return The number of events of that priority currently waiting on this lane
+     */
+    public int getQueueDepth(final EventPriority priority) {
+        this.lock.lock();
+
+        try {
+            return this.depths[priority.ordinal()];
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            final EventPriority priority;
+            final GenericEvent event;
+
+            this.lock.lock();
+
+            try {
+                final int level = this.next();
+
+                if (level == -1) {
+                    return;
+                }
+
+                final GuildQueue queue = this.ready[level].pollFirst();
+                queue.ready = -1;
+                priority = queue.priorities.peekFirst();
+                event = this.poll(queue);
+
+                // Back to the end of the line, so that guilds take turns
+                this.schedule(queue);
+                this.space.signalAll();
+            } catch (final InterruptedException e) {
+                final int dropped = this.abandon();
+                Hilda.getLogger().log(Level.WARNING, "Event lane " + this.name + " was interrupted and dropped " + dropped + " queued events", e);
+                return;
+            } finally {
+                this.lock.unlock();
+            }
+
+            try {
+                this.manager.dispatch(event);
+            } catch (final Throwable throwable) {
+                // Keep the lane alive, otherwise its guilds would silently stop receiving events
+                Hilda.getLogger().log(Level.SEVERE, "Event lane " + this.name + " failed to dispatch " + event.getClass().getName(), throwable);
+            }
+
+            this.dispatched[priority.ordinal()].increment();
+        }
+    }
+
+    /**
+     * Stops accepting events and discards every queued event, counting them as dropped. Must be called while holding the lock.
+     * @return The number of events discarded
+     */
+    private int abandon() {
+        final int count = this.size;
+
+        this.guilds.clear();
+
+        for (final ArrayDeque<GuildQueue> ready : this.ready) {
+            ready.clear();
+        }
+
+        Arrays.fill(this.depths, 0);
+        this.size = 0;
+        this.stopping = true;
+        this.dropped.add(count);
+        this.space.signalAll();
+
+        return count;
+    }
+
+    /**
+     * Waits for an event and picks the priority to serve a guild from. Must be called while holding the lock.
+     * @return The priority to serve, or {@code -1} if the lane has stopped and no events are waiting
+     * @throws InterruptedException If interrupted while waiting
+     */
+    private int next() throws InterruptedException {
+        while (true) {
+            int highest = -1;
+
+            for (int i = 0; i < this.ready.length; i++) {
+                if (!this.ready[i].isEmpty()) {
+                    highest = i;
+                    break;
+                }
+            }
+
+            if (highest == -1) {
+                if (this.stopping) {
+                    return -1;
+                }
+
+                this.available.await();
+                continue;
+            }
+
+            int chosen = highest;
+
+            // Serve the lowest waiting priority that has been passed over too often
+            for (int i = this.ready.length - 1; i > highest; i--) {
+                if (!this.ready[i].isEmpty() && this.skipped[i] >= DispatchLane.STARVATION_LIMIT) {
+                    chosen = i;
+                    break;
+                }
+            }
+
+            for (int i = chosen + 1; i < this.ready.length; i++) {
+                if (!this.ready[i].isEmpty()) {
+                    this.skipped[i]++;
+                }
+            }
+
+            this.skipped[chosen] = 0;
+            return chosen;
+        }
+    }
+
+    /**
+     * Removes the oldest event waiting for a guild. Must be called while holding the lock.
+     * @param queue The guild's queue, which must not be empty
+     * @return The event removed
+     */
+    private GenericEvent poll(final GuildQueue queue) {
+        final GenericEvent event = queue.events.pollFirst();
+        this.removed(queue, queue.priorities.pollFirst());
+        return event;
+    }
+
+    /**
+     * Accounts for an event removed from a guild's queue. Must be called while holding the lock.
+     */
+    private void removed(final GuildQueue queue, final EventPriority priority) {
+        queue.counts[priority.ordinal()]--;
+        this.depths[priority.ordinal()]--;
+        this.size--;
+
+        if (queue.events.isEmpty()) {
+            this.guilds.remove(queue.guild);
+        }
+    }
+
+    /**
+     * Puts a guild in line to be served at the highest priority of the events it has waiting, or takes it out of
+     * line if it has none. Must be called while holding the lock.
+     */
+    private void schedule(final GuildQueue queue) {
+        final int priority = queue.getPriority();
+
+        if (queue.ready == priority) {
+            return;
+        }
+
+        if (queue.ready != -1) {
+            this.ready[queue.ready].removeFirstOccurrence(queue);
+        }
+
+        queue.ready = priority;
+
+        if (priority != -1) {
+            this.ready[priority].addLast(queue);
+        }
+    }
+
+    void start(final Thread thread) {
+        this.thread = thread;
+        this.thread.start();
+    }
+
+    /**
+     * Stops the lane after it has dispatched every event already queued. From now on the lane refuses new events,
+     * including those waiting for space in a full lane, so that they can be queued on its replacement instead.
+     * @param timeout The maximum time to wait in milliseconds
+     * @throws InterruptedException If interrupted while waiting
+     */
+    void stop(final long timeout) throws InterruptedException {
+        this.lock.lock();
+
+        try {
+            this.stopping = true;
+            this.available.signal();
+            this.space.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.thread.join(timeout);
+
+        if (this.thread.isAlive()) {
+            Hilda.getLogger().warning("Event lane " + this.name + " did not stop in time; its " + this.getQueueDepth() + " queued events will be handled once it catches up");
+        }
+    }
+
+    /**
+     * Queues an event behind the other events from its guild, applying the overflow policy if the lane is full.
+     * @param event The event
+     * @param guild The ID of the guild the event belongs to, or {@code 0} if it does not belong to a guild
+     * @param priority The priority of the event
+     * @return Whether the lane accepted the event, which is {@code false} once it is stopping; an event dropped
+     * by the overflow policy counts as accepted
+     * @throws InterruptedException If interrupted while waiting for space under {@link OverflowPolicy#BLOCK}
+     */
+    boolean submit(final GenericEvent event, final long guild, final EventPriority priority) throws InterruptedException {
+        final int depth;
+        final int size;
+
+        this.lock.lock();
+
+        try {
+            if (this.stopping) {
+                return false;
+            }
+
+            if (!this.makeSpace(guild, event)) {
+                return !this.stopping;
+            }
+
+            final GuildQueue queue = this.guilds.computeIfAbsent(guild, GuildQueue::new);
+            queue.events.addLast(event);
+            queue.priorities.addLast(priority);
+            queue.counts[priority.ordinal()]++;
+            this.schedule(queue);
+
+            depth = ++this.depths[priority.ordinal()];
+            size = ++this.size;
+            this.available.signal();
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.peaks[priority.ordinal()].accumulate(depth);
+        this.peak.accumulate(size);
+        return true;
+    }
+
+    /**
+     * Applies the overflow policy if the lane is full. Must be called while holding the lock.
+     * @return Whether the event should be queued
+     */
+    private boolean makeSpace(final long guild, final GenericEvent event) throws InterruptedException {
+        if (this.size < this.capacity) {
+            return true;
+        }
+
+        final GuildQueue queue = this.guilds.get(guild);
+
+        switch (this.policy) {
+            case BLOCK:
+                // The lane queueing an event on itself, such as an exception event, would wait on itself forever
+                if (Thread.currentThread() == this.thread) {
+                    return true;
+                }
+
+                while (this.size >= this.capacity && !this.stopping) {
+                    this.space.await();
+                }
+
+                return !this.stopping;
+
+            case DROP_NEWEST:
+                this.dropped.increment();
+                return false;
+
+            case COALESCE:
+                if (queue != null) {
+                    final Iterator<GenericEvent> events = queue.events.descendingIterator();
+                    final Iterator<EventPriority> priorities = queue.priorities.descendingIterator();
+
+                    while (events.hasNext()) {
+                        final EventPriority priority = priorities.next();
+
+                        if (events.next().getClass() == event.getClass()) {
+                            events.remove();
+                            priorities.remove();
+                            this.removed(queue, priority);
+                            this.schedule(queue);
+                            this.dropped.increment();
+                            return true;
+                        }
+                    }
+                }
+
+                // Nothing to replace
+            case DROP_OLDEST:
+            default:
+                this.dropped.increment();
+
+                // The new event is the oldest its guild has
+                if (queue == null) {
+                    return false;
+                }
+
+                this.poll(queue);
+                this.schedule(queue);
+                return true;
+        }
+    }
+
+}
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.function.ToLongFunction;
+import net.dv8tion.jda.api.events.GenericEvent;
+
+/**
+ * A listener method together with everything resolved for it against one concrete event class.
+ */
+final class DispatchTarget {
+    final ListenerMethod method;
+    final EventFilter filter;
+    final ToLongFunction<GenericEvent> key;
+    final ToLongFunction<GenericEvent> overflowKey;
+
+    /**
+     * @param method The listener method
+     * @param filter The compiled filter, or {@code null} if the method has none
+     * @param key The accessor for the coalescing key, or {@code null} if the method does not coalesce events
+     * @param overflowKey The accessor for the key used when the method's queue overflows, or {@code null} if it is not needed
+     */
+    DispatchTarget(final ListenerMethod method, final EventFilter filter, final ToLongFunction<GenericEvent> key, final ToLongFunction<GenericEvent> overflowKey) {
+        this.method = method;
+        this.filter = filter;
+        this.key = key;
+        this.overflowKey = overflowKey;
+    }
+
+}
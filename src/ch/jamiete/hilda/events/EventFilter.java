@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import ch.jamiete.hilda.util.ConcurrentLongSet;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.GenericEvent;
+
+/**
+ * The filters declared on an {@link EventHandler}, compiled into checks for one concrete event class.
+ */
+@FunctionalInterface
+interface EventFilter {
+
+    /**
+     * Used in place of a filter that no event of the class could ever pass.
+     */
+    EventFilter NEVER = event -> false;
+
+    /**
+     * @param event The event to test
+     * @return Whether the listener method should be invoked with the event
+     */
+    boolean accept(GenericEvent event);
+
+    /**
+     * Compiles the filters declared on an annotation for a concrete event class.
+     * @param annotation The annotation declaring the filters
+     * @param eventClass The concrete event class
+     * @return The filter, {@code null} if there is nothing to check or {@link #NEVER} if no event of the class can pass
+     */
+    static EventFilter compile(final EventHandler annotation, final Class<?> eventClass) {
+        final List<EventFilter> filters = new ArrayList<>();
+
+        if (annotation.guilds().length > 0) {
+            final ToLongFunction<GenericEvent> guild = EventProperties.guild(eventClass);
+
+            if (guild == EventProperties.NONE) {
+                return EventFilter.NEVER;
+            }
+
+            final ConcurrentLongSet guilds = new ConcurrentLongSet();
+            guilds.set(annotation.guilds());
+            filters.add(event -> guilds.contains(guild.applyAsLong(event)));
+        }
+
+        if (annotation.channels().length > 0) {
+            final ToLongFunction<GenericEvent> channel = EventProperties.channel(eventClass);
+
+            if (channel == EventProperties.NONE) {
+                return EventFilter.NEVER;
+            }
+
+            final ConcurrentLongSet channels = new ConcurrentLongSet();
+            channels.set(annotation.channels());
+            filters.add(event -> channels.contains(channel.applyAsLong(event)));
+        }
+
+        if (annotation.ignoreBots()) {
+            final Function<GenericEvent, User> user = EventProperties.user(eventClass);
+
+            if (user != null) {
+                filters.add(event -> {
+                    final User found = user.apply(event);
+                    return found == null || !found.isBot();
+                });
+            }
+        }
+
+        if (!annotation.prefix().isEmpty()) {
+            final Function<GenericEvent, Message> message = EventProperties.message(eventClass);
+
+            if (message == null) {
+                return EventFilter.NEVER;
+            }
+
+            final String prefix = annotation.prefix();
+            filters.add(event -> message.apply(event).getContentRaw().startsWith(prefix));
+        }
+
+        switch (filters.size()) {
+            case 0:
+                return null;
+
+            case 1:
+                return filters.get(0);
+
+            default:
+                final EventFilter[] all = filters.toArray(new EventFilter[filters.size()]);
+
+                return event -> {
+                    for (final EventFilter filter : all) {
+                        if (!filter.accept(event)) {
+                            return false;
+                        }
+                    }
+
+                    return true;
+                };
+        }
+    }
+
+}
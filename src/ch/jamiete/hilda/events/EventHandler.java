@@ -21,9 +21,100 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
+/**
+ * Marks a method that {@link AnnotatedEventManager} should invoke with events of the type of its parameter. <p>
+ * The filters below are checked by the event manager before the method is invoked, which is considerably
+ * cheaper than invoking the method only for it to return early. Events that a filter cannot apply to
+ * (for example a channel filter on an event without a channel) are never passed to the method. <p>
+ * Filters are checked before events are coalesced or batched. <p>
+ * A method whose parameter is a {@code List} of an event type receives events in batches, which amortises
+ * per-event work such as I/O or locking. Batches are delivered once they reach {@link #batchSize()} events
+ * or {@link #batchWindow()} has passed since their first event, and any partial batch is delivered when
+ * the event manager shuts down or the listener is unregistered. A method is handed one batch at a time, in the
+ * order the batches were closed, so it does not need to be thread-safe. Batching methods cannot coalesce events. <p>
+ * An {@link #async()} method is invoked on its own thread from a bounded queue, so that a slow listener does not
+ * hold up the others. Asynchronous methods cannot coalesce or batch events.
+ */
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 @Inherited
 public @interface EventHandler {
 
+    /**
+     * Invoke the method asynchronously from a queue of at most {@link #queueSize()} events. The method still
+     * receives events one at a time and in order.
+     * @return Whether the method is asynchronous
+     */
+    boolean async() default false;
+
+    /**
+     * The largest number of events to queue for an asynchronous method.
+     * @return The queue size
+     */
+    int queueSize() default 1000;
+
+    /**
+     * What to do with events for an asynchronous method when its queue is full.
+     * @return The overflow policy
+     */
+    OverflowPolicy overflow() default OverflowPolicy.BLOCK;
+
+    /**
+     * What queued events must share with a new event to be replaced by it under {@link OverflowPolicy#COALESCE}.
+     * {@link CoalesceKey#NONE} replaces the newest queued event of the same class.
+     * @return What to replace queued events by
+     */
+    CoalesceKey overflowKey() default CoalesceKey.NONE;
+
+    /**
+     * The largest number of events to deliver to a batching method at once.
+     * @return The batch size
+     */
+    int batchSize() default 100;
+
+    /**
+     * How long to hold events for a batching method before delivering a partial batch, in milliseconds.
+     * @return The batching window
+     */
+    long batchWindow() default 1000;
+
+    /**
+     * Only handle events from these channels. Leave empty to handle events from every channel.
+     * @return The channel IDs
+     */
+    long[] channels() default {};
+
+    /**
+     * Only handle events from these guilds. Leave empty to handle events from every guild.
+     * @return The guild IDs
+     */
+    long[] guilds() default {};
+
+    /**
+     * Coalesce bursts of events that share a key, such as presence or typing events from the same user. <p>
+     * The method is invoked once per key when {@link #coalesceWindow()} has passed since the first event,
+     * with only the latest event. The method may declare a second {@code int} parameter to receive the
+     * number of events that were replaced. Events without the key are coalesced together.
+     * @return What to coalesce events by
+     */
+    CoalesceKey coalesce() default CoalesceKey.NONE;
+
+    /**
+     * How long to hold back coalesced events for, in milliseconds.
+     * @return The coalescing window
+     */
+    long coalesceWindow() default 1000;
+
+    /**
+     * Skip events caused by bot accounts. Events without an author or user are still handled.
+     * @return Whether to skip events from bots
+     */
+    boolean ignoreBots() default false;
+
+    /**
+     * Only handle message events whose raw content starts with this prefix. Leave empty to handle every message.
+     * @return The prefix
+     */
+    String prefix() default "";
+
 }
@@ -0,0 +1,42 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+/**
+ * How urgently events of a class are dispatched when parallel dispatch is enabled. <p>
+ * Each {@link DispatchLane} first serves the guilds with the highest priority events waiting, but regularly serves
+ * guilds waiting at lower priorities so that they are never starved. Priority only decides which guild is served
+ * next: events from one guild are always dispatched in the order they were received.
+ * @see AnnotatedEventManager#setEventPriority(Class, EventPriority)
+ */
+public enum EventPriority {
+
+    /**
+     * Events that users are waiting on, such as messages that may contain commands.
+     */
+    HIGH,
+
+    /**
+     * Events that are neither urgent nor plentiful.
+     */
+    NORMAL,
+
+    /**
+     * Plentiful events that can tolerate delay, such as presence updates and typing.
+     */
+    LOW;
+
+}
@@ -0,0 +1,244 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.channel.text.GenericTextChannelEvent;
+import net.dv8tion.jda.api.events.channel.voice.GenericVoiceChannelEvent;
+import net.dv8tion.jda.api.events.guild.GenericGuildEvent;
+import net.dv8tion.jda.api.events.guild.member.GenericGuildMemberEvent;
+import net.dv8tion.jda.api.events.guild.voice.GenericGuildVoiceEvent;
+import net.dv8tion.jda.api.events.message.GenericMessageEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.MessageUpdateEvent;
+import net.dv8tion.jda.api.events.message.guild.GenericGuildMessageEvent;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageUpdateEvent;
+import net.dv8tion.jda.api.events.message.guild.react.GenericGuildMessageReactionEvent;
+import net.dv8tion.jda.api.events.message.priv.GenericPrivateMessageEvent;
+import net.dv8tion.jda.api.events.message.priv.PrivateMessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.priv.PrivateMessageUpdateEvent;
+import net.dv8tion.jda.api.events.message.react.GenericMessageReactionEvent;
+import net.dv8tion.jda.api.events.role.GenericRoleEvent;
+import net.dv8tion.jda.api.events.user.GenericUserEvent;
+import net.dv8tion.jda.api.events.user.UserTypingEvent;
+
+/**
+ * Resolves accessors for common properties of an event class. <p>
+ * Accessors are resolved once per event class with {@code instanceof}-style checks against the class
+ * itself, so reading a property from an event is a single call without any type tests.
+ * Accessors return {@code 0} when an event does not have the property.
+ */
+final class EventProperties {
+    static final ToLongFunction<GenericEvent> NONE = event -> 0L;
+
+    /**
+     * Resolves the guild ID accessor for an event class.
+     * @param eventClass The concrete event class
+     * @return The accessor, or {@link #NONE} if events of that class never belong to a guild
+     */
+    static ToLongFunction<GenericEvent> guild(final Class<?> eventClass) {
+        if (GenericGuildEvent.class.isAssignableFrom(eventClass)) {
+            // Also covers guild message and guild reaction events
+            return event -> ((GenericGuildEvent) event).getGuild().getIdLong();
+        }
+
+        if (GenericRoleEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericRoleEvent) event).getGuild().getIdLong();
+        }
+
+        if (GenericTextChannelEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericTextChannelEvent) event).getGuild().getIdLong();
+        }
+
+        if (GenericVoiceChannelEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericVoiceChannelEvent) event).getGuild().getIdLong();
+        }
+
+        if (GenericMessageEvent.class.isAssignableFrom(eventClass)) {
+            return event -> {
+                final GenericMessageEvent ev = (GenericMessageEvent) event;
+                return ev.isFromType(ChannelType.TEXT) ? ev.getGuild().getIdLong() : 0L;
+            };
+        }
+
+        return EventProperties.NONE;
+    }
+
+    /**
+     * Resolves the channel ID accessor for an event class.
+     * @param eventClass The concrete event class
+     * @return The accessor, or {@link #NONE} if events of that class never belong to a channel
+     */
+    static ToLongFunction<GenericEvent> channel(final Class<?> eventClass) {
+        if (GenericGuildMessageEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericGuildMessageEvent) event).getChannel().getIdLong();
+        }
+
+        if (GenericMessageEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericMessageEvent) event).getChannel().getIdLong();
+        }
+
+        if (GenericPrivateMessageEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericPrivateMessageEvent) event).getChannel().getIdLong();
+        }
+
+        if (GenericTextChannelEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericTextChannelEvent) event).getChannel().getIdLong();
+        }
+
+        if (GenericVoiceChannelEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericVoiceChannelEvent) event).getChannel().getIdLong();
+        }
+
+        if (UserTypingEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((UserTypingEvent) event).getChannel().getIdLong();
+        }
+
+        return EventProperties.NONE;
+    }
+
+    /**
+     * Resolves the message ID accessor for an event class.
+     * @param eventClass The concrete event class
+     * @return The accessor, or {@link #NONE} if events of that class never concern a message
+     */
+    static ToLongFunction<GenericEvent> messageId(final Class<?> eventClass) {
+        if (GenericGuildMessageEvent.class.isAssignableFrom(eventClass)) {
+            // Also covers guild reaction events
+            return event -> ((GenericGuildMessageEvent) event).getMessageIdLong();
+        }
+
+        if (GenericMessageEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericMessageEvent) event).getMessageIdLong();
+        }
+
+        if (GenericPrivateMessageEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericPrivateMessageEvent) event).getMessageIdLong();
+        }
+
+        return EventProperties.NONE;
+    }
+
+    /**
+     * Resolves the accessor for the key events of a class are coalesced by.
+     * @param key What the events should be coalesced by
+     * @param eventClass The concrete event class
+     * @return The accessor, which returns {@code 0} for events without the key
+     */
+    static ToLongFunction<GenericEvent> key(final CoalesceKey key, final Class<?> eventClass) {
+        switch (key) {
+            case USER:
+                final Function<GenericEvent, User> user = EventProperties.user(eventClass);
+
+                if (user == null) {
+                    return EventProperties.NONE;
+                }
+
+                return event -> {
+                    final User found = user.apply(event);
+                    return found == null ? 0L : found.getIdLong();
+                };
+
+            case CHANNEL:
+                return EventProperties.channel(eventClass);
+
+            case GUILD:
+                return EventProperties.guild(eventClass);
+
+            case NONE:
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Resolves the message accessor for an event class.
+     * @param eventClass The concrete event class
+     * @return The accessor, or {@code null} if events of that class do not carry a message
+     */
+    static Function<GenericEvent, Message> message(final Class<?> eventClass) {
+        if (GuildMessageReceivedEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GuildMessageReceivedEvent) event).getMessage();
+        }
+
+        if (GuildMessageUpdateEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GuildMessageUpdateEvent) event).getMessage();
+        }
+
+        if (MessageReceivedEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((MessageReceivedEvent) event).getMessage();
+        }
+
+        if (MessageUpdateEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((MessageUpdateEvent) event).getMessage();
+        }
+
+        if (PrivateMessageReceivedEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((PrivateMessageReceivedEvent) event).getMessage();
+        }
+
+        if (PrivateMessageUpdateEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((PrivateMessageUpdateEvent) event).getMessage();
+        }
+
+        return null;
+    }
+
+    /**
+     * Resolves the accessor for the user who caused events of a class, such as a message author or the user reacting.
+     * @param eventClass The concrete event class
+     * @return The accessor, or {@code null} if events of that class are not caused by a user
+     */
+    static Function<GenericEvent, User> user(final Class<?> eventClass) {
+        final Function<GenericEvent, Message> message = EventProperties.message(eventClass);
+
+        if (message != null) {
+            return event -> message.apply(event).getAuthor();
+        }
+
+        if (GenericGuildMessageReactionEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericGuildMessageReactionEvent) event).getUser();
+        }
+
+        if (GenericMessageReactionEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericMessageReactionEvent) event).getUser();
+        }
+
+        if (GenericUserEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericUserEvent) event).getUser();
+        }
+
+        if (GenericGuildMemberEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericGuildMemberEvent) event).getUser();
+        }
+
+        if (GenericGuildVoiceEvent.class.isAssignableFrom(eventClass)) {
+            return event -> ((GenericGuildVoiceEvent) event).getMember().getUser();
+        }
+
+        return null;
+    }
+
+    private EventProperties() {
+    }
+
+}
@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.logging.Level;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.Sanity;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.GenericEvent;
+
+/**
+ * Waits for a single event concerning a particular message, channel or user, such as a reaction to a menu
+ * or the reply to a prompt. <p>
+ * Subscriptions are indexed by the ID they wait on, so an incoming event is checked against only the
+ * subscriptions for its own message, channel and user instead of every plugin inspecting every event.
+ * Each subscription fires at most once: either its action runs with the first matching event, or its
+ * timeout passes and it is removed by the Hilda scheduler. <p>
+ * Actions run on the thread that delivered the event, before the event reaches any listeners, and
+ * regardless of the allowed servers list.
+ *
+ * <br>Example
+ * <pre><code>
+ *     hilda.getEventManager().getWaiter().waitForChannel(channel.getIdLong(), GuildMessageReceivedEvent.class,
+ *         e -&gt; e.getAuthor().getIdLong() == author,
+ *         e -&gt; channel.sendMessage("You picked " + e.getMessage().getContentRaw()).queue(),
+ *         30, TimeUnit.SECONDS, () -&gt; channel.sendMessage("Too slow!").queue());
+ * </code></pre>
+ */
+public class EventWaiter {
+
+    /**
+     * A pending wait that can be cancelled.
+     */
+    public static final class Subscription {
+        private final EventWaiter waiter;
+        private final Map<Long, Subscription[]> index;
+        private final long key;
+        private final Class<? extends GenericEvent> eventClass;
+        private final Predicate<GenericEvent> condition;
+        private final Consumer<GenericEvent> action;
+        private final Runnable expired;
+        private final AtomicBoolean done = new AtomicBoolean(false);
+        private volatile ScheduledFuture<?> timeout;
+
+        private Subscription(final EventWaiter waiter, final Map<Long, Subscription[]> index, final long key, final Class<? extends GenericEvent> eventClass, final Predicate<GenericEvent> condition, final Consumer<GenericEvent> action, final Runnable expired) {
+            this.waiter = waiter;
+            this.index = index;
+            this.key = key;
+            this.eventClass = eventClass;
+            this.condition = condition;
+            this.action = action;
+            this.expired = expired;
+        }
+
+        /**
+         * Stops waiting without running the action or the timeout action.
+         * @return Whether the subscription was still waiting
+         */
+        public boolean cancel() {
+            return this.finish();
+        }
+
+        /**
+         * @return Whether the subscription has fired, timed out or been cancelled
+         */
+        public boolean isDone() {
+            return this.done.get();
+        }
+
+        private void expire() {
+            if (this.finish() && this.expired != null) {
+                try {
+                    this.expired.run();
+                } catch (final Exception e) {
+                    Hilda.getLogger().log(Level.WARNING, "Encountered an exception while running the timeout action of a waiter", e);
+                }
+            }
+        }
+
+        private boolean finish() {
+            if (!this.done.compareAndSet(false, true)) {
+                return false;
+            }
+
+            this.waiter.remove(this);
+
+            final ScheduledFuture<?> timeout = this.timeout;
+
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+
+            return true;
+        }
+
+        private void offer(final GenericEvent event) {
+            if (!this.eventClass.isInstance(event) || this.done.get()) {
+                return;
+            }
+
+            try {
+                if (this.condition != null && !this.condition.test(event)) {
+                    return;
+                }
+
+                if (this.finish()) {
+                    this.action.accept(event);
+                }
+            } catch (final Exception e) {
+                Hilda.getLogger().log(Level.WARNING, "Encountered an exception while running a waiter for " + event.getClass().getSimpleName(), e);
+            }
+        }
+    }
+
+    /**
+     * The accessors for the IDs waiters can be keyed by, resolved once per event class.
+     */
+    private static final class Keys {
+        private final ToLongFunction<GenericEvent> message;
+        private final ToLongFunction<GenericEvent> channel;
+        private final Function<GenericEvent, User> user;
+
+        private Keys(final Class<?> eventClass) {
+            this.message = EventProperties.messageId(eventClass);
+            this.channel = EventProperties.channel(eventClass);
+            this.user = EventProperties.user(eventClass);
+        }
+    }
+
+    private final AnnotatedEventManager manager;
+    private final Map<Long, Subscription[]> messages = new ConcurrentHashMap<>();
+    private final Map<Long, Subscription[]> channels = new ConcurrentHashMap<>();
+    private final Map<Long, Subscription[]> users = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Keys> keys = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    EventWaiter(final AnnotatedEventManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * @return The number of subscriptions still waiting
+     */
+    public int getWaiting() {
+        return this.waiting.get();
+    }
+
+    /**
+     * @return Whether any subscription is still waiting
+     */
+    boolean isWaiting() {
+        return this.waiting.get() != 0;
+    }
+
+    /**
+     * Offers an event to the subscriptions for its message, channel and user.
+     * @param event The event
+     */
+    void offer(final GenericEvent event) {
+        final Keys keys = this.keys.computeIfAbsent(event.getClass(), Keys::new);
+
+        if (keys.message != EventProperties.NONE) {
+            EventWaiter.offer(this.messages, keys.message.applyAsLong(event), event);
+        }
+
+        if (keys.channel != EventProperties.NONE) {
+            EventWaiter.offer(this.channels, keys.channel.applyAsLong(event), event);
+        }
+
+        if (keys.user != null) {
+            final User user = keys.user.apply(event);
+
+            if (user != null) {
+                EventWaiter.offer(this.users, user.getIdLong(), event);
+            }
+        }
+    }
+
+    private static void offer(final Map<Long, Subscription[]> index, final long key, final GenericEvent event) {
+        if (key == 0L || index.isEmpty()) {
+            return;
+        }
+
+        final Subscription[] subscriptions = index.get(key);
+
+        if (subscriptions != null) {
+            for (final Subscription subscription : subscriptions) {
+                subscription.offer(event);
+            }
+        }
+    }
+
+    private void remove(final Subscription subscription) {
+        subscription.index.computeIfPresent(subscription.key, (k, existing) -> {
+            final int at = Arrays.asList(existing).indexOf(subscription);
+
+            if (at == -1) {
+                return existing;
+            }
+
+            final Subscription[] updated = Arrays.copyOf(existing, existing.length - 1);
+            System.arraycopy(existing, at + 1, updated, at, existing.length - at - 1);
+            return updated.length == 0 ? null : updated;
+        });
+
+        this.waiting.decrementAndGet();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends GenericEvent> Subscription subscribe(final Map<Long, Subscription[]> index, final long key, final Class<T> eventClass, final Predicate<? super T> condition, final Consumer<? super T> action, final long timeout, final TimeUnit unit, final Runnable expired) {
+        Sanity.nullCheck(eventClass, "Must provide an event class.");
+        Sanity.nullCheck(action, "Must provide an action.");
+        Sanity.nullCheck(unit, "Must provide a time unit.");
+        Sanity.truthiness(timeout > 0, "Timeout must be positive.");
+
+        final Subscription subscription = new Subscription(this, index, key, eventClass, (Predicate<GenericEvent>) condition, (Consumer<GenericEvent>) action, expired);
+
+        this.waiting.incrementAndGet();
+        index.merge(key, new Subscription[] { subscription }, (existing, added) -> {
+            final Subscription[] updated = Arrays.copyOf(existing, existing.length + 1);
+            updated[existing.length] = subscription;
+            return updated;
+        });
+
+        subscription.timeout = this.manager.schedule(subscription::expire, unit.toMillis(timeout));
+
+        // The subscription may have fired before its timeout was recorded
+        if (subscription.isDone()) {
+            subscription.timeout.cancel(false);
+        }
+
+        return subscription;
+    }
+
+    /**
+     * Waits for an event in a channel, such as the reply to a prompt.
+     * @param channel The ID of the channel
+     * @param eventClass The class of event to wait for
+     * @param condition Checked against each event of the class in the channel, or {@code null} to accept the first
+     * @param action Run with the first event that satisfies the condition
+     * @param timeout How long to wait
+     * @param unit The unit of the timeout
+     * @param expired Run if no event satisfied the condition in time, or {@code null} to do nothing
+     * @return The subscription, which can be cancelled
+     * @throws IllegalArgumentException If the event class, action or unit is null or the timeout is not positive
+     */
+    public <T extends GenericEvent> Subscription waitForChannel(final long channel, final Class<T> eventClass, final Predicate<? super T> condition, final Consumer<? super T> action, final long timeout, final TimeUnit unit, final Runnable expired) {
+        return this.subscribe(this.channels, channel, eventClass, condition, action, timeout, unit, expired);
+    }
+
+    /**
+     * Waits for an event concerning a message, such as a reaction to a menu.
+     * @param message The ID of the message
+     * @param eventClass The class of event to wait for
+     * @param condition Checked against each event of the class for the message, or {@code null} to accept the first
+     * @param action Run with the first event that satisfies the condition
+     * @param timeout How long to wait
+     * @param unit The unit of the timeout
+     * @param expired Run if no event satisfied the condition in time, or {@code null} to do nothing
+     * @return The subscription, which can be cancelled
+     * @throws IllegalArgumentException If the event class, action or unit is null or the timeout is not positive
+     */
+    public <T extends GenericEvent> Subscription waitForMessage(final long message, final Class<T> eventClass, final Predicate<? super T> condition, final Consumer<? super T> action, final long timeout, final TimeUnit unit, final Runnable expired) {
+        return this.subscribe(this.messages, message, eventClass, condition, action, timeout, unit, expired);
+    }
+
+    /**
+     * Waits for an event caused by a user, such as their next message anywhere.
+     * @param user The ID of the user
+     * @param eventClass The class of event to wait for
+     * @param condition Checked against each event of the class caused by the user, or {@code null} to accept the first
+     * @param action Run with the first event that satisfies the condition
+     * @param timeout How long to wait
+     * @param unit The unit of the timeout
+     * @param expired Run if no event satisfied the condition in time, or {@code null} to do nothing
+     * @return The subscription, which can be cancelled
+     * @throws IllegalArgumentException If the event class, action or unit is null or the timeout is not positive
+     */
+    public <T extends GenericEvent> Subscription waitForUser(final long user, final Class<T> eventClass, final Predicate<? super T> condition, final Consumer<? super T> action, final long timeout, final TimeUnit unit, final Runnable expired) {
+        return this.subscribe(this.users, user, eventClass, condition, action, timeout, unit, expired);
+    }
+
+}
@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import net.dv8tion.jda.api.events.GenericEvent;
+
+/**
+ * An {@link EventHandler} method bound to its listener. <p>
+ * The method is resolved to a {@link MethodHandle} once when the listener is registered so that
+ * dispatching an event does not go through reflection. Methods listed in a generated {@link ListenerTable}
+ * are called through their generated invoker instead and are never made accessible. Every method is
+ * adapted to take the event and a count, which is only passed on to methods that declare it.
+ */
+final class ListenerMethod {
+    private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class, Object.class, int.class);
+    private static final MethodHandle GENERATED;
+
+    static {
+        try {
+            GENERATED = MethodHandles.publicLookup().findVirtual(ListenerTable.Invoker.class, "invoke", MethodType.methodType(void.class, Object.class, Object.class, int.class));
+        } catch (final ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Object listener;
+    private final Class<?> eventClass;
+    private final EventHandler annotation;
+    private final CircuitBreaker breaker = new CircuitBreaker();
+    private final ListenerStatistics statistics;
+    private final MethodHandle handle;
+    private final Coalescer coalescer;
+    private final Batcher batcher;
+    private final ListenerQueue queue;
+
+    /**
+     * @param manager The event manager the listener is registered with
+     * @param listener The listener instance, or the {@link Class} for static listeners
+     * @param owner The name of the class declaring the method
+     * @param name The name of the method
+     * @param eventClass The event class the method receives
+     * @param annotation The {@link EventHandler} annotation of the method
+     * @param batch Whether the method receives events in batches
+     * @param handle Invokes the method, adapted to {@link #INVOKER_TYPE}
+     */
+    private ListenerMethod(final AnnotatedEventManager manager, final Object listener, final String owner, final String name, final Class<?> eventClass, final EventHandler annotation, final boolean batch, final MethodHandle handle) {
+        this.listener = listener;
+        this.eventClass = eventClass;
+        this.annotation = annotation;
+        this.handle = handle;
+        this.queue = annotation.async() ? new ListenerQueue(manager, this, annotation.queueSize(), annotation.overflow()) : null;
+        this.statistics = new ListenerStatistics(owner, name, eventClass, this.breaker, this.queue);
+        this.coalescer = annotation.coalesce() == CoalesceKey.NONE ? null : new Coalescer(manager, this, annotation.coalesceWindow());
+        this.batcher = batch ? new Batcher(manager, this, annotation.batchSize(), annotation.batchWindow()) : null;
+    }
+
+    /**
+     * Binds a method found by scanning its class.
+     * @param manager The event manager the listener is registered with
+     * @param listener The listener instance, or the {@link Class} for static listeners
+     * @param method The annotated method
+     * @param eventClass The event class the method receives
+     * @param batch Whether the method receives events in batches
+     * @return The bound method
+     * @throws IllegalAccessException If the method could not be made accessible
+     */
+    static ListenerMethod reflect(final AnnotatedEventManager manager, final Object listener, final Method method, final Class<?> eventClass, final boolean batch) throws IllegalAccessException {
+        method.setAccessible(true);
+        MethodHandle handle = MethodHandles.lookup().unreflect(method);
+
+        if (!Modifier.isStatic(method.getModifiers())) {
+            handle = handle.bindTo(listener);
+        }
+
+        if (method.getParameterCount() == 1) {
+            handle = MethodHandles.dropArguments(handle, 1, int.class);
+        }
+
+        return new ListenerMethod(manager, listener, method.getDeclaringClass().getName(), method.getName(), eventClass, method.getAnnotation(EventHandler.class), batch, handle.asType(ListenerMethod.INVOKER_TYPE));
+    }
+
+    /**
+     * Binds a method listed in a generated {@link ListenerTable}.
+     * @param manager The event manager the listener is registered with
+     * @param listener The listener instance, or the {@link Class} for static listeners
+     * @param owner The listener class the table was generated for
+     * @param entry The entry for the method
+     * @return The bound method
+     */
+    static ListenerMethod generated(final AnnotatedEventManager manager, final Object listener, final Class<?> owner, final ListenerTable.Entry entry) {
+        final MethodHandle handle = ListenerMethod.GENERATED.bindTo(entry.invoker).bindTo(listener);
+        return new ListenerMethod(manager, listener, owner.getName(), entry.name, entry.eventClass, entry.annotation, entry.batch, handle);
+    }
+
+    /**
+     * Releases anything the method is holding on to once its listener has been unregistered.
+     * Coalesced and queued events are discarded while batched events are delivered.
+     */
+    void close() {
+        if (this.queue != null) {
+            this.queue.close();
+        }
+
+        if (this.coalescer != null) {
+            this.coalescer.discard();
+        }
+
+        if (this.batcher != null) {
+            this.batcher.flush();
+        }
+    }
+
+    EventHandler getAnnotation() {
+        return this.annotation;
+    }
+
+    Object getListener() {
+        return this.listener;
+    }
+
+    /**
+     * @return The batcher for the method, or {@code null} if it does not receive events in batches
+     */
+    Batcher getBatcher() {
+        return this.batcher;
+    }
+
+    /**
+     * @return The queue in front of the method, or {@code null} if it is not asynchronous
+     */
+    ListenerQueue getQueue() {
+        return this.queue;
+    }
+
+    /**
+     * @return The circuit breaker that quarantines the method if it keeps failing
+     */
+    CircuitBreaker getBreaker() {
+        return this.breaker;
+    }
+
+    /**
+     * @return The coalescer for the method, or {@code null} if it does not coalesce events
+     */
+    Coalescer getCoalescer() {
+        return this.coalescer;
+    }
+
+    /**
+     * @return The event class the method was declared to receive
+     */
+    Class<?> getEventClass() {
+        return this.eventClass;
+    }
+
+    ListenerStatistics getStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Invokes the method with the event.
+     * @param event The event to pass to the method
+     * @throws Throwable Anything thrown by the method itself
+     */
+    void invoke(final GenericEvent event) throws Throwable {
+        this.handle.invokeExact((Object) event, 0);
+    }
+
+    /**
+     * Invokes the method with an argument and a count.
+     * @param argument The argument to pass to the method
+     * @param count The count to pass to methods that declare it
+     * @throws Throwable Anything thrown by the method itself
+     */
+    void invoke(final Object argument, final int count) throws Throwable {
+        this.handle.invokeExact(argument, count);
+    }
+
+}
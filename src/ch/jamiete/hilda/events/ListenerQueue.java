@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import ch.jamiete.hilda.Hilda;
+import net.dv8tion.jda.api.events.GenericEvent;
+
+/**
+ * The bounded queue in front of an asynchronous {@link EventHandler} method. <p>
+ * Events are taken off the queue by a single drain task at a time, so the method sees events in the order they
+ * were queued and is never invoked concurrently with itself. The drain task only runs while there are events
+ * queued. What happens when the queue is full is decided by the method's {@link OverflowPolicy}.
+ */
+final class ListenerQueue {
+
+    private static final class Queued {
+        private GenericEvent event;
+        private final long key;
+
+        private Queued(final GenericEvent event, final long key) {
+            this.event = event;
+            this.key = key;
+        }
+    }
+
+    private final AnnotatedEventManager manager;
+    private final ListenerMethod method;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final Deque<Queued> queue = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition space = this.lock.newCondition();
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final LongAdder dropped = new LongAdder();
+    private boolean closed = false;
+
+    ListenerQueue(final AnnotatedEventManager manager, final ListenerMethod method, final int capacity, final OverflowPolicy policy) {
+        this.manager = manager;
+        this.method = method;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Discards every queued event and stops accepting more, releasing any thread waiting for space.
+     */
+    void close() {
+        this.lock.lock();
+
+        try {
+            this.closed = true;
+            this.queue.clear();
+            this.space.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of events that were discarded or replaced because the queue was full
+     */
+    long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * @return The number of events currently queued
+     */
+    int getSize() {
+        this.lock.lock();
+
+        try {
+            return this.queue.size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Queues an event for the method, applying the overflow policy if the queue is full.
+     * @param event The event
+     * @param key The key used to find an event to replace under {@link OverflowPolicy#COALESCE}
+     * @throws InterruptedException If interrupted while waiting for space under {@link OverflowPolicy#BLOCK}
+     */
+    void offer(final GenericEvent event, final long key) throws InterruptedException {
+        this.lock.lock();
+
+        try {
+            if (!this.makeSpace(event, key)) {
+                return;
+            }
+
+            this.queue.addLast(new Queued(event, key));
+        } finally {
+            this.lock.unlock();
+        }
+
+        this.schedule();
+    }
+
+    /**
+     * @return Whether the event should be queued
+     */
+    private boolean makeSpace(final GenericEvent event, final long key) throws InterruptedException {
+        if (this.closed) {
+            return false;
+        }
+
+        if (this.queue.size() < this.capacity) {
+            return true;
+        }
+
+        switch (this.policy) {
+            case BLOCK:
+                while (this.queue.size() >= this.capacity && !this.closed) {
+                    this.space.await();
+                }
+
+                return !this.closed;
+
+            case DROP_NEWEST:
+                this.dropped.increment();
+                return false;
+
+            case COALESCE:
+                final Iterator<Queued> iterator = this.queue.descendingIterator();
+
+                while (iterator.hasNext()) {
+                    final Queued queued = iterator.next();
+
+                    if (queued.key == key && queued.event.getClass() == event.getClass()) {
+                        queued.event = event;
+                        this.dropped.increment();
+                        return false;
+                    }
+                }
+
+                // Nothing to replace
+            case DROP_OLDEST:
+            default:
+                this.queue.pollFirst();
+                this.dropped.increment();
+                return true;
+        }
+    }
+
+    private void schedule() {
+        if (!this.draining.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            this.manager.execute(this::drain);
+        } catch (final RejectedExecutionException e) {
+            final int discarded;
+
+            this.lock.lock();
+
+            try {
+                // Nothing will drain the queue any more, so release it rather than leave it stalled
+                discarded = this.queue.size();
+                this.queue.clear();
+                this.dropped.add(discarded);
+                this.draining.set(false);
+                this.space.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+
+            Hilda.getLogger().log(Level.WARNING, "Discarded " + discarded + " queued events for " + this.method.getStatistics() + " as they could not be scheduled", e);
+        }
+    }
+
+    /**
+     * Invokes the method with queued events until the queue is empty. Draining is cleared while holding
+     * the lock, so an event queued afterwards always schedules a new drain.
+     */
+    private void drain() {
+        while (true) {
+            final GenericEvent event;
+
+            this.lock.lock();
+
+            try {
+                final Queued queued = this.queue.pollFirst();
+
+                if (queued == null) {
+                    this.draining.set(false);
+                    break;
+                }
+
+                event = queued.event;
+                this.space.signal();
+            } finally {
+                this.lock.unlock();
+            }
+
+            try {
+                this.manager.invoke(this.method, event, 0);
+            } catch (final Throwable throwable) {
+                // Keep draining, otherwise the queue would stay marked as draining and stall for good
+                Hilda.getLogger().log(Level.SEVERE, "Failed to deliver a queued event to " + this.method.getStatistics(), throwable);
+            }
+        }
+    }
+
+}
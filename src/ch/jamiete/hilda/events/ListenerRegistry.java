@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+import net.dv8tion.jda.api.events.Event;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.message.GenericMessageEvent;
+import net.dv8tion.jda.api.events.message.guild.GenericGuildMessageEvent;
+import net.dv8tion.jda.api.events.message.guild.react.GenericGuildMessageReactionEvent;
+import net.dv8tion.jda.api.events.message.priv.GenericPrivateMessageEvent;
+import net.dv8tion.jda.api.events.message.priv.react.GenericPrivateMessageReactionEvent;
+import net.dv8tion.jda.api.events.message.react.GenericMessageReactionEvent;
+import net.dv8tion.jda.api.events.user.GenericUserEvent;
+
+/**
+ * An immutable snapshot of the registered listeners and their {@link EventHandler} methods. <p>
+ * Registering or unregistering a listener produces a new snapshot which {@link AnnotatedEventManager}
+ * publishes in a single write, so threads dispatching events never see a partially built registry.
+ * The flattened dispatch table is cached per snapshot and is therefore dropped along with it.
+ */
+final class ListenerRegistry {
+    static final ListenerRegistry EMPTY = new ListenerRegistry(Collections.emptyMap(), Collections.emptyMap(), true, ListenerRegistry.getDefaultPriorities());
+
+    private static final DispatchEntry NO_METHODS = new DispatchEntry(new DispatchTarget[0], EventProperties.NONE, false, EventPriority.NORMAL);
+
+    /**
+     * @return Messages above reactions above user updates such as presence and typing
+     */
+    private static Map<Class<?>, EventPriority> getDefaultPriorities() {
+        final Map<Class<?>, EventPriority> priorities = new HashMap<>();
+        priorities.put(GenericMessageEvent.class, EventPriority.HIGH);
+        priorities.put(GenericGuildMessageEvent.class, EventPriority.HIGH);
+        priorities.put(GenericPrivateMessageEvent.class, EventPriority.HIGH);
+        priorities.put(GenericMessageReactionEvent.class, EventPriority.NORMAL);
+        priorities.put(GenericGuildMessageReactionEvent.class, EventPriority.NORMAL);
+        priorities.put(GenericPrivateMessageReactionEvent.class, EventPriority.NORMAL);
+        priorities.put(GenericUserEvent.class, EventPriority.LOW);
+        return Collections.unmodifiableMap(priorities);
+    }
+
+    private final Map<Object, List<ListenerMethod>> listeners;
+    private final Map<Class<?>, List<ListenerMethod>> methods;
+    private final boolean statistics;
+    private final Map<Class<?>, EventPriority> priorities;
+    private final Map<Class<? extends GenericEvent>, DispatchEntry> dispatch = new ConcurrentHashMap<>();
+
+    private ListenerRegistry(final Map<Object, List<ListenerMethod>> listeners, final Map<Class<?>, List<ListenerMethod>> methods, final boolean statistics, final Map<Class<?>, EventPriority> priorities) {
+        this.listeners = listeners;
+        this.methods = methods;
+        this.statistics = statistics;
+        this.priorities = priorities;
+    }
+
+    boolean contains(final Object listener) {
+        return this.listeners.containsKey(listener);
+    }
+
+    /**
+     * @param listener The listener
+     * @return The methods of the listener, or an empty list if it is not registered
+     */
+    List<ListenerMethod> getMethods(final Object listener) {
+        return this.listeners.getOrDefault(listener, Collections.emptyList());
+    }
+
+    /**
+     * @return Every registered listener method
+     */
+    List<ListenerMethod> getMethods() {
+        final List<ListenerMethod> methods = new ArrayList<>();
+        this.listeners.values().forEach(methods::addAll);
+        return methods;
+    }
+
+    /**
+     * @return The statistics of every registered listener method
+     */
+    List<ListenerStatistics> getStatistics() {
+        final List<ListenerStatistics> statistics = new ArrayList<>();
+        this.listeners.values().forEach(methods -> methods.forEach(method -> statistics.add(method.getStatistics())));
+        return statistics;
+    }
+
+    boolean isStatistics() {
+        return this.statistics;
+    }
+
+    /**
+     * @return The registered listeners in the order they were registered
+     */
+    List<Object> getListeners() {
+        return new ArrayList<>(this.listeners.keySet());
+    }
+
+    /**
+     * Gets the dispatch entry for an event of a concrete class. <p>
+     * Methods for the most specific class come first, followed by those for each superclass up to {@link Event}.
+     * @param eventClass The concrete event class
+     * @return The dispatch entry, whose methods may be empty
+     */
+    DispatchEntry getDispatch(final Class<? extends GenericEvent> eventClass) {
+        return this.dispatch.computeIfAbsent(eventClass, this::buildDispatch);
+    }
+
+    /**
+     * Creates a snapshot with the listener and its methods added.
+     * @param listener The listener to add
+     * @param found The listener's methods
+     * @return The new snapshot
+     */
+    ListenerRegistry with(final Object listener, final List<ListenerMethod> found) {
+        final Map<Object, List<ListenerMethod>> listeners = new LinkedHashMap<>(this.listeners);
+        listeners.put(listener, Collections.unmodifiableList(new ArrayList<>(found)));
+
+        final Map<Class<?>, List<ListenerMethod>> methods = new HashMap<>(this.methods);
+
+        for (final ListenerMethod method : found) {
+            final List<ListenerMethod> existing = methods.get(method.getEventClass());
+            final List<ListenerMethod> updated = existing == null ? new ArrayList<>(1) : new ArrayList<>(existing);
+
+            updated.add(method);
+            methods.put(method.getEventClass(), Collections.unmodifiableList(updated));
+        }
+
+        return new ListenerRegistry(Collections.unmodifiableMap(listeners), Collections.unmodifiableMap(methods), this.statistics, this.priorities);
+    }
+
+    /**
+     * Creates a snapshot with the listener and its methods removed.
+     * @param listener The listener to remove
+     * @return The new snapshot
+     */
+    ListenerRegistry without(final Object listener) {
+        final List<ListenerMethod> removed = this.listeners.get(listener);
+
+        if (removed == null) {
+            return this;
+        }
+
+        final Map<Object, List<ListenerMethod>> listeners = new LinkedHashMap<>(this.listeners);
+        listeners.remove(listener);
+
+        final Map<Class<?>, List<ListenerMethod>> methods = new HashMap<>(this.methods);
+
+        for (final ListenerMethod method : removed) {
+            final List<ListenerMethod> updated = new ArrayList<>(methods.get(method.getEventClass()));
+            updated.remove(method);
+
+            if (updated.isEmpty()) {
+                methods.remove(method.getEventClass());
+            } else {
+                methods.put(method.getEventClass(), Collections.unmodifiableList(updated));
+            }
+        }
+
+        return new ListenerRegistry(Collections.unmodifiableMap(listeners), Collections.unmodifiableMap(methods), this.statistics, this.priorities);
+    }
+
+    /**
+     * Creates a snapshot with the same listeners that does or does not record statistics.
+     * @param statistics Whether statistics should be recorded
+     * @return The new snapshot
+     */
+    ListenerRegistry withStatistics(final boolean statistics) {
+        return new ListenerRegistry(this.listeners, this.methods, statistics, this.priorities);
+    }
+
+    /**
+     * Creates a snapshot with the same listeners that dispatches events of a class with a different priority.
+     * @param eventClass The event class, which also applies to its subclasses
+     * @param priority The priority, or {@code null} to inherit the priority of the superclass
+     * @return The new snapshot
+     */
+    ListenerRegistry withPriority(final Class<?> eventClass, final EventPriority priority) {
+        final Map<Class<?>, EventPriority> priorities = new HashMap<>(this.priorities);
+
+        if (priority == null) {
+            priorities.remove(eventClass);
+        } else {
+            priorities.put(eventClass, priority);
+        }
+
+        return new ListenerRegistry(this.listeners, this.methods, this.statistics, Collections.unmodifiableMap(priorities));
+    }
+
+    /**
+     * @param eventClass The event class
+     * @return The priority set for the class or its closest superclass, or {@link EventPriority#NORMAL} if there is none
+     */
+    EventPriority getPriority(final Class<?> eventClass) {
+        for (Class<?> current = eventClass; current != null; current = current.getSuperclass()) {
+            final EventPriority priority = this.priorities.get(current);
+
+            if (priority != null) {
+                return priority;
+            }
+        }
+
+        return EventPriority.NORMAL;
+    }
+
+    private DispatchEntry buildDispatch(final Class<? extends GenericEvent> eventClass) {
+        final List<DispatchTarget> targets = new ArrayList<>();
+        Class<?> current = eventClass;
+
+        do {
+            final List<ListenerMethod> declared = this.methods.get(current);
+
+            if (declared != null) {
+                for (final ListenerMethod method : declared) {
+                    final EventFilter filter = EventFilter.compile(method.getAnnotation(), eventClass);
+
+                    // Leave out methods that could never receive this class of event
+                    if (filter == EventFilter.NEVER) {
+                        continue;
+                    }
+
+                    final EventHandler annotation = method.getAnnotation();
+                    ToLongFunction<GenericEvent> overflow = null;
+
+                    if (method.getQueue() != null && annotation.overflow() == OverflowPolicy.COALESCE) {
+                        overflow = annotation.overflowKey() == CoalesceKey.NONE ? EventProperties.NONE : EventProperties.key(annotation.overflowKey(), eventClass);
+                    }
+
+                    targets.add(new DispatchTarget(method, filter, EventProperties.key(annotation.coalesce(), eventClass), overflow));
+                }
+            }
+
+            current = current == Event.class ? null : current.getSuperclass();
+        } while (current != null);
+
+        if (targets.isEmpty()) {
+            return ListenerRegistry.NO_METHODS;
+        }
+
+        return new DispatchEntry(targets.toArray(new DispatchTarget[targets.size()]), EventProperties.guild(eventClass), this.statistics, this.getPriority(eventClass));
+    }
+
+}
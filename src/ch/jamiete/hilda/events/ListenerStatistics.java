@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.util.concurrent.atomic.LongAdder;
+import ch.jamiete.hilda.util.LatencyHistogram;
+
+/**
+ * Invocation statistics for a single {@link EventHandler} method of a registered listener.
+ */
+public class ListenerStatistics {
+    private final String listener;
+    private final String method;
+    private final Class<?> eventClass;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final CircuitBreaker breaker;
+    private final ListenerQueue queue;
+
+    ListenerStatistics(final String listener, final String method, final Class<?> eventClass, final CircuitBreaker breaker, final ListenerQueue queue) {
+        this.listener = listener;
+        this.method = method;
+        this.eventClass = eventClass;
+        this.breaker = breaker;
+        this.queue = queue;
+    }
+
+    /**
+     * @return The number of events discarded or replaced because the method's queue was full
+     */
+    public long getDropped() {
+        return this.queue == null ? 0 : this.queue.getDropped();
+    }
+
+    /**
+     * @return The number of invocations that threw
+     */
+    public long getErrors() {
+        return this.errors.sum();
+    }
+
+    /**
+     * @return The event class the method receives
+     */
+    public Class<?> getEventClass() {
+        return this.eventClass;
+    }
+
+    /**
+     * @return The number of times the method has been invoked
+     */
+    public long getInvocations() {
+        return this.invocations.sum();
+    }
+
+    /**
+     * @return The time taken by each invocation
+     */
+    public LatencyHistogram getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * @return The class name of the listener
+     */
+    public String getListener() {
+        return this.listener;
+    }
+
+    /**
+     * @return The name of the method
+     */
+    public String getMethod() {
+        return this.method;
+    }
+
+    /**
+     * @return The number of events waiting to be handled by the method, or {@code 0} if it is not asynchronous
+     */
+    public int getQueueDepth() {
+        return this.queue == null ? 0 : this.queue.getSize();
+    }
+
+    /**
+     * @return The number of invocations skipped because the method was quarantined
+     */
+    public long getSuppressed() {
+        return this.breaker.getSuppressed();
+    }
+
+    /**
+     * @return Whether the method is currently quarantined for failing too often
+     */
+    public boolean isQuarantined() {
+        return this.breaker.isOpen();
+    }
+
+    void record(final long nanos, final boolean failed) {
+        this.invocations.increment();
+        this.latency.record(nanos);
+
+        if (failed) {
+            this.errors.increment();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.listener + "#" + this.method + "(" + this.eventClass.getSimpleName() + ")";
+    }
+
+}
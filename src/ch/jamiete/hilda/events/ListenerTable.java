@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.lang.annotation.Annotation;
+import java.util.List;
+
+/**
+ * The {@link EventHandler} methods of a listener class, generated at compile time by
+ * {@link ch.jamiete.hilda.events.processor.ListenerTableProcessor ListenerTableProcessor}. <p>
+ * The table for {@code com.example.Foo} is named {@code com.example.Foo$HildaListenerTable}. When it is present,
+ * {@link AnnotatedEventManager} registers the listed methods from the generated annotation values and invokes them
+ * through the generated invokers, without any reflection on the listener class. Listener classes compiled without the processor are scanned as usual.
+ */
+public interface ListenerTable {
+
+    /**
+     * Appended to the binary name of a listener class to name its table.
+     */
+    String SUFFIX = "$HildaListenerTable";
+
+    /**
+     * Calls an {@link EventHandler} method directly.
+     */
+    @FunctionalInterface
+    interface Invoker {
+        /**
+         * @param listener The listener instance, ignored for static methods
+         * @param argument The event, or list of events for batching methods
+         * @param count The count, only passed to methods that declare it
+         * @throws Throwable Anything thrown by the method itself
+         */
+        void invoke(Object listener, Object argument, int count) throws Throwable;
+    }
+
+    /**
+     * One {@link EventHandler} method of a listener class.
+     */
+    final class Entry {
+        final String name;
+        final Class<?> eventClass;
+        final boolean batch;
+        final boolean isStatic;
+        final EventHandler annotation;
+        final Invoker invoker;
+
+        /**
+         * @param name The name of the method
+         * @param eventClass The event class the method receives
+         * @param batch Whether the method receives a list of events
+         * @param isStatic Whether the method is static
+         * @param annotation The values of the method's {@link EventHandler} annotation
+         * @param invoker Calls the method
+         */
+        public Entry(final String name, final Class<?> eventClass, final boolean batch, final boolean isStatic, final EventHandler annotation, final Invoker invoker) {
+            this.name = name;
+            this.eventClass = eventClass;
+            this.batch = batch;
+            this.isStatic = isStatic;
+            this.annotation = annotation;
+            this.invoker = invoker;
+        }
+    }
+
+    /**
+     * The values of an {@link EventHandler} annotation, written out by the processor so that they do not have
+     * to be read through reflection.
+     */
+    final class Handler implements EventHandler {
+        private final boolean async;
+        private final int queueSize;
+        private final OverflowPolicy overflow;
+        private final CoalesceKey overflowKey;
+        private final int batchSize;
+        private final long batchWindow;
+        private final long[] channels;
+        private final long[] guilds;
+        private final CoalesceKey coalesce;
+        private final long coalesceWindow;
+        private final boolean ignoreBots;
+        private final String prefix;
+
+        /**
+         * The parameters are the members of {@link EventHandler} in the order they are declared.
+         */
+        public Handler(final boolean async, final int queueSize, final OverflowPolicy overflow, final CoalesceKey overflowKey, final int batchSize, final long batchWindow, final long[] channels, final long[] guilds, final CoalesceKey coalesce, final long coalesceWindow, final boolean ignoreBots, final String prefix) {
+            this.async = async;
+            this.queueSize = queueSize;
+            this.overflow = overflow;
+            this.overflowKey = overflowKey;
+            this.batchSize = batchSize;
+            this.batchWindow = batchWindow;
+            this.channels = channels;
+            this.guilds = guilds;
+            this.coalesce = coalesce;
+            this.coalesceWindow = coalesceWindow;
+            this.ignoreBots = ignoreBots;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Class<? extends Annotation> annotationType() {
+            return EventHandler.class;
+        }
+
+        @Override
+        public boolean async() {
+            return this.async;
+        }
+
+        @Override
+        public int queueSize() {
+            return this.queueSize;
+        }
+
+        @Override
+        public OverflowPolicy overflow() {
+            return this.overflow;
+        }
+
+        @Override
+        public CoalesceKey overflowKey() {
+            return this.overflowKey;
+        }
+
+        @Override
+        public int batchSize() {
+            return this.batchSize;
+        }
+
+        @Override
+        public long batchWindow() {
+            return this.batchWindow;
+        }
+
+        @Override
+        public long[] channels() {
+            return this.channels.clone();
+        }
+
+        @Override
+        public long[] guilds() {
+            return this.guilds.clone();
+        }
+
+        @Override
+        public CoalesceKey coalesce() {
+            return this.coalesce;
+        }
+
+        @Override
+        public long coalesceWindow() {
+            return this.coalesceWindow;
+        }
+
+        @Override
+        public boolean ignoreBots() {
+            return this.ignoreBots;
+        }
+
+        @Override
+        public String prefix() {
+            return this.prefix;
+        }
+    }
+
+    /**
+     * @return The {@link EventHandler} methods declared by the listener class
+     */
+    List<Entry> getEntries();
+
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+/**
+ * What happens to events for an asynchronous {@link EventHandler} method when its queue is full.
+ * @see EventHandler#async()
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Wait for space in the queue. This holds up every other listener until the method catches up.
+     */
+    BLOCK,
+
+    /**
+     * Discard the oldest queued event to make space.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the new event.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Replace the most recently queued event of the same class that shares the {@link EventHandler#overflowKey()}
+     * of the new event, or discard the oldest queued event if there is none.
+     */
+    COALESCE;
+
+}
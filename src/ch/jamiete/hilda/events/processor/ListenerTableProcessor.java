@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import ch.jamiete.hilda.events.CoalesceKey;
+import ch.jamiete.hilda.events.EventHandler;
+import ch.jamiete.hilda.events.ListenerTable;
+import ch.jamiete.hilda.events.OverflowPolicy;
+
+/**
+ * Generates a {@link ListenerTable} for every class that declares {@link EventHandler} methods, so that
+ * {@link ch.jamiete.hilda.events.AnnotatedEventManager AnnotatedEventManager} can register the class without
+ * scanning it and invoke its methods without reflection. <p>
+ * The processor is registered as a service in the Hilda jar, so plugins compiled against Hilda get their tables
+ * automatically. Each entry carries the values of the method's annotation and an invoker that calls the method
+ * directly, so registering the class never touches its {@link java.lang.reflect.Method Methods}. Methods with a
+ * parameter list the event manager would not accept are reported as warnings and left out of the table. Private
+ * methods cannot be called from a table, so classes that declare one get no table and are scanned at runtime as
+ * they were before.
+ */
+@SupportedAnnotationTypes("ch.jamiete.hilda.events.EventHandler")
+public class ListenerTableProcessor extends AbstractProcessor {
+    private static final String EVENT = "net.dv8tion.jda.api.events.Event";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+        final TypeElement eventElement = this.processingEnv.getElementUtils().getTypeElement(ListenerTableProcessor.EVENT);
+
+        if (eventElement == null) {
+            return false;
+        }
+
+        final Map<TypeElement, List<String>> tables = new LinkedHashMap<>();
+        final Set<TypeElement> scanned = new HashSet<>();
+
+        for (final Element element : round.getElementsAnnotatedWith(EventHandler.class)) {
+            if (element.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+
+            final ExecutableElement method = (ExecutableElement) element;
+            final TypeElement owner = (TypeElement) method.getEnclosingElement();
+
+            // Private methods cannot be called from a table, so the whole class is left to be scanned
+            if (method.getModifiers().contains(Modifier.PRIVATE)) {
+                if (ListenerTableProcessor.isAccessible(owner)) {
+                    this.processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE, "Private @EventHandler methods cannot be called from a listener table; " + owner.getQualifiedName() + " will be scanned at runtime instead", method);
+                }
+
+                scanned.add(owner);
+                continue;
+            }
+
+            final String entry = this.createEntry(owner, method, eventElement.asType());
+
+            if (entry != null) {
+                tables.computeIfAbsent(owner, k -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        for (final Map.Entry<TypeElement, List<String>> table : tables.entrySet()) {
+            if (ListenerTableProcessor.isAccessible(table.getKey()) && !scanned.contains(table.getKey())) {
+                this.writeTable(table.getKey(), table.getValue());
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return The source of a {@link ListenerTable.Entry} constructor call, or {@code null} if the method is not a valid handler
+     */
+    private String createEntry(final TypeElement owner, final ExecutableElement method, final TypeMirror event) {
+        final Types types = this.processingEnv.getTypeUtils();
+        final List<? extends VariableElement> parameters = method.getParameters();
+        final boolean coalesces = method.getAnnotation(EventHandler.class).coalesce() != CoalesceKey.NONE;
+
+        TypeMirror eventType = null;
+        boolean batch = false;
+
+        if (parameters.size() == 1 || coalesces && parameters.size() == 2 && parameters.get(1).asType().getKind() == TypeKind.INT) {
+            final TypeMirror first = types.erasure(parameters.get(0).asType());
+
+            if (types.isAssignable(first, types.erasure(event))) {
+                eventType = first;
+            } else if (parameters.size() == 1 && parameters.get(0).asType().getKind() == TypeKind.DECLARED && "java.util.List".equals(types.erasure(first).toString())) {
+                final List<? extends TypeMirror> arguments = ((DeclaredType) parameters.get(0).asType()).getTypeArguments();
+
+                if (arguments.size() == 1 && arguments.get(0).getKind() == TypeKind.DECLARED && types.isAssignable(arguments.get(0), types.erasure(event))) {
+                    eventType = types.erasure(arguments.get(0));
+                    batch = true;
+                }
+            }
+        }
+
+        if (eventType == null) {
+            this.processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "@EventHandler methods must take an event, a List of events, or an event and an int when coalescing; this method will be ignored", method);
+            return null;
+        }
+
+        final boolean isStatic = method.getModifiers().contains(Modifier.STATIC);
+        final String ownerName = owner.getQualifiedName().toString();
+        final String eventName = eventType.toString();
+        final StringBuilder sb = new StringBuilder();
+
+        sb.append("new ListenerTable.Entry(\"").append(method.getSimpleName()).append("\", ");
+        sb.append(eventName).append(".class, ").append(batch).append(", ").append(isStatic).append(", ");
+        sb.append(this.createHandler(method.getAnnotation(EventHandler.class))).append(", ");
+        sb.append("(listener, argument, count) -> ");
+        sb.append(isStatic ? ownerName : "((" + ownerName + ") listener)");
+        sb.append(".").append(method.getSimpleName()).append("((").append(batch ? "java.util.List" : eventName).append(") argument");
+        sb.append(parameters.size() == 2 ? ", count" : "").append("))");
+
+        return sb.toString();
+    }
+
+    /**
+     * @return The source of a {@link ListenerTable.Handler} constructor call with the values of the annotation
+     */
+    private String createHandler(final EventHandler annotation) {
+        final StringBuilder sb = new StringBuilder("new ListenerTable.Handler(");
+
+        sb.append(annotation.async()).append(", ");
+        sb.append(annotation.queueSize()).append(", ");
+        sb.append(OverflowPolicy.class.getName()).append(".").append(annotation.overflow().name()).append(", ");
+        sb.append(CoalesceKey.class.getName()).append(".").append(annotation.overflowKey().name()).append(", ");
+        sb.append(annotation.batchSize()).append(", ");
+        sb.append(annotation.batchWindow()).append("L, ");
+        sb.append(ListenerTableProcessor.createArray(annotation.channels())).append(", ");
+        sb.append(ListenerTableProcessor.createArray(annotation.guilds())).append(", ");
+        sb.append(CoalesceKey.class.getName()).append(".").append(annotation.coalesce().name()).append(", ");
+        sb.append(annotation.coalesceWindow()).append("L, ");
+        sb.append(annotation.ignoreBots()).append(", ");
+        sb.append(this.processingEnv.getElementUtils().getConstantExpression(annotation.prefix())).append(")");
+
+        return sb.toString();
+    }
+
+    private static String createArray(final long[] values) {
+        final StringBuilder sb = new StringBuilder("new long[] {");
+
+        for (int i = 0; i < values.length; i++) {
+            sb.append(i == 0 ? " " : ", ").append(values[i]).append("L");
+        }
+
+        return sb.append(values.length == 0 ? "}" : " }").toString();
+    }
+
+    /**
+     * @return Whether code in the same package can refer to the class
+     */
+    private static boolean isAccessible(final TypeElement type) {
+        Element current = type;
+
+        while (current instanceof TypeElement) {
+            final TypeElement element = (TypeElement) current;
+
+            if (element.getModifiers().contains(Modifier.PRIVATE) || element.getNestingKind() == NestingKind.LOCAL || element.getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+
+            current = element.getEnclosingElement();
+        }
+
+        return true;
+    }
+
+    private void writeTable(final TypeElement owner, final List<String> entries) {
+        final PackageElement pkg = this.processingEnv.getElementUtils().getPackageOf(owner);
+        final String binary = this.processingEnv.getElementUtils().getBinaryName(owner).toString();
+        final String simple = binary.substring(binary.lastIndexOf('.') + 1) + ListenerTable.SUFFIX;
+        final String name = pkg.isUnnamed() ? simple : pkg.getQualifiedName() + "." + simple;
+
+        try {
+            final JavaFileObject file = this.processingEnv.getFiler().createSourceFile(name, owner);
+
+            try (Writer writer = file.openWriter()) {
+                if (!pkg.isUnnamed()) {
+                    writer.write("package " + pkg.getQualifiedName() + ";\n\n");
+                }
+
+                writer.write("import ch.jamiete.hilda.events.ListenerTable;\n\n");
+                writer.write("/**\n * Generated by " + ListenerTableProcessor.class.getName() + " for {@link " + owner.getQualifiedName() + "}.\n */\n");
+                writer.write("public final class " + simple + " implements ListenerTable {\n\n");
+                writer.write("    @Override\n");
+                writer.write("    @SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+                writer.write("    public java.util.List<ListenerTable.Entry> getEntries() {\n");
+                writer.write("        return java.util.Arrays.asList(\n");
+
+                for (int i = 0; i < entries.size(); i++) {
+                    writer.write("            " + entries.get(i) + (i == entries.size() - 1 ? "\n" : ",\n"));
+                }
+
+                writer.write("        );\n");
+                writer.write("    }\n\n");
+                writer.write("}\n");
+            }
+        } catch (final IOException e) {
+            this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write the listener table: " + e.getMessage(), owner);
+        }
+    }
+
+}
@@ -15,11 +15,20 @@
  *******************************************************************************/
 package ch.jamiete.hilda.listeners;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
 import java.util.Scanner;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import ch.jamiete.hilda.Hilda;
 import ch.jamiete.hilda.Util;
+import ch.jamiete.hilda.commands.CommandStatistics;
+import ch.jamiete.hilda.events.DispatchLane;
+import ch.jamiete.hilda.events.EventPriority;
+import ch.jamiete.hilda.events.ListenerStatistics;
+import ch.jamiete.hilda.replay.EventRecorder;
 
 public class ConsoleListener extends Thread {
     private final Hilda hilda;
@@ -34,7 +43,10 @@ public class ConsoleListener extends Thread {
         final Scanner scanner = new Scanner(System.in);
 
         while (true) {
-            switch (scanner.nextLine().toLowerCase()) {
+            final String line = scanner.nextLine().trim();
+            final String[] input = line.split("\\s+");
+
+            switch (input[0].toLowerCase()) {
                 case "stop":
                 case "shutdown":
                 case "end":
@@ -63,6 +75,122 @@ public class ConsoleListener extends Thread {
                     }
                     break;
 
+                case "commands":
+                    final int busiest = ConsoleListener.parseCount(input, 10);
+
+                    if (busiest == -1) {
+                        Hilda.getLogger().info("Usage: commands [count] to list the busiest commands.");
+                        break;
+                    }
+
+                    Hilda.getLogger().info("Command information:");
+                    Hilda.getLogger().info("> Registered: " + this.hilda.getCommandManager().getChannelCommands().size());
+                    Hilda.getLogger().info("> Executions: " + this.hilda.getCommandManager().getExecutions());
+                    Hilda.getLogger().info("> Executing: " + this.hilda.getCommandManager().getActiveCommands());
+                    Hilda.getLogger().info("> Queued: " + this.hilda.getCommandManager().getQueuedCommands());
+                    Hilda.getLogger().info("> Rejected: " + this.hilda.getCommandManager().getRejectedCommands());
+                    Hilda.getLogger().info("> Throttled: " + this.hilda.getCommandManager().getThrottledCommands());
+
+                    for (final CommandStatistics statistics : this.hilda.getCommandManager().getBusiestCommands(busiest)) {
+                        final StringBuilder sb = new StringBuilder();
+
+                        sb.append("    ").append(statistics);
+                        sb.append(" invoked ").append(statistics.getInvocations());
+                        sb.append(" succeeded ").append(statistics.getSuccesses());
+                        sb.append(" failed ").append(statistics.getErrors());
+                        sb.append(" denied ").append(statistics.getDenials());
+                        sb.append(" throttled ").append(statistics.getThrottles());
+                        sb.append(" total ").append(TimeUnit.NANOSECONDS.toMillis(statistics.getLatency().getTotal())).append("ms");
+                        sb.append(" mean ").append(TimeUnit.NANOSECONDS.toMicros(statistics.getLatency().getMean())).append("us");
+                        sb.append(" p99 ").append(TimeUnit.NANOSECONDS.toMicros(statistics.getLatency().getPercentile(99))).append("us");
+
+                        Hilda.getLogger().info(sb.toString());
+                    }
+                    break;
+
+                case "events":
+                    final List<DispatchLane> lanes = this.hilda.getEventManager().getDispatchLanes();
+
+                    Hilda.getLogger().info("Event dispatch information:");
+                    Hilda.getLogger().info("> Listeners: " + this.hilda.getEventManager().getRegisteredListeners().size());
+                    Hilda.getLogger().info("> Parallel: " + (lanes.isEmpty() ? "disabled" : lanes.size() + " lanes"));
+
+                    for (final DispatchLane lane : lanes) {
+                        final StringBuilder sb = new StringBuilder();
+
+                        sb.append("    ").append(lane.getName());
+                        sb.append(" queued ").append(lane.getQueueDepth());
+                        sb.append(" (peak ").append(lane.getPeakQueueDepth()).append(")");
+                        sb.append(" dropped ").append(lane.getDropped());
+                        sb.append(" dispatched ").append(lane.getDispatched());
+
+                        for (final EventPriority priority : EventPriority.values()) {
+                            sb.append(" | ").append(priority.name().toLowerCase());
+                            sb.append(" queued ").append(lane.getQueueDepth(priority));
+                            sb.append(" (peak ").append(lane.getPeakQueueDepth(priority)).append(")");
+                            sb.append(" dispatched ").append(lane.getDispatched(priority));
+                        }
+
+                        Hilda.getLogger().info(sb.toString());
+                    }
+                    break;
+
+                case "listeners":
+                    final int count = ConsoleListener.parseCount(input, 10);
+
+                    if (count == -1) {
+                        Hilda.getLogger().info("Usage: listeners [count] to list the slowest listeners.");
+                        break;
+                    }
+
+                    Hilda.getLogger().info("Slowest listeners:");
+
+                    if (!this.hilda.getEventManager().isStatistics()) {
+                        Hilda.getLogger().info("> Statistics are disabled.");
+                    }
+
+                    for (final ListenerStatistics statistics : this.hilda.getEventManager().getSlowestListeners(count)) {
+                        final StringBuilder sb = new StringBuilder();
+
+                        sb.append("    ").append(statistics);
+                        sb.append(" invoked ").append(statistics.getInvocations());
+                        sb.append(" failed ").append(statistics.getErrors());
+                        if (statistics.getDropped() > 0 || statistics.getQueueDepth() > 0) {
+                            sb.append(" queued ").append(statistics.getQueueDepth()).append(" dropped ").append(statistics.getDropped());
+                        }
+                        if (statistics.isQuarantined()) {
+                            sb.append(" quarantined (").append(statistics.getSuppressed()).append(" skipped)");
+                        }
+                        sb.append(" mean ").append(TimeUnit.NANOSECONDS.toMicros(statistics.getLatency().getMean())).append("us");
+                        sb.append(" p99 ").append(TimeUnit.NANOSECONDS.toMicros(statistics.getLatency().getPercentile(99))).append("us");
+                        sb.append(" max ").append(TimeUnit.NANOSECONDS.toMicros(statistics.getLatency().getMax())).append("us");
+
+                        Hilda.getLogger().info(sb.toString());
+                    }
+                    break;
+
+                case "record":
+                    final EventRecorder previous = this.hilda.getEventManager().setRecorder(null);
+
+                    if (previous != null) {
+                        previous.close();
+                    }
+
+                    // The path is the rest of the line so that it may contain spaces
+                    final String path = line.substring(input[0].length()).trim();
+
+                    if (!path.isEmpty()) {
+                        try {
+                            this.hilda.getEventManager().setRecorder(new EventRecorder(new File(path)));
+                            Hilda.getLogger().info("Recording events to " + path + "; use 'record' again to stop.");
+                        } catch (final IOException e) {
+                            Hilda.getLogger().log(Level.WARNING, "Encountered an exception while opening " + path + " for recording", e);
+                        }
+                    } else if (previous == null) {
+                        Hilda.getLogger().info("Usage: record <file> to start recording events, or record to stop.");
+                    }
+                    break;
+
                 default:
                     Hilda.getLogger().info("Unknown command.");
                     break;
@@ -70,4 +198,23 @@ public class ConsoleListener extends Thread {
         }
     }
 
+    /**
+     * Reads the count given after a console command.
+     * @param input The words of the console command
+     * @param def The count to use if none was given
+     * @return The count, or {@code -1} if it is negative or not a number that fits in an {@code int}
+     */
+    private static int parseCount(final String[] input, final int def) {
+        if (input.length < 2) {
+            return def;
+        }
+
+        try {
+            final int count = Integer.parseInt(input[1]);
+            return count < 0 ? -1 : count;
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
 }
@@ -47,9 +47,19 @@ import ch.jamiete.hilda.Sanity;
 public class PluginManager {
     private final List<HildaPlugin> plugins = Collections.synchronizedList(new ArrayList<HildaPlugin>());
     private final Hilda hilda;
+    private final File directory;
 
     public PluginManager(final Hilda hilda) {
+        this(hilda, new File("plugins"));
+    }
+
+    /**
+     * @param hilda The bot
+     * @param directory The directory to load plugins from, or {@code null} to load no plugins
+     */
+    public PluginManager(final Hilda hilda, final File directory) {
         this.hilda = hilda;
+        this.directory = directory;
     }
 
     public void disablePlugins() {
@@ -217,9 +227,9 @@ public class PluginManager {
     }
 
     public void loadPlugins() {
-        final File pluginsDir = new File("plugins");
+        final File pluginsDir = this.directory;
 
-        if (!pluginsDir.exists() || !pluginsDir.isDirectory()) {
+        if (pluginsDir == null || !pluginsDir.exists() || !pluginsDir.isDirectory()) {
             Hilda.getLogger().info("Starting without plugins!");
             return;
         }
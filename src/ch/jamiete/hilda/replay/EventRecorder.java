@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.replay;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.HildaThreadFactory;
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.priv.PrivateMessageReceivedEvent;
+
+/**
+ * Records incoming events to an append-only file so that they can later be replayed with {@link EventReplayer}. <p>
+ * Only message received events ({@link GuildMessageReceivedEvent}, {@link PrivateMessageReceivedEvent} and
+ * {@link MessageReceivedEvent}) can be replayed. They are recorded with everything needed to rebuild them: the
+ * IDs involved, the author and the raw content. Every other event is recorded by class name only, which preserves
+ * the shape of the traffic without its contents, and is skipped on replay. A warning is logged the first time each
+ * such class is recorded. Each record starts with the time since the previous record as a variable length integer,
+ * so a recording costs little more than the message content itself. <p>
+ * Events are captured on the thread that delivers them and written by a thread of their own, so a slow disk never
+ * holds up event dispatch. If the writer falls too far behind, new events are dropped and counted instead. <p>
+ * Recording stops by itself if the file cannot be written to.
+ */
+public class EventRecorder implements Closeable {
+    static final int MAGIC = 0x48494C44;
+    static final int VERSION = 1;
+
+    static final int KIND_OTHER = 0;
+    static final int KIND_MESSAGE = 1;
+    static final int KIND_GUILD_MESSAGE = 2;
+    static final int KIND_PRIVATE_MESSAGE = 3;
+
+    static final int FLAG_BOT = 1;
+    static final int FLAG_SELF = 2;
+
+    /**
+     * The largest number of events waiting to be written before new events are dropped.
+     */
+    private static final int QUEUE_SIZE = 65536;
+
+    static void writeVarLong(final DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+
+        out.writeByte((int) value);
+    }
+
+    /**
+     * An event captured on the thread that delivered it, waiting to be written.
+     */
+    private static final class Record {
+        private final int kind;
+        private final long time;
+        private final long guild, channel, id, author;
+        private final int flags;
+        private final String name, content;
+
+        private Record(final int kind, final long time, final long guild, final long channel, final long id, final long author, final int flags, final String name, final String content) {
+            this.kind = kind;
+            this.time = time;
+            this.guild = guild;
+            this.channel = channel;
+            this.id = id;
+            this.author = author;
+            this.flags = flags;
+            this.name = name;
+            this.content = content;
+        }
+    }
+
+    /**
+     * Queued by {@link #close()} to stop the writer once it has written everything before it.
+     */
+    private static final Record END = new Record(-1, 0, 0, 0, 0, 0, 0, null, null);
+
+    private final File file;
+    private final DataOutputStream out;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(EventRecorder.QUEUE_SIZE);
+    private final Thread writer;
+    private final Set<Class<?>> unsupported = ConcurrentHashMap.newKeySet();
+    private final LongAdder dropped = new LongAdder();
+    private volatile long recorded = 0;
+    private volatile boolean closed = false;
+    private volatile boolean failed = false;
+    private long last = System.currentTimeMillis();
+
+    /**
+     * Opens a file to append events to, writing a header if the file is new, and starts the writer thread.
+     * @param file The file to record to
+     * @throws IOException If the file could not be opened
+     */
+    public EventRecorder(final File file) throws IOException {
+        final boolean fresh = !file.exists() || file.length() == 0;
+
+        this.file = file;
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 65536));
+
+        if (fresh) {
+            this.out.writeInt(EventRecorder.MAGIC);
+            this.out.writeByte(EventRecorder.VERSION);
+        }
+
+        this.writer = new HildaThreadFactory("HildaRecorder").newThread(this::write);
+        this.writer.start();
+    }
+
+    /**
+     * Stops recording and waits for the events already captured to be written.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.closed) {
+            return;
+        }
+
+        this.closed = true;
+
+        try {
+            if (this.writer.isAlive()) {
+                this.queue.put(EventRecorder.END);
+                this.writer.join();
+            }
+        } catch (final InterruptedException e) {
+            Hilda.getLogger().log(Level.WARNING, "Interrupted while finishing the event recording " + this.file.getName(), e);
+            this.writer.interrupt();
+            Thread.currentThread().interrupt();
+        }
+
+        Hilda.getLogger().info("Recorded " + this.recorded + " events to " + this.file.getName() + (this.getDropped() == 0 ? "" : "; dropped " + this.getDropped() + " as the writer fell behind"));
+    }
+
+    /**
+     * @return The number of events that were not recorded because the writer fell behind
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * @return The file events are recorded to
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * @return The number of events written so far
+     */
+    public long getRecorded() {
+        return this.recorded;
+    }
+
+    /**
+     * Captures an event to be appended to the recording. Never blocks.
+     * @param event The event
+     */
+    public void record(final GenericEvent event) {
+        if (this.closed || this.failed) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final Record record;
+
+        if (event instanceof GuildMessageReceivedEvent) {
+            record = EventRecorder.capture(EventRecorder.KIND_GUILD_MESSAGE, now, ((GuildMessageReceivedEvent) event).getMessage());
+        } else if (event instanceof PrivateMessageReceivedEvent) {
+            record = EventRecorder.capture(EventRecorder.KIND_PRIVATE_MESSAGE, now, ((PrivateMessageReceivedEvent) event).getMessage());
+        } else if (event instanceof MessageReceivedEvent) {
+            record = EventRecorder.capture(EventRecorder.KIND_MESSAGE, now, ((MessageReceivedEvent) event).getMessage());
+        } else {
+            if (this.unsupported.add(event.getClass())) {
+                Hilda.getLogger().warning("Recording " + event.getClass().getName() + " by class name only; events of this class cannot be replayed");
+            }
+
+            record = new Record(EventRecorder.KIND_OTHER, now, 0, 0, 0, 0, 0, event.getClass().getName(), null);
+        }
+
+        if (!this.queue.offer(record)) {
+            this.dropped.increment();
+        }
+    }
+
+    private static Record capture(final int kind, final long now, final Message message) {
+        final User author = message.getAuthor();
+        final boolean guild = message.isFromType(ChannelType.TEXT);
+        int flags = 0;
+
+        if (author.isBot()) {
+            flags |= EventRecorder.FLAG_BOT;
+        }
+
+        if (author.getIdLong() == message.getJDA().getSelfUser().getIdLong()) {
+            flags |= EventRecorder.FLAG_SELF;
+        }
+
+        return new Record(kind, now, guild ? message.getGuild().getIdLong() : 0L, message.getChannel().getIdLong(), message.getIdLong(), author.getIdLong(), flags, author.getName(), message.getContentRaw());
+    }
+
+    /**
+     * Writes captured events until {@link #close()} is called, then closes the file. Once writing fails the
+     * remaining events are discarded so that {@link #close()} can still finish.
+     */
+    private void write() {
+        try {
+            while (true) {
+                final Record record = this.queue.take();
+
+                if (record == EventRecorder.END) {
+                    break;
+                }
+
+                if (this.failed) {
+                    continue;
+                }
+
+                try {
+                    this.writeRecord(record);
+                    this.recorded++;
+                } catch (final IOException e) {
+                    Hilda.getLogger().log(Level.WARNING, "Encountered an exception while recording an event; recording stopped", e);
+                    this.failed = true;
+                }
+            }
+        } catch (final InterruptedException e) {
+            Hilda.getLogger().log(Level.WARNING, "Event recording " + this.file.getName() + " was interrupted with " + this.queue.size() + " events still to write", e);
+        } finally {
+            try {
+                this.out.close();
+            } catch (final IOException e) {
+                Hilda.getLogger().log(Level.WARNING, "Encountered an exception while closing the event recording " + this.file.getName(), e);
+            }
+        }
+    }
+
+    private void writeRecord(final Record record) throws IOException {
+        this.out.writeByte(record.kind);
+        EventRecorder.writeVarLong(this.out, Math.max(0, record.time - this.last));
+        this.last = record.time;
+
+        if (record.kind == EventRecorder.KIND_OTHER) {
+            this.out.writeUTF(record.name);
+            return;
+        }
+
+        this.out.writeLong(record.guild);
+        this.out.writeLong(record.channel);
+        this.out.writeLong(record.id);
+        this.out.writeLong(record.author);
+        this.out.writeByte(record.flags);
+        this.out.writeUTF(record.name);
+        this.out.writeUTF(record.content);
+    }
+
+}
@@ -0,0 +1,403 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.replay;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.events.AnnotatedEventManager;
+import ch.jamiete.hilda.events.ListenerStatistics;
+import ch.jamiete.hilda.util.LatencyHistogram;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageChannel;
+import net.dv8tion.jda.api.entities.PrivateChannel;
+import net.dv8tion.jda.api.entities.SelfUser;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.priv.PrivateMessageReceivedEvent;
+
+/**
+ * Replays a recording made by {@link EventRecorder} through {@link AnnotatedEventManager} and the
+ * {@link ch.jamiete.hilda.commands.CommandManager CommandManager}, then reports throughput and latency. <p>
+ * Message events are rebuilt around stubbed JDA entities, so no connection to Discord is made and REST
+ * actions are never executed. Members are treated as having every permission so that commands run to
+ * completion. Only message received events can be rebuilt; every other event is recorded by class name only
+ * and is skipped, with a warning listing the skipped classes, or fails the replay in strict mode. <p>
+ * Events are handled one after another on the calling thread, either as fast as possible or with the
+ * gaps between them as recorded. The replay is isolated from the working directory: configurations are
+ * only held in memory and plugins are only loaded from a directory given explicitly.
+ */
+public class EventReplayer {
+
+    public static void main(final String[] args) {
+        if (args.length < 1) {
+            EventReplayer.usage();
+        }
+
+        boolean realtime = false;
+        boolean strict = false;
+        File plugins = null;
+
+        for (int i = 1; i < args.length; i++) {
+            if ("realtime".equalsIgnoreCase(args[i])) {
+                realtime = true;
+            } else if ("strict".equalsIgnoreCase(args[i])) {
+                strict = true;
+            } else if (args[i].startsWith("plugins=")) {
+                plugins = new File(args[i].substring("plugins=".length()));
+            } else {
+                EventReplayer.usage();
+            }
+        }
+
+        final EventReplayer replayer = new EventReplayer(realtime, strict, plugins);
+        int status = 0;
+
+        try {
+            replayer.replay(new File(args[0]));
+            replayer.report();
+        } catch (final IOException e) {
+            Hilda.getLogger().log(Level.SEVERE, "Encountered an exception while replaying " + args[0], e);
+            status = 1;
+        }
+
+        replayer.hilda.getEventManager().shutdown();
+        replayer.hilda.getExecutor().shutdownNow();
+        System.exit(status);
+    }
+
+    private static void usage() {
+        System.err.println("Usage: EventReplayer <recording> [realtime] [strict] [plugins=<directory>]");
+        System.err.println();
+        System.err.println("Replays recorded events as fast as possible, or with their recorded timing if 'realtime' is passed.");
+        System.err.println("'strict' stops the replay at the first event that cannot be rebuilt instead of skipping it.");
+        System.err.println("No plugins are loaded unless a directory is given.");
+        System.exit(1);
+    }
+
+    private final boolean realtime;
+    private final boolean strict;
+    private final StubFactory stubs = new StubFactory();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final Map<Long, Guild> guilds = new HashMap<>();
+    private final Map<Long, MessageChannel> channels = new HashMap<>();
+    private final Map<Long, User> users = new HashMap<>();
+    private final Map<Long, Map<Long, Member>> members = new HashMap<>();
+    private final Map<String, Long> unsupported = new TreeMap<>();
+    private final JDA jda;
+    private final SelfUser self;
+    private final Hilda hilda;
+    private long replayed = 0;
+    private long skipped = 0;
+    private long elapsed = 0;
+
+    /**
+     * @param realtime Whether to keep the recorded gaps between events
+     * @param strict Whether to fail on events that cannot be rebuilt rather than skip them
+     * @param plugins The directory to load plugins from, or {@code null} to replay without plugins
+     */
+    public EventReplayer(final boolean realtime, final boolean strict, final File plugins) {
+        this.realtime = realtime;
+        this.strict = strict;
+
+        final Map<String, Object> self = new HashMap<>();
+        self.put("getIdLong", 1L);
+        self.put("getId", "1");
+        self.put("getName", "Hilda");
+        self.put("isBot", true);
+        this.self = this.stubs.create(SelfUser.class, self);
+
+        final Map<String, Object> jda = new HashMap<>();
+        jda.put("getSelfUser", this.self);
+        jda.put("getGuildById", (StubFactory.Answer) a -> this.guilds.get(EventReplayer.toLong(a[0])));
+        jda.put("getTextChannelById", (StubFactory.Answer) a -> this.channels.get(EventReplayer.toLong(a[0])));
+        jda.put("getUserById", (StubFactory.Answer) a -> this.users.get(EventReplayer.toLong(a[0])));
+        this.jda = this.stubs.create(JDA.class, jda);
+
+        this.hilda = new Hilda(this.jda);
+        this.hilda.startOffline(null, plugins);
+    }
+
+    private static long toLong(final Object id) {
+        return id instanceof Long ? (Long) id : Long.parseUnsignedLong(id.toString());
+    }
+
+    /**
+     * @return The offline instance events are replayed through
+     */
+    Hilda getHilda() {
+        return this.hilda;
+    }
+
+    /**
+     * @return The number of events replayed
+     */
+    public long getReplayed() {
+        return this.replayed;
+    }
+
+    /**
+     * @return The number of events that could not be rebuilt
+     */
+    public long getSkipped() {
+        return this.skipped;
+    }
+
+    /**
+     * Logs the throughput, the latency percentiles and the slowest listeners of the replay.
+     */
+    public void report() {
+        final AnnotatedEventManager events = this.hilda.getEventManager();
+        final double seconds = Math.max(1, this.elapsed) / 1e9;
+
+        Hilda.getLogger().info("Replayed " + this.replayed + " events in " + String.format("%.2f", seconds) + "s (" + String.format("%.0f", this.replayed / seconds) + " events/s); skipped " + this.skipped);
+        Hilda.getLogger().info("> REST actions stubbed: " + this.stubs.getRestActions());
+
+        if (!this.unsupported.isEmpty()) {
+            Hilda.getLogger().warning("Skipped events that cannot be replayed, so the replay does not reproduce the recorded session:");
+            this.unsupported.forEach((name, count) -> Hilda.getLogger().warning("    " + name + " x" + count));
+        }
+
+        Hilda.getLogger().info("> Latency mean " + EventReplayer.micros(this.latency.getMean()) + " p50 " + EventReplayer.micros(this.latency.getPercentile(50)) + " p90 " + EventReplayer.micros(this.latency.getPercentile(90)) + " p99 " + EventReplayer.micros(this.latency.getPercentile(99)) + " p99.9 " + EventReplayer.micros(this.latency.getPercentile(99.9)) + " max " + EventReplayer.micros(this.latency.getMax()));
+
+        Hilda.getLogger().info("Slowest listeners:");
+        for (final ListenerStatistics statistics : events.getSlowestListeners(10)) {
+            Hilda.getLogger().info("    " + statistics + " invoked " + statistics.getInvocations() + " failed " + statistics.getErrors() + " p99 " + EventReplayer.micros(statistics.getLatency().getPercentile(99)));
+        }
+    }
+
+    private static String micros(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos) + "us";
+    }
+
+    /**
+     * Replays every event in a recording.
+     * @param file The recording
+     * @throws IOException If the recording could not be read or is not a recording
+     */
+    public void replay(final File file) throws IOException {
+        final AnnotatedEventManager events = this.hilda.getEventManager();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            if (in.readInt() != EventRecorder.MAGIC || in.readUnsignedByte() != EventRecorder.VERSION) {
+                throw new IOException(file.getName() + " is not an event recording");
+            }
+
+            final long start = System.nanoTime();
+            long offset = 0;
+            long responses = 0;
+
+            while (true) {
+                final int kind = in.read();
+
+                if (kind == -1) {
+                    break;
+                }
+
+                offset += EventReplayer.readVarLong(in);
+                final GenericEvent event = this.readEvent(kind, in, ++responses);
+
+                if (event == null) {
+                    this.skipped++;
+                    continue;
+                }
+
+                if (this.realtime) {
+                    final long wait = TimeUnit.MILLISECONDS.toNanos(offset) - (System.nanoTime() - start);
+
+                    if (wait > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        } catch (final InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                    }
+                }
+
+                final long before = System.nanoTime();
+                events.handle(event);
+                this.latency.record(System.nanoTime() - before);
+                this.replayed++;
+            }
+
+            this.elapsed = System.nanoTime() - start;
+        }
+    }
+
+    private static long readVarLong(final DataInputStream in) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed variable length integer");
+    }
+
+    private GenericEvent readEvent(final int kind, final DataInputStream in, final long response) throws IOException {
+        if (kind == EventRecorder.KIND_OTHER) {
+            final String name = in.readUTF();
+
+            if (this.strict) {
+                throw new IOException(name + " was recorded by class name only and cannot be replayed");
+            }
+
+            this.unsupported.merge(name, 1L, Long::sum);
+            return null;
+        }
+
+        if (kind != EventRecorder.KIND_MESSAGE && kind != EventRecorder.KIND_GUILD_MESSAGE && kind != EventRecorder.KIND_PRIVATE_MESSAGE) {
+            throw new EOFException("Unknown record kind " + kind + "; the recording may be truncated");
+        }
+
+        final long guild = in.readLong();
+        final long channel = in.readLong();
+        final long id = in.readLong();
+        final long author = in.readLong();
+        final int flags = in.readUnsignedByte();
+        final String name = in.readUTF();
+        final String content = in.readUTF();
+
+        final User user = (flags & EventRecorder.FLAG_SELF) != 0 ? this.self : this.getUser(author, name, (flags & EventRecorder.FLAG_BOT) != 0);
+        final Message message = this.createMessage(guild, channel, id, user, content);
+
+        switch (kind) {
+            case EventRecorder.KIND_GUILD_MESSAGE:
+                return new GuildMessageReceivedEvent(this.jda, response, message);
+
+            case EventRecorder.KIND_PRIVATE_MESSAGE:
+                return new PrivateMessageReceivedEvent(this.jda, response, message);
+
+            default:
+                return new MessageReceivedEvent(this.jda, response, message);
+        }
+    }
+
+    private Message createMessage(final long guild, final long channel, final long id, final User author, final String content) {
+        final Guild g = guild == 0L ? null : this.getGuild(guild);
+        final MessageChannel c = g == null ? this.getPrivateChannel(channel, author) : this.getTextChannel(channel, g);
+        final ChannelType type = g == null ? ChannelType.PRIVATE : ChannelType.TEXT;
+
+        final Map<String, Object> answers = new HashMap<>();
+        answers.put("getIdLong", id);
+        answers.put("getId", Long.toUnsignedString(id));
+        answers.put("getJDA", this.jda);
+        answers.put("getAuthor", author);
+        answers.put("getMember", g == null ? null : this.getMember(g, author));
+        answers.put("getGuild", g);
+        answers.put("getChannel", c);
+        answers.put("getTextChannel", g == null ? null : c);
+        answers.put("getPrivateChannel", g == null ? c : null);
+        answers.put("getChannelType", type);
+        answers.put("isFromType", (StubFactory.Answer) a -> a[0] == type);
+        answers.put("isFromGuild", g != null);
+        answers.put("getContentRaw", content);
+        answers.put("getContentDisplay", content);
+        answers.put("getContentStripped", content);
+        return this.stubs.create(Message.class, answers);
+    }
+
+    private Guild getGuild(final long id) {
+        return this.guilds.computeIfAbsent(id, k -> {
+            final Map<String, Object> answers = this.snowflake(id);
+            answers.put("getName", "Guild " + id);
+            answers.put("getJDA", this.jda);
+            answers.put("getMember", (StubFactory.Answer) a -> this.getMember(this.guilds.get(id), (User) a[0]));
+            answers.put("getSelfMember", (StubFactory.Answer) a -> this.getMember(this.guilds.get(id), this.self));
+            return this.stubs.create(Guild.class, answers);
+        });
+    }
+
+    private Member getMember(final Guild guild, final User user) {
+        return this.members.computeIfAbsent(guild.getIdLong(), k -> new HashMap<>()).computeIfAbsent(user.getIdLong(), k -> {
+            final Map<String, Object> answers = this.snowflake(user.getIdLong());
+            answers.put("getUser", user);
+            answers.put("getGuild", guild);
+            answers.put("getJDA", this.jda);
+            answers.put("getEffectiveName", user.getName());
+            answers.put("getAsMention", "<@" + user.getId() + ">");
+            answers.put("hasPermission", true);
+            return this.stubs.create(Member.class, answers);
+        });
+    }
+
+    private MessageChannel getPrivateChannel(final long id, final User user) {
+        return this.channels.computeIfAbsent(id, k -> {
+            final Map<String, Object> answers = this.snowflake(id);
+            answers.put("getName", user.getName());
+            answers.put("getJDA", this.jda);
+            answers.put("getUser", user);
+            answers.put("getType", ChannelType.PRIVATE);
+            answers.put("canTalk", true);
+            return this.stubs.create(PrivateChannel.class, answers);
+        });
+    }
+
+    private MessageChannel getTextChannel(final long id, final Guild guild) {
+        return this.channels.computeIfAbsent(id, k -> {
+            final Map<String, Object> answers = this.snowflake(id);
+            answers.put("getName", "channel-" + id);
+            answers.put("getJDA", this.jda);
+            answers.put("getGuild", guild);
+            answers.put("getType", ChannelType.TEXT);
+            answers.put("getAsMention", "<#" + id + ">");
+            answers.put("canTalk", true);
+            return this.stubs.create(TextChannel.class, answers);
+        });
+    }
+
+    private User getUser(final long id, final String name, final boolean bot) {
+        return this.users.computeIfAbsent(id, k -> {
+            final Map<String, Object> answers = this.snowflake(id);
+            answers.put("getName", name);
+            answers.put("getDiscriminator", "0000");
+            answers.put("getJDA", this.jda);
+            answers.put("getAsMention", "<@" + id + ">");
+            answers.put("isBot", bot);
+            return this.stubs.create(User.class, answers);
+        });
+    }
+
+    private Map<String, Object> snowflake(final long id) {
+        final Map<String, Object> answers = new HashMap<>();
+        answers.put("getIdLong", id);
+        answers.put("getId", Long.toUnsignedString(id));
+        return answers;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.replay;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import net.dv8tion.jda.api.requests.RestAction;
+
+/**
+ * Creates stand-ins for JDA interfaces so that events can be rebuilt without a connection to Discord. <p>
+ * A stub returns the answer it was created with for a method of that name. Otherwise methods returning
+ * another interface return a shared stub of that interface, so that chains such as
+ * {@code event.getChannel().sendMessage(...).queue()} work, and every other method returns the default
+ * value for its type. REST actions are never executed: queueing one does nothing and completing one
+ * returns {@code null}. The number of REST actions created is counted.
+ */
+final class StubFactory {
+
+    /**
+     * Computes the answer to a method call from its arguments.
+     */
+    @FunctionalInterface
+    interface Answer {
+        Object answer(Object[] args);
+    }
+
+    private final Map<Class<?>, Object> shared = new ConcurrentHashMap<>();
+    private final LongAdder rest = new LongAdder();
+
+    /**
+     * Creates a stub answering every method with its default.
+     * @param type The interface to stub
+     * @return The stub
+     */
+    <T> T create(final Class<T> type) {
+        return this.create(type, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a stub.
+     * @param type The interface to stub
+     * @param answers The values, or {@link Answer}s, to return from methods by name
+     * @return The stub
+     */
+    <T> T create(final Class<T> type, final Map<String, Object> answers) {
+        final Map<String, Object> copy = new HashMap<>(answers);
+
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    if (method.getParameterCount() == 1) {
+                        return proxy == args[0];
+                    }
+                    break;
+
+                case "hashCode":
+                    if (method.getParameterCount() == 0) {
+                        return System.identityHashCode(proxy);
+                    }
+                    break;
+
+                case "toString":
+                    if (method.getParameterCount() == 0) {
+                        return type.getSimpleName() + copy.getOrDefault("getIdLong", "");
+                    }
+                    break;
+            }
+
+            if (copy.containsKey(method.getName())) {
+                final Object answer = copy.get(method.getName());
+                return answer instanceof Answer ? ((Answer) answer).answer(args) : answer;
+            }
+
+            return this.getDefault(proxy, method);
+        }));
+    }
+
+    /**
+     * @return The number of REST actions that were created by stubs
+     */
+    long getRestActions() {
+        return this.rest.sum();
+    }
+
+    private Object getDefault(final Object proxy, final Method method) {
+        final Class<?> returns = method.getReturnType();
+
+        if (proxy instanceof RestAction) {
+            if ("submit".equals(method.getName())) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            // Builder methods such as MessageAction#append return the action itself
+            if (returns.isInstance(proxy)) {
+                return proxy;
+            }
+        }
+
+        if (returns == void.class) {
+            return null;
+        }
+
+        if (returns.isPrimitive()) {
+            return Array.get(Array.newInstance(returns, 1), 0);
+        }
+
+        if (!returns.isInterface()) {
+            return null;
+        }
+
+        if (RestAction.class.isAssignableFrom(returns)) {
+            this.rest.increment();
+            return this.create(returns);
+        }
+
+        return this.shared.computeIfAbsent(returns, this::create);
+    }
+
+}
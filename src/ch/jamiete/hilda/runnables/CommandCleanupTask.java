@@ -2,6 +2,12 @@ package ch.jamiete.hilda.runnables;
 
 import ch.jamiete.hilda.commands.CommandManager;
 
+/**
+ * Formerly cleared expired command timeouts. Timeouts now expire by themselves, so this is no longer scheduled
+ * and does nothing useful.
+ * @deprecated Timeouts no longer need clearing.
+ */
+@Deprecated
 public class CommandCleanupTask implements Runnable {
     private final CommandManager manager;
 
@@ -11,7 +17,6 @@ public class CommandCleanupTask implements Runnable {
 
     @Override
     public void run() {
-        this.manager.getChannelCommands().forEach(c -> c.clearTimeouts());
     }
 
 }
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.util;
+
+import java.util.Arrays;
+import ch.jamiete.hilda.Sanity;
+
+/**
+ * A map from {@code long} keys to values for read-heavy data keyed by Discord IDs. <p>
+ * Keys are stored unboxed in an open-addressed table that is replaced as a whole on every change.
+ * {@link #get(long)} never locks or allocates, while changes are serialised and copy the table. <p>
+ * {@code 0} cannot be used as a key as it marks empty slots, and {@code null} cannot be used as a value.
+ * @param <V> The type of values
+ */
+public class ConcurrentLongMap<V> {
+
+    private static final class Table {
+        private final long[] keys;
+        private final Object[] values;
+
+        private Table(final long[] keys, final Object[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+    }
+
+    private static final Table EMPTY = new Table(new long[0], new Object[0]);
+
+    private volatile Table table = ConcurrentLongMap.EMPTY;
+    private int size = 0;
+
+    /**
+     * Removes every entry from the map.
+     */
+    public synchronized void clear() {
+        this.size = 0;
+        this.table = ConcurrentLongMap.EMPTY;
+    }
+
+    /**
+     * Gets the value mapped to a key. Lock-free and allocation-free.
+     * @param key The key to look up
+     * @return The value or {@code null} if the key is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final long key) {
+        final Table table = this.table;
+
+        if (table.keys.length == 0 || key == 0L) {
+            return null;
+        }
+
+        final int mask = table.keys.length - 1;
+
+        for (int i = ConcurrentLongMap.index(key, mask);; i = i + 1 & mask) {
+            final long found = table.keys[i];
+
+            if (found == key) {
+                return (V) table.values[i];
+            }
+
+            if (found == 0L) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return Whether the map contains no entries
+     */
+    public boolean isEmpty() {
+        return this.table.keys.length == 0;
+    }
+
+    /**
+     * @return A copy of the keys in the map in no particular order
+     */
+    public long[] keys() {
+        final Table table = this.table;
+        return Arrays.stream(table.keys).filter(k -> k != 0L).toArray();
+    }
+
+    /**
+     * Maps a key to a value, replacing any existing value.
+     * @param key The key
+     * @param value The value
+     * @return The value previously mapped to the key or {@code null}
+     * @throws IllegalArgumentException If the key is {@code 0} or the value is {@code null}
+     */
+    public synchronized V put(final long key, final V value) {
+        Sanity.falsiness(key == 0L, "Cannot use 0 as a key in a ConcurrentLongMap.");
+        Sanity.nullCheck(value, "Cannot store null in a ConcurrentLongMap.");
+
+        final V previous = this.get(key);
+        final int size = previous == null ? this.size + 1 : this.size;
+        final long[] keys = new long[size];
+        final Object[] values = new Object[size];
+        final Table table = this.table;
+        int n = 0;
+
+        for (int i = 0; i < table.keys.length; i++) {
+            if (table.keys[i] != 0L && table.keys[i] != key) {
+                keys[n] = table.keys[i];
+                values[n++] = table.values[i];
+            }
+        }
+
+        keys[n] = key;
+        values[n] = value;
+        this.rebuild(keys, values);
+
+        return previous;
+    }
+
+    /**
+     * Removes the value mapped to a key.
+     * @param key The key to remove
+     * @return The value previously mapped to the key or {@code null}
+     */
+    public synchronized V remove(final long key) {
+        final V previous = this.get(key);
+
+        if (previous == null) {
+            return null;
+        }
+
+        final long[] keys = new long[this.size - 1];
+        final Object[] values = new Object[this.size - 1];
+        final Table table = this.table;
+        int n = 0;
+
+        for (int i = 0; i < table.keys.length; i++) {
+            if (table.keys[i] != 0L && table.keys[i] != key) {
+                keys[n] = table.keys[i];
+                values[n++] = table.values[i];
+            }
+        }
+
+        this.rebuild(keys, values);
+        return previous;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    private void rebuild(final long[] keys, final Object[] values) {
+        if (keys.length == 0) {
+            this.clear();
+            return;
+        }
+
+        // Keep the table at most half full so that probes stay short
+        final int length = Integer.highestOneBit(keys.length) << 2;
+        final long[] tableKeys = new long[length];
+        final Object[] tableValues = new Object[length];
+        final int mask = length - 1;
+
+        for (int n = 0; n < keys.length; n++) {
+            int i = ConcurrentLongMap.index(keys[n], mask);
+
+            while (tableKeys[i] != 0L) {
+                i = i + 1 & mask;
+            }
+
+            tableKeys[i] = keys[n];
+            tableValues[i] = values[n];
+        }
+
+        this.size = keys.length;
+        this.table = new Table(tableKeys, tableValues);
+    }
+
+    private static int index(final long value, final int mask) {
+        final long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32) & mask;
+    }
+
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.util;
+
+import java.util.Arrays;
+import ch.jamiete.hilda.Sanity;
+
+/**
+ * A set of {@code long} values for read-heavy data such as lists of Discord IDs. <p>
+ * Values are stored unboxed in an open-addressed table that is replaced as a whole on every change.
+ * {@link #contains(long)} never locks or allocates, while changes are serialised and copy the table. <p>
+ * {@code 0} cannot be stored as it marks empty slots; Discord IDs are never {@code 0}.
+ */
+public class ConcurrentLongSet {
+    private static final long[] EMPTY = new long[0];
+
+    private volatile long[] table = ConcurrentLongSet.EMPTY;
+    private int size = 0;
+
+    /**
+     * Adds a value to the set.
+     * @param value The value to add
+     * @return Whether the set changed
+     * @throws IllegalArgumentException If the value is {@code 0}
+     */
+    public synchronized boolean add(final long value) {
+        Sanity.falsiness(value == 0L, "Cannot store 0 in a ConcurrentLongSet.");
+
+        if (this.contains(value)) {
+            return false;
+        }
+
+        final long[] values = Arrays.copyOf(this.toArray(), this.size + 1);
+        values[this.size] = value;
+        this.rebuild(values);
+
+        return true;
+    }
+
+    /**
+     * Removes every value from the set.
+     */
+    public synchronized void clear() {
+        this.size = 0;
+        this.table = ConcurrentLongSet.EMPTY;
+    }
+
+    /**
+     * Checks whether the set contains a value. Lock-free and allocation-free.
+     * @param value The value to test
+     * @return Whether the set contains the value
+     */
+    public boolean contains(final long value) {
+        final long[] table = this.table;
+
+        if (table.length == 0 || value == 0L) {
+            return false;
+        }
+
+        final int mask = table.length - 1;
+
+        for (int i = ConcurrentLongSet.index(value, mask);; i = i + 1 & mask) {
+            final long found = table[i];
+
+            if (found == value) {
+                return true;
+            }
+
+            if (found == 0L) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return Whether the set contains no values
+     */
+    public boolean isEmpty() {
+        return this.table.length == 0;
+    }
+
+    /**
+     * Removes a value from the set.
+     * @param value The value to remove
+     * @return Whether the set changed
+     */
+    public synchronized boolean remove(final long value) {
+        if (!this.contains(value)) {
+            return false;
+        }
+
+        final long[] values = new long[this.size - 1];
+        int i = 0;
+
+        for (final long found : this.table) {
+            if (found != 0L && found != value) {
+                values[i++] = found;
+            }
+        }
+
+        this.rebuild(values);
+        return true;
+    }
+
+    /**
+     * Replaces the contents of the set.
+     * @param values The values the set should contain
+     * @throws IllegalArgumentException If any value is {@code 0}
+     */
+    public synchronized void set(final long[] values) {
+        final long[] distinct = Arrays.stream(values).distinct().toArray();
+
+        for (final long value : distinct) {
+            Sanity.falsiness(value == 0L, "Cannot store 0 in a ConcurrentLongSet.");
+        }
+
+        this.rebuild(distinct);
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * @return A copy of the values in the set in no particular order
+     */
+    public long[] toArray() {
+        final long[] table = this.table;
+        return Arrays.stream(table).filter(v -> v != 0L).toArray();
+    }
+
+    private void rebuild(final long[] values) {
+        if (values.length == 0) {
+            this.clear();
+            return;
+        }
+
+        // Keep the table at most half full so that probes stay short
+        final long[] table = new long[Integer.highestOneBit(values.length) << 2];
+        final int mask = table.length - 1;
+
+        for (final long value : values) {
+            int i = ConcurrentLongSet.index(value, mask);
+
+            while (table[i] != 0L) {
+                i = i + 1 & mask;
+            }
+
+            table[i] = value;
+        }
+
+        this.size = values.length;
+        this.table = table;
+    }
+
+    private static int index(final long value, final int mask) {
+        final long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32) & mask;
+    }
+
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongSupplier;
+import ch.jamiete.hilda.Sanity;
+
+/**
+ * Remembers when {@code long} IDs last did something so that they can be made to wait before doing it again. <p>
+ * Times are kept in a hashed timing wheel: each slot of the wheel covers a fixed span of time and holds an
+ * open-addressed table of IDs marked during that span. A slot's table is thrown away whole when the wheel comes
+ * round to it again, by which point every time in it has expired, so nothing ever has to be swept. <p>
+ * Checking and marking never lock. A mark made while its table is being grown may be lost, which at worst lets that
+ * ID act again early. {@code 0} cannot be marked; Discord IDs are never {@code 0}.
+ */
+public class CooldownWheel {
+
+    private static final class Bucket {
+        private final long tick;
+        private final int mask;
+        /**
+         * Pairs of ID and time.
+         */
+        private final AtomicLongArray entries;
+        private final AtomicInteger size = new AtomicInteger();
+
+        private Bucket(final long tick, final int capacity) {
+            this.tick = tick;
+            this.mask = capacity - 1;
+            this.entries = new AtomicLongArray(capacity << 1);
+        }
+
+        private long get(final long id) {
+            for (int i = CooldownWheel.index(id, this.mask);; i = i + 1 & this.mask) {
+                final long found = this.entries.get(i << 1);
+
+                if (found == id) {
+                    return this.entries.get(i << 1 | 1);
+                }
+
+                if (found == 0L) {
+                    return 0L;
+                }
+            }
+        }
+
+        private Bucket grow() {
+            final Bucket bucket = new Bucket(this.tick, this.mask + 1 << 1);
+
+            for (int i = 0; i <= this.mask; i++) {
+                final long id = this.entries.get(i << 1);
+                final long time = this.entries.get(i << 1 | 1);
+
+                if (id != 0L && time != 0L) {
+                    bucket.put(id, time);
+                }
+            }
+
+            return bucket;
+        }
+
+        /**
+         * @return Whether the time was stored, or {@code false} if the table is too full and must grow
+         */
+        private boolean put(final long id, final long time) {
+            int i = CooldownWheel.index(id, this.mask);
+
+            while (true) {
+                final long found = this.entries.get(i << 1);
+
+                if (found == id) {
+                    this.entries.set(i << 1 | 1, time);
+                    return true;
+                }
+
+                if (found == 0L) {
+                    // Keep the table at most half full so that probes stay short
+                    if (this.size.get() >= this.mask + 1 >>> 1) {
+                        return false;
+                    }
+
+                    if (this.entries.compareAndSet(i << 1, 0L, id)) {
+                        this.size.incrementAndGet();
+                        this.entries.set(i << 1 | 1, time);
+                        return true;
+                    }
+
+                    // Another thread claimed the slot first, so look at it again
+                    continue;
+                }
+
+                i = i + 1 & this.mask;
+            }
+        }
+    }
+
+    private static final int SLOTS = 8;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final AtomicReferenceArray<Bucket> wheel = new AtomicReferenceArray<>(CooldownWheel.SLOTS);
+    private final LongSupplier clock;
+    private final long cooldown;
+    private final long span;
+
+    /**
+     * @param cooldown How long IDs must wait after being marked in milliseconds
+     * @throws IllegalArgumentException If the cooldown is not positive
+     */
+    public CooldownWheel(final long cooldown) {
+        this(cooldown, System::currentTimeMillis);
+    }
+
+    /**
+     * @param cooldown How long IDs must wait after being marked in milliseconds
+     * @param clock The current time in milliseconds, which must be positive
+     * @throws IllegalArgumentException If the cooldown is not positive
+     */
+    CooldownWheel(final long cooldown, final LongSupplier clock) {
+        Sanity.truthiness(cooldown > 0, "Cooldown must be positive.");
+
+        this.clock = clock;
+        this.cooldown = cooldown;
+        // Every slot but the current one must together cover the cooldown so that a time outlives it
+        this.span = Math.max(1, (cooldown + CooldownWheel.SLOTS - 2) / (CooldownWheel.SLOTS - 1));
+    }
+
+    /**
+     * @return How long IDs must wait after being marked in milliseconds
+     */
+    public long getCooldown() {
+        return this.cooldown;
+    }
+
+    /**
+     * Gets how much longer an ID must wait. Lock-free and allocation-free.
+     * @param id The ID to check
+     * @return The time remaining in milliseconds, or {@code 0} if the ID is free to act
+     */
+    public long getRemaining(final long id) {
+        final long now = this.clock.getAsLong();
+        final long tick = now / this.span;
+        long last = 0L;
+
+        for (int slot = 0; slot < CooldownWheel.SLOTS; slot++) {
+            final Bucket bucket = this.wheel.get(slot);
+
+            if (bucket != null && tick - bucket.tick < CooldownWheel.SLOTS) {
+                last = Math.max(last, bucket.get(id));
+            }
+        }
+
+        return last == 0L ? 0L : Math.max(0L, last + this.cooldown - now);
+    }
+
+    /**
+     * Checks whether an ID must still wait. Lock-free and allocation-free.
+     * @param id The ID to check
+     * @return Whether the ID was marked less than the cooldown ago
+     */
+    public boolean isCooling(final long id) {
+        return this.getRemaining(id) > 0L;
+    }
+
+    /**
+     * Marks an ID as having acted now, starting its cooldown again. Lock-free.
+     * @param id The ID to mark
+     * @throws IllegalArgumentException If the ID is {@code 0}
+     */
+    public void mark(final long id) {
+        Sanity.falsiness(id == 0L, "Cannot mark 0 in a CooldownWheel.");
+
+        final long now = this.clock.getAsLong();
+        final long tick = now / this.span;
+        final int slot = (int) (tick % CooldownWheel.SLOTS);
+
+        while (true) {
+            Bucket bucket = this.wheel.get(slot);
+
+            // The slot still holds a table from the last time round the wheel, which has wholly expired
+            if (bucket == null || bucket.tick < tick) {
+                final Bucket fresh = new Bucket(tick, CooldownWheel.INITIAL_CAPACITY);
+
+                if (!this.wheel.compareAndSet(slot, bucket, fresh)) {
+                    continue;
+                }
+
+                bucket = fresh;
+            }
+
+            if (bucket.put(id, now)) {
+                return;
+            }
+
+            this.wheel.compareAndSet(slot, bucket, bucket.grow());
+        }
+    }
+
+    private static int index(final long value, final int mask) {
+        final long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32) & mask;
+    }
+
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size histogram of durations in nanoseconds that is safe to record into from many threads. <p>
+ * Each power of two is split into four buckets, so percentiles are accurate to within 25%.
+ * Recording is a handful of atomic additions and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = 63 * LatencyHistogram.SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(LatencyHistogram.BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @return The number of durations recorded
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return The longest duration recorded in nanoseconds
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @return The mean duration recorded in nanoseconds, or {@code 0} if nothing has been recorded
+     */
+    public long getMean() {
+        final long count = this.count.sum();
+        return count == 0 ? 0 : this.total.sum() / count;
+    }
+
+    /**
+     * Estimates a percentile of the durations recorded.
+     * @param percentile The percentile between 0 and 100
+     * @return The upper bound of the bucket containing the percentile in nanoseconds, or {@code 0} if nothing has been recorded
+     */
+    public long getPercentile(final double percentile) {
+        final long count = this.count.sum();
+
+        if (count == 0) {
+            return 0;
+        }
+
+        final long target = Math.max(1, (long) Math.ceil(count * percentile / 100));
+        long seen = 0;
+
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            seen += this.buckets.get(i);
+
+            if (seen >= target) {
+                return Math.min(LatencyHistogram.upperBound(i), this.max.get());
+            }
+        }
+
+        return this.max.get();
+    }
+
+    /**
+     * @return The sum of every duration recorded in nanoseconds
+     */
+    public long getTotal() {
+        return this.total.sum();
+    }
+
+    /**
+     * Records a duration.
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+
+        this.buckets.incrementAndGet(LatencyHistogram.index(value));
+        this.count.increment();
+        this.total.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * Removes every recorded duration.
+     */
+    public void reset() {
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            this.buckets.set(i, 0);
+        }
+
+        this.count.reset();
+        this.total.reset();
+        this.max.reset();
+    }
+
+    private static int index(final long value) {
+        if (value < LatencyHistogram.SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        // Position of the highest bit, then the two bits below it pick the sub-bucket
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> exponent - 2) & LatencyHistogram.SUB_BUCKETS - 1;
+
+        return (exponent - 1) * LatencyHistogram.SUB_BUCKETS + sub;
+    }
+
+    private static long upperBound(final int index) {
+        if (index < LatencyHistogram.SUB_BUCKETS) {
+            return index;
+        }
+
+        final int exponent = index / LatencyHistogram.SUB_BUCKETS + 1;
+        final int sub = index % LatencyHistogram.SUB_BUCKETS;
+
+        return ((long) LatencyHistogram.SUB_BUCKETS + sub + 1 << exponent - 2) - 1;
+    }
+
+}
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+import ch.jamiete.hilda.Sanity;
+
+/**
+ * A token bucket for each of many {@code long} IDs, such as users spending commands. <p>
+ * Each bucket holds up to a number of tokens and refills completely over a period. A bucket is stored as the single
+ * time at which it will next be full, so taking a token is one compare-and-set that never locks or allocates. <p>
+ * Buckets live in a fixed-size open-addressed table. A full bucket is the same as no bucket, so its slot is handed
+ * to the next new ID that needs one and nothing ever has to be swept. When every slot near an ID holds a bucket that
+ * is still refilling the ID is let through rather than tracked. A token taken just as its slot is handed over may be
+ * charged to the new ID. {@code 0} cannot be used as an ID.
+ */
+public class RateLimiter {
+    private static final int PROBES = 16;
+
+    /**
+     * Pairs of ID and the time, relative to {@link #origin}, at which the bucket will be full.
+     */
+    private final AtomicLongArray entries;
+    private final int mask;
+    private final long interval;
+    private final long period;
+    private final LongSupplier clock;
+    private final long origin;
+
+    /**
+     * @param tokens The number of tokens each bucket holds
+     * @param period The time in milliseconds an empty bucket takes to refill
+     * @param size The number of buckets that can be tracked at once, which will be rounded up to a power of two
+     * @throws IllegalArgumentException If any argument is not positive
+     */
+    public RateLimiter(final int tokens, final long period, final int size) {
+        this(tokens, period, size, System::nanoTime);
+    }
+
+    /**
+     * @param tokens The number of tokens each bucket holds
+     * @param period The time in milliseconds an empty bucket takes to refill
+     * @param size The number of buckets that can be tracked at once, which will be rounded up to a power of two
+     * @param clock The current time in nanoseconds, from an arbitrary origin
+     * @throws IllegalArgumentException If any argument is not positive
+     */
+    RateLimiter(final int tokens, final long period, final int size, final LongSupplier clock) {
+        Sanity.truthiness(tokens > 0 && period > 0 && size > 0, "Tokens, period and size must be positive.");
+
+        this.clock = clock;
+        this.origin = clock.getAsLong() - 1;
+
+        final int capacity = Integer.highestOneBit(Math.max(size, RateLimiter.PROBES) - 1) << 1;
+
+        this.entries = new AtomicLongArray(capacity << 1);
+        this.mask = capacity - 1;
+        this.period = period * 1000000L;
+        this.interval = this.period / tokens;
+    }
+
+    /**
+     * @return The time in milliseconds an empty bucket takes to refill
+     */
+    public long getPeriod() {
+        return this.period / 1000000L;
+    }
+
+    /**
+     * Takes a token from an ID's bucket if one is available. Lock-free and allocation-free.
+     * @param id The ID to charge
+     * @return Whether a token was taken
+     */
+    public boolean tryAcquire(final long id) {
+        if (id == 0L) {
+            return true;
+        }
+
+        final long now = this.clock.getAsLong() - this.origin;
+        final int slot = this.find(id, now);
+
+        if (slot == -1) {
+            return true;
+        }
+
+        while (true) {
+            final long full = this.entries.get(slot << 1 | 1);
+            final long next = Math.max(full, now) + this.interval;
+
+            if (next - now > this.period) {
+                return false;
+            }
+
+            if (this.entries.compareAndSet(slot << 1 | 1, full, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken by {@link #tryAcquire(long)}, for when a request is turned away by a later check
+     * after it was charged. Lock-free and allocation-free.
+     * @param id The ID that was charged
+     */
+    public void release(final long id) {
+        if (id == 0L) {
+            return;
+        }
+
+        final int slot = this.lookup(id);
+
+        if (slot == -1) {
+            return;
+        }
+
+        while (true) {
+            final long full = this.entries.get(slot << 1 | 1);
+
+            if (this.entries.compareAndSet(slot << 1 | 1, full, full - this.interval)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the slot holding an ID's bucket without claiming one.
+     * @return The slot or {@code -1} if the ID has no bucket
+     */
+    private int lookup(final long id) {
+        int i = RateLimiter.index(id, this.mask);
+
+        for (int probe = 0; probe < RateLimiter.PROBES; probe++, i = i + 1 & this.mask) {
+            final long found = this.entries.get(i << 1);
+
+            if (found == id) {
+                return i;
+            }
+
+            if (found == 0L) {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the slot holding an ID's bucket, claiming an empty or full one if it has none.
+     * @return The slot or {@code -1} if none could be found
+     */
+    private int find(final long id, final long now) {
+        while (true) {
+            int i = RateLimiter.index(id, this.mask);
+            int free = -1;
+            long previous = 0L;
+
+            for (int probe = 0; probe < RateLimiter.PROBES; probe++, i = i + 1 & this.mask) {
+                final long found = this.entries.get(i << 1);
+
+                if (found == id) {
+                    return i;
+                }
+
+                // IDs are never removed, so the ID cannot be further along than an empty slot
+                if (found == 0L) {
+                    if (free == -1) {
+                        free = i;
+                        previous = 0L;
+                    }
+
+                    break;
+                }
+
+                // A bucket that is already full can be taken over as if it were the new ID's
+                if (free == -1 && this.entries.get(i << 1 | 1) <= now) {
+                    free = i;
+                    previous = found;
+                }
+            }
+
+            if (free == -1) {
+                return -1;
+            }
+
+            if (this.entries.compareAndSet(free << 1, previous, id)) {
+                return free;
+            }
+        }
+    }
+
+    private static int index(final long value, final int mask) {
+        final long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ hash >>> 32) & mask;
+    }
+
+}
@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.commands;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.events.Stubs;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.SelfUser;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.requests.restaction.MessageAction;
+
+public class ChannelSeniorCommandTest {
+    private static final long GUILD = 1L;
+
+    static class SeniorCommand extends ChannelSeniorCommand {
+        SeniorCommand(final Hilda hilda) {
+            super(hilda);
+            this.setName("config");
+            this.setDescription("Changes settings.");
+        }
+    }
+
+    static class SubCommand extends ChannelSubCommand {
+        String[] arguments;
+        String label;
+
+        SubCommand(final Hilda hilda, final ChannelSeniorCommand senior, final String name) {
+            super(hilda, senior);
+            this.setName(name);
+            this.setDescription("Changes the " + name + ".");
+        }
+
+        @Override
+        public void execute(final Message message, final String[] arguments, final String label) {
+            this.arguments = arguments;
+            this.label = label;
+        }
+    }
+
+    private Hilda hilda;
+    private SeniorCommand senior;
+    /**
+     * Every message sent to the channel.
+     */
+    private final List<Object> sent = new CopyOnWriteArrayList<>();
+    private final Guild guild = Stubs.guild(ChannelSeniorCommandTest.GUILD);
+    private final TextChannel channel = Stubs.stub(TextChannel.class, "getIdLong", 10L, "getGuild", this.guild, "sendMessage", (Stubs.Answer) arguments -> {
+        this.sent.add(arguments[0]);
+        return Stubs.stub(MessageAction.class);
+    });
+
+    @Before
+    public void setup() {
+        this.hilda = new Hilda(Stubs.stub(JDA.class, "getSelfUser", Stubs.stub(SelfUser.class, "getIdLong", 2L)));
+        this.hilda.startOffline(null, null);
+        this.senior = new SeniorCommand(this.hilda);
+        this.hilda.getCommandManager().registerChannelCommand(this.senior);
+    }
+
+    @After
+    public void teardown() {
+        this.hilda.getCommandManager().shutdown();
+        this.hilda.getEventManager().shutdown();
+        this.hilda.getExecutor().shutdownNow();
+    }
+
+    private static Member member(final boolean admin) {
+        return Stubs.stub(Member.class, "hasPermission", (Stubs.Answer) arguments -> admin);
+    }
+
+    private SubCommand register(final String name, final String... aliases) {
+        return this.register(name, null, false, aliases);
+    }
+
+    private SubCommand register(final String name, final Permission permission, final boolean hide, final String... aliases) {
+        final SubCommand command = new SubCommand(this.hilda, this.senior, name);
+        command.setAliases(Arrays.asList(aliases));
+        command.setMinimumPermission(permission);
+        command.setHide(hide);
+        this.senior.registerSubcommand(command);
+        return command;
+    }
+
+    private void execute(final Member member, final String... arguments) {
+        final Guild guild = Stubs.stub(Guild.class, "getIdLong", ChannelSeniorCommandTest.GUILD, "getMember", member);
+        final Message message = Stubs.stub(Message.class, "getGuild", guild, "getTextChannel", this.channel, "getChannel", this.channel);
+        this.senior.execute(message, arguments, "config");
+    }
+
+    private String lastSent() {
+        final Object last = this.sent.get(this.sent.size() - 1);
+        return last instanceof Message ? ((Message) last).getContentRaw() : last.toString();
+    }
+
+    @Test
+    public void subcommandsAreFoundByNameAndAliasInAnyCase() {
+        final SubCommand prefix = this.register("Prefix", "p");
+
+        this.execute(ChannelSeniorCommandTest.member(false), "PREFIX", "?");
+        assertArrayEquals(new String[] { "?" }, prefix.arguments);
+        assertEquals("PREFIX", prefix.label);
+
+        this.execute(ChannelSeniorCommandTest.member(false), "P");
+        assertArrayEquals(new String[0], prefix.arguments);
+        assertEquals("P", prefix.label);
+        assertTrue(this.sent.isEmpty());
+    }
+
+    @Test
+    public void unknownSubcommandsShowHelp() {
+        final SubCommand prefix = this.register("prefix");
+
+        this.execute(ChannelSeniorCommandTest.member(false), "colour");
+        this.execute(ChannelSeniorCommandTest.member(false));
+
+        assertEquals(2, this.sent.size());
+        assertTrue(this.lastSent().contains("prefix"));
+        assertEquals(null, prefix.label);
+    }
+
+    @Test
+    public void subcommandsNeedTheirPermission() {
+        final SubCommand admin = this.register("admin", Permission.ADMINISTRATOR, false);
+
+        this.execute(ChannelSeniorCommandTest.member(false), "admin");
+        assertEquals(null, admin.label);
+        assertEquals("You don't have permission to use that command", this.lastSent());
+
+        this.execute(ChannelSeniorCommandTest.member(true), "admin");
+        assertEquals("admin", admin.label);
+    }
+
+    @Test
+    public void helpShowsOnlyWhatTheMemberCanUse() {
+        this.register("prefix");
+        this.register("secret", null, true);
+        this.register("admin", Permission.ADMINISTRATOR, false);
+
+        this.senior.help(this.channel, ChannelSeniorCommandTest.member(false));
+        final String everyone = this.lastSent();
+
+        assertTrue(everyone.contains("prefix"));
+        assertFalse(everyone.contains("admin"));
+        assertFalse(everyone.contains("secret"));
+
+        this.senior.help(this.channel, ChannelSeniorCommandTest.member(true));
+        final String admins = this.lastSent();
+
+        assertTrue(admins.contains("prefix"));
+        assertTrue(admins.contains("admin"));
+        assertFalse(admins.contains("secret"));
+    }
+
+    @Test
+    public void helpIsRenderedOncePerPermissions() {
+        this.register("prefix");
+        this.register("admin", Permission.ADMINISTRATOR, false);
+
+        this.senior.help(this.channel, ChannelSeniorCommandTest.member(false));
+        this.senior.help(this.channel, ChannelSeniorCommandTest.member(false));
+        this.senior.help(this.channel, ChannelSeniorCommandTest.member(true));
+
+        assertSame(this.sent.get(0), this.sent.get(1));
+        assertNotSame(this.sent.get(0), this.sent.get(2));
+    }
+
+    @Test
+    public void registeringClearsHelp() {
+        this.register("prefix");
+        this.senior.help(this.channel, ChannelSeniorCommandTest.member(false));
+
+        this.register("colour");
+        this.senior.help(this.channel, ChannelSeniorCommandTest.member(false));
+
+        assertNotSame(this.sent.get(0), this.sent.get(1));
+        assertTrue(this.lastSent().contains("colour"));
+    }
+
+    @Test
+    public void changingThePrefixClearsHelp() {
+        this.register("prefix");
+        this.senior.help(this.channel, ChannelSeniorCommandTest.member(false));
+        assertTrue(this.lastSent().contains(CommandManager.PREFIX + "config"));
+
+        this.hilda.getCommandManager().setPrefix(ChannelSeniorCommandTest.GUILD, "?");
+        this.senior.help(this.channel, ChannelSeniorCommandTest.member(false));
+
+        assertTrue(this.lastSent().contains("?config"));
+    }
+
+}
@@ -0,0 +1,481 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonPrimitive;
+import net.dv8tion.jda.api.Permission;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.configuration.ConfigurationManager;
+import ch.jamiete.hilda.events.Stubs;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.SelfUser;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.requests.restaction.MessageAction;
+
+public class CommandManagerTest {
+    private static final long SELF = 81384788765712384L;
+    private static final long GUILD = 1L, CHANNEL = 10L, OTHER_CHANNEL = 11L, USER = 100L;
+
+    static class CountingCommand extends ChannelCommand {
+        final AtomicInteger executed = new AtomicInteger();
+
+        CountingCommand(final Hilda hilda, final String name) {
+            super(hilda);
+            this.setName(name);
+        }
+
+        @Override
+        public void execute(final Message message, final String[] arguments, final String label) {
+            this.executed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Holds up every invocation until the gate is opened.
+     */
+    static class GatedCommand extends CountingCommand {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        GatedCommand(final Hilda hilda, final String name) {
+            super(hilda, name);
+            this.setAsync(true);
+        }
+
+        @Override
+        public void execute(final Message message, final String[] arguments, final String label) {
+            super.execute(message, arguments, label);
+            this.started.countDown();
+
+            try {
+                this.gate.await(5, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static class FailingCommand extends CountingCommand {
+        FailingCommand(final Hilda hilda, final String name) {
+            super(hilda, name);
+        }
+
+        @Override
+        public void execute(final Message message, final String[] arguments, final String label) {
+            super.execute(message, arguments, label);
+            throw new IllegalStateException("Expected by the test");
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Hilda hilda;
+    private CommandManager manager;
+    /**
+     * Every message sent by the bot, prefixed with the ID of the channel it was sent to.
+     */
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setup() {
+        this.hilda = new Hilda(Stubs.stub(JDA.class, "getSelfUser", Stubs.stub(SelfUser.class, "getIdLong", CommandManagerTest.SELF)));
+    }
+
+    @After
+    public void teardown() {
+        if (this.manager != null) {
+            this.manager.shutdown();
+        }
+
+        this.hilda.getEventManager().shutdown();
+        this.hilda.getExecutor().shutdownNow();
+    }
+
+    /**
+     * Creates the command manager with the given {@code commands} configuration.
+     * @param settings Pairs of setting names and values
+     */
+    private CommandManager start(final Object... settings) {
+        final ConfigurationManager configs = new ConfigurationManager(this.hilda, null);
+
+        for (int i = 0; i < settings.length; i += 2) {
+            configs.getConfiguration("commands").get().addProperty((String) settings[i], (Number) settings[i + 1]);
+        }
+
+        this.manager = new CommandManager(this.hilda, configs);
+        return this.manager;
+    }
+
+    /**
+     * Creates a command manager that keeps its configuration in a directory, as if the bot had been started again.
+     */
+    private CommandManager start(final File directory) {
+        this.manager = new CommandManager(this.hilda, new ConfigurationManager(this.hilda, directory));
+        return this.manager;
+    }
+
+    private CountingCommand register(final String name) {
+        return this.register(new CountingCommand(this.hilda, name));
+    }
+
+    private <T extends CountingCommand> T register(final T command) {
+        this.manager.registerChannelCommand(command);
+        return command;
+    }
+
+    private GuildMessageReceivedEvent message(final long channel, final long user, final String content) {
+        final Member member = Stubs.stub(Member.class);
+        final Guild guild = Stubs.stub(Guild.class, "getIdLong", CommandManagerTest.GUILD, "getName", "Guild", "getMember", member);
+        final TextChannel text = Stubs.stub(TextChannel.class, "getIdLong", channel, "getGuild", guild, "getName", "channel", "canTalk", true, "sendMessage", (Stubs.Answer) arguments -> {
+            this.sent.add(channel + ": " + arguments[0]);
+            return Stubs.stub(MessageAction.class);
+        });
+        final User author = Stubs.stub(User.class, "getIdLong", user, "getName", "User " + user);
+        final Message message = Stubs.stub(Message.class, "getIdLong", channel + 1, "getAuthor", author, "getMember", member, "getContentRaw", content, "getChannel", text, "getTextChannel", text, "getGuild", guild);
+
+        return new GuildMessageReceivedEvent(this.hilda.getBot(), 0, message);
+    }
+
+    private void send(final long channel, final long user, final String content) {
+        this.manager.onGuildMessageReceived(this.message(channel, user, content));
+    }
+
+    @Test
+    public void throttledCommandsSendOneNotice() {
+        this.start("rate_user", 1);
+        final CountingCommand command = this.register("ping");
+
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!ping");
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!ping");
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!ping");
+
+        assertEquals(1, command.executed.get());
+        assertEquals(2, this.manager.getThrottledCommands());
+        assertEquals(1, this.sent.size());
+        assertTrue(this.sent.get(0).startsWith(CommandManagerTest.CHANNEL + ": Slow down!"));
+    }
+
+    @Test
+    public void ignoredChannelsDoNotSpendTokens() {
+        this.start("rate_user", 1);
+        final CountingCommand command = this.register("ping");
+        this.manager.addIgnoredChannel(CommandManagerTest.CHANNEL);
+
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!ping");
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!ping");
+
+        assertEquals(0, command.executed.get());
+        assertEquals(0, this.manager.getThrottledCommands());
+        assertTrue(this.sent.isEmpty());
+
+        // The user still has their token for a channel that is not ignored
+        this.send(CommandManagerTest.OTHER_CHANNEL, CommandManagerTest.USER, "!ping");
+        assertEquals(1, command.executed.get());
+    }
+
+    @Test
+    public void serverLockedCommandsDoNotSpendTokens() {
+        this.start("rate_user", 1);
+        final CountingCommand locked = this.register("locked");
+        final CountingCommand ping = this.register("ping");
+        locked.setServerLock(CommandManagerTest.GUILD + 1);
+
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!locked");
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!ping");
+
+        assertEquals(0, locked.executed.get());
+        assertEquals(1, ping.executed.get());
+        assertTrue(this.sent.isEmpty());
+    }
+
+    @Test
+    public void ignoredChannelsAreNotSentNotices() {
+        this.start("rate_user", 1);
+        final CountingCommand command = this.register("ping");
+        command.setTranscend(CommandTranscendLevel.ALL);
+        this.manager.addIgnoredChannel(CommandManagerTest.CHANNEL);
+
+        // The command transcends the ignore, so it runs and is throttled, but the channel is not told
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!ping");
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!ping");
+
+        assertEquals(1, command.executed.get());
+        assertEquals(1, this.manager.getThrottledCommands());
+        assertTrue(this.sent.isEmpty());
+    }
+
+    @Test
+    public void fullQueueTurnsCommandsAwayAsBusy() throws InterruptedException {
+        this.start("threads", 1, "queue", 1, "rate_user", 100, "rate_channel", 100, "rate_guild", 100);
+        final GatedCommand command = this.register(new GatedCommand(this.hilda, "slow"));
+
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!slow");
+        assertTrue(command.started.await(5, TimeUnit.SECONDS));
+
+        // One invocation runs, one waits in the queue and the third has nowhere to go
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!slow");
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!slow");
+
+        assertEquals(1, this.manager.getRejectedCommands());
+        assertEquals(1, this.manager.getQueuedCommands());
+        assertEquals(2, command.getRunning());
+        assertEquals(1, this.sent.size());
+        assertTrue(this.sent.get(0).startsWith(CommandManagerTest.CHANNEL + ": I'm busy right now."));
+
+        command.gate.countDown();
+        this.manager.shutdown();
+
+        assertEquals(2, command.executed.get());
+        assertEquals(0, command.getRunning());
+    }
+
+    @Test
+    public void concurrencyLimitTurnsCommandsAwayAsBusy() throws InterruptedException {
+        this.start("rate_user", 100, "rate_channel", 100, "rate_guild", 100);
+        final GatedCommand command = this.register(new GatedCommand(this.hilda, "slow"));
+        command.setConcurrency(1);
+
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!slow");
+        assertTrue(command.started.await(5, TimeUnit.SECONDS));
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!slow");
+
+        assertEquals(1, this.manager.getRejectedCommands());
+        assertEquals(1, command.getRunning());
+        assertTrue(this.sent.get(0).startsWith(CommandManagerTest.CHANNEL + ": I'm busy right now."));
+
+        command.gate.countDown();
+        this.manager.shutdown();
+
+        assertEquals(1, command.executed.get());
+        assertEquals(0, command.getRunning());
+    }
+
+    @Test
+    public void failingCommandsReleaseTheirSlot() {
+        this.start("rate_user", 100, "rate_channel", 100, "rate_guild", 100);
+        final FailingCommand command = this.register(new FailingCommand(this.hilda, "fail"));
+        command.setConcurrency(1);
+
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!fail");
+
+        assertEquals(0, command.getRunning());
+
+        // The slot was given back, so the next invocation is not turned away
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!fail");
+
+        assertEquals(2, command.executed.get());
+        assertEquals(0, this.manager.getRejectedCommands());
+        assertEquals(2, command.getStatistics().getErrors());
+        assertTrue(this.sent.get(0).startsWith(CommandManagerTest.CHANNEL + ": Something went wrong"));
+    }
+
+    @Test
+    public void failingAsyncCommandsReleaseTheirSlot() {
+        this.start("rate_user", 100, "rate_channel", 100, "rate_guild", 100);
+        final FailingCommand command = this.register(new FailingCommand(this.hilda, "fail"));
+        command.setAsync(true);
+
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!fail");
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!fail");
+
+        // Shutting down waits for the executor to finish
+        this.manager.shutdown();
+
+        assertEquals(2, command.executed.get());
+        assertEquals(0, command.getRunning());
+        assertEquals(2, command.getStatistics().getErrors());
+    }
+
+    @Test
+    public void commandsAreFoundByAnyCase() {
+        this.start();
+        final CountingCommand command = new CountingCommand(this.hilda, "Ping");
+        command.setAliases(Arrays.asList("P", "pong"));
+        this.register(command);
+
+        assertSame(command, this.manager.getChannelCommand("PING"));
+        assertSame(command, this.manager.getChannelCommand("p"));
+        assertSame(command, this.manager.getChannelCommand("Pong"));
+        assertNull(this.manager.getChannelCommand("pin"));
+        assertTrue(this.manager.isChannelCommandAlias("P"));
+        assertFalse(this.manager.isChannelCommandAlias("ping"));
+
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!PONG");
+        assertEquals(1, command.executed.get());
+    }
+
+    @Test
+    public void aliasesAreFirstComeFirstServed() {
+        this.start();
+        final CountingCommand first = new CountingCommand(this.hilda, "first");
+        first.setAliases(Arrays.asList("shared"));
+        this.register(first);
+
+        final CountingCommand second = new CountingCommand(this.hilda, "second");
+        second.setAliases(Arrays.asList("Shared", "own"));
+        this.register(second);
+
+        assertSame(first, this.manager.getChannelCommand("shared"));
+        assertSame(second, this.manager.getChannelCommand("own"));
+        assertFalse(second.hasAlias("shared"));
+    }
+
+    @Test
+    public void namesTakeOverAliases() {
+        this.start();
+        final CountingCommand first = new CountingCommand(this.hilda, "first");
+        first.setAliases(Arrays.asList("taken"));
+        this.register(first);
+
+        final CountingCommand taken = this.register("taken");
+
+        assertSame(taken, this.manager.getChannelCommand("taken"));
+        assertFalse(first.hasAlias("taken"));
+        assertSame(first, this.manager.getChannelCommand("first"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void namesCannotBeRegisteredTwice() {
+        this.start();
+        this.register("ping");
+        this.register("PING");
+    }
+
+    @Test
+    public void ignoreListsAreSavedAndLoaded() {
+        final File directory = this.folder.getRoot();
+        this.start(directory);
+
+        this.manager.addIgnoredChannel(CommandManagerTest.CHANNEL);
+        this.manager.addIgnoredChannel(CommandManagerTest.OTHER_CHANNEL);
+        this.manager.addIgnoredUser(CommandManagerTest.USER);
+        this.manager.removeIgnoredChannel(CommandManagerTest.OTHER_CHANNEL);
+
+        // Shutting down writes changes that are still waiting to be saved
+        this.manager.shutdown();
+        assertTrue(new File(directory, "commands.json").isFile());
+
+        this.start(directory);
+
+        assertTrue(this.manager.isChannelIgnored(CommandManagerTest.CHANNEL));
+        assertFalse(this.manager.isChannelIgnored(CommandManagerTest.OTHER_CHANNEL));
+        assertTrue(this.manager.isUserIgnored(CommandManagerTest.USER));
+        assertEquals(Collections.singletonList(Long.toString(CommandManagerTest.CHANNEL)), this.manager.getIgnoredChannels());
+        assertEquals(Collections.singletonList(Long.toString(CommandManagerTest.USER)), this.manager.getIgnoredUsers());
+    }
+
+    @Test
+    public void changesAfterShutdownAreSavedImmediately() {
+        final File directory = this.folder.getRoot();
+        this.start(directory).shutdown();
+
+        this.manager.addIgnoredUser(CommandManagerTest.USER);
+
+        assertTrue(this.start(directory).isUserIgnored(CommandManagerTest.USER));
+    }
+
+    @Test
+    public void invalidIgnoredIdsAreSkipped() {
+        final ConfigurationManager configs = new ConfigurationManager(this.hilda, null);
+        final JsonArray channels = new JsonArray();
+        channels.add(new JsonPrimitive(Long.toString(CommandManagerTest.CHANNEL)));
+        channels.add(new JsonPrimitive("general"));
+        channels.add(new JsonPrimitive(0L));
+        channels.add(new JsonPrimitive(CommandManagerTest.OTHER_CHANNEL));
+        configs.getConfiguration("commands").get().add("ignored_channels", channels);
+
+        this.manager = new CommandManager(this.hilda, configs);
+
+        assertTrue(this.manager.isChannelIgnored(CommandManagerTest.CHANNEL));
+        assertTrue(this.manager.isChannelIgnored(CommandManagerTest.OTHER_CHANNEL));
+        assertEquals(2, this.manager.getIgnoredChannels().size());
+        assertTrue(this.manager.getIgnoredUsers().isEmpty());
+    }
+
+    @Test
+    public void statisticsCountEachOutcome() {
+        this.start("rate_user", 100, "rate_channel", 100, "rate_guild", 100);
+        final CountingCommand ping = this.register("ping");
+        ping.setTimeout(60);
+        final FailingCommand fail = this.register(new FailingCommand(this.hilda, "fail"));
+        final CountingCommand admin = this.register("admin");
+        admin.setMinimumPermission(Permission.ADMINISTRATOR);
+
+        // The second ping is within the command's own timeout
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!ping");
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!ping");
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!fail");
+        this.send(CommandManagerTest.CHANNEL, CommandManagerTest.USER, "!admin");
+
+        final CommandStatistics pings = ping.getStatistics();
+        assertEquals("ping", pings.getName());
+        assertEquals(2, pings.getInvocations());
+        assertEquals(1, pings.getSuccesses());
+        assertEquals(1, pings.getThrottles());
+        assertEquals(0, pings.getErrors());
+        assertEquals(1, pings.getLatency().getCount());
+
+        final CommandStatistics failures = fail.getStatistics();
+        assertEquals(1, failures.getInvocations());
+        assertEquals(0, failures.getSuccesses());
+        assertEquals(1, failures.getErrors());
+        assertEquals(1, failures.getLatency().getCount());
+
+        final CommandStatistics denials = admin.getStatistics();
+        assertEquals(1, denials.getInvocations());
+        assertEquals(1, denials.getDenials());
+        assertEquals(0, denials.getLatency().getCount());
+        assertEquals(0, admin.executed.get());
+    }
+
+    @Test
+    public void busiestCommandsAreLimitedToTheCount() {
+        this.start();
+        this.register("one");
+        this.register("two");
+        this.register("three");
+
+        assertEquals(3, this.manager.getBusiestCommands(10).size());
+        assertEquals(2, this.manager.getBusiestCommands(2).size());
+        assertTrue(this.manager.getBusiestCommands(0).isEmpty());
+    }
+
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.commands;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class CommandTokenizerTest {
+
+    @Test
+    public void end() {
+        assertEquals(4, CommandTokenizer.end("ping pong", 0));
+        assertEquals(4, CommandTokenizer.end("ping pong", 4));
+        assertEquals(9, CommandTokenizer.end("ping pong", 5));
+        assertEquals(0, CommandTokenizer.end("", 0));
+    }
+
+    @Test
+    public void skip() {
+        assertEquals(7, CommandTokenizer.skip("ping \t\npong", 4));
+        assertEquals(0, CommandTokenizer.skip("ping", 0));
+        assertEquals(7, CommandTokenizer.skip("ping   ", 4));
+        assertEquals(0, CommandTokenizer.skip("", 0));
+    }
+
+    @Test
+    public void tokenizeSplitsOnAnyWhitespace() {
+        assertArrayEquals(new String[] { "ban", "@someone", "for", "spam" }, CommandTokenizer.tokenize("ban @someone\tfor\nspam", 0));
+    }
+
+    @Test
+    public void tokenizeNeverProducesEmptyTokens() {
+        assertArrayEquals(new String[] { "a", "b" }, CommandTokenizer.tokenize("   a    b   ", 0));
+        assertArrayEquals(new String[0], CommandTokenizer.tokenize("    ", 0));
+        assertArrayEquals(new String[0], CommandTokenizer.tokenize("", 0));
+    }
+
+    @Test
+    public void tokenizeStartsAtTheIndex() {
+        assertArrayEquals(new String[] { "help", "me" }, CommandTokenizer.tokenize("!help me", 1));
+        assertArrayEquals(new String[] { "me" }, CommandTokenizer.tokenize("!help me", 5));
+        assertArrayEquals(new String[0], CommandTokenizer.tokenize("!help", 5));
+    }
+
+}
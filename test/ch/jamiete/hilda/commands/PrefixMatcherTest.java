@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.commands;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class PrefixMatcherTest {
+    private static final long SELF = 81384788765712384L;
+
+    private final PrefixMatcher matcher = new PrefixMatcher("!", PrefixMatcherTest.SELF);
+
+    @Test
+    public void textPrefix() {
+        assertEquals("!", this.matcher.getPrefix());
+        assertEquals(1, this.matcher.match("!ping"));
+        assertEquals(1, this.matcher.match("! ping"));
+        assertEquals(-1, this.matcher.match("ping"));
+        assertEquals(-1, this.matcher.match(""));
+    }
+
+    @Test
+    public void longerPrefix() {
+        final PrefixMatcher matcher = new PrefixMatcher("hilda,", PrefixMatcherTest.SELF);
+
+        assertEquals(6, matcher.match("hilda,ping"));
+        assertEquals(-1, matcher.match("hilda ping"));
+        assertEquals(-1, matcher.match("hild"));
+    }
+
+    @Test
+    public void mentionsSkipWhitespace() {
+        final String mention = "<@" + PrefixMatcherTest.SELF + ">";
+        final String nickname = "<@!" + PrefixMatcherTest.SELF + ">";
+
+        assertEquals(mention.length(), this.matcher.match(mention + "ping"));
+        assertEquals(mention.length() + 2, this.matcher.match(mention + "  ping"));
+        assertEquals(nickname.length() + 1, this.matcher.match(nickname + " ping"));
+        assertEquals(mention.length(), this.matcher.match(mention));
+    }
+
+    @Test
+    public void otherMentionsDoNotMatch() {
+        assertEquals(-1, this.matcher.match("<@" + (PrefixMatcherTest.SELF + 1) + "> ping"));
+        assertEquals(-1, this.matcher.match("<#" + PrefixMatcherTest.SELF + "> ping"));
+        assertEquals(-1, this.matcher.match("<@" + PrefixMatcherTest.SELF));
+    }
+
+}
@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.events.Stubs.TestGuildEvent;
+import ch.jamiete.hilda.events.Stubs.TestSubGuildEvent;
+import net.dv8tion.jda.api.events.Event;
+
+public class AnnotatedEventManagerTest {
+
+    public static class GuildListener {
+        final List<TestGuildEvent> events = new ArrayList<>();
+
+        @EventHandler
+        public void onGuild(final TestGuildEvent event) {
+            this.events.add(event);
+        }
+    }
+
+    public static class SubListener {
+        final List<TestSubGuildEvent> events = new ArrayList<>();
+
+        @EventHandler
+        public void onSub(final TestSubGuildEvent event) {
+            this.events.add(event);
+        }
+    }
+
+    public static class EventListener {
+        final List<Event> events = new ArrayList<>();
+
+        @EventHandler
+        public void onEvent(final Event event) {
+            this.events.add(event);
+        }
+    }
+
+    private Hilda hilda;
+    private AnnotatedEventManager manager;
+
+    @Before
+    public void setup() {
+        this.hilda = new Hilda(Stubs.JDA);
+        this.manager = this.hilda.getEventManager();
+    }
+
+    @After
+    public void teardown() {
+        this.manager.shutdown();
+        this.hilda.getExecutor().shutdownNow();
+    }
+
+    @Test
+    public void eventsReachHandlersForTheirSuperclasses() {
+        final GuildListener guild = new GuildListener();
+        final SubListener sub = new SubListener();
+        final EventListener generic = new EventListener();
+        this.manager.register(guild);
+        this.manager.register(sub);
+        this.manager.register(generic);
+
+        this.manager.handle(new TestSubGuildEvent(1L));
+        this.manager.handle(new TestGuildEvent(1L));
+
+        assertEquals(2, guild.events.size());
+        assertEquals(1, sub.events.size());
+        assertEquals(2, generic.events.size());
+    }
+
+    @Test
+    public void listenersRegisteredAfterDispatchAreCalled() {
+        final GuildListener first = new GuildListener();
+        this.manager.register(first);
+
+        // Dispatching builds the table for the class, which registering must not leave stale
+        this.manager.handle(new TestGuildEvent(1L));
+
+        final GuildListener second = new GuildListener();
+        this.manager.register(second);
+        this.manager.handle(new TestGuildEvent(1L));
+
+        assertEquals(2, first.events.size());
+        assertEquals(1, second.events.size());
+    }
+
+    @Test
+    public void unregisteredListenersAreNotCalled() {
+        final GuildListener first = new GuildListener();
+        final GuildListener second = new GuildListener();
+        this.manager.register(first);
+        this.manager.register(second);
+
+        this.manager.handle(new TestGuildEvent(1L));
+        this.manager.unregister(first);
+        this.manager.handle(new TestGuildEvent(1L));
+
+        assertEquals(1, first.events.size());
+        assertEquals(2, second.events.size());
+    }
+
+    @Test
+    public void eventsFromOtherServersAreNotDispatched() {
+        final GuildListener listener = new GuildListener();
+        this.manager.register(listener);
+        this.hilda.addAllowedServer(1L);
+
+        this.manager.handle(new TestGuildEvent(1L));
+        this.manager.handle(new TestGuildEvent(2L));
+
+        assertEquals(1, listener.events.size());
+        assertEquals(1L, listener.events.get(0).getGuild().getIdLong());
+    }
+
+}
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.events.Stubs.TestGuildEvent;
+
+public class BatcherTest {
+
+    public static class SizeListener {
+        final BlockingQueue<List<TestGuildEvent>> batches = new LinkedBlockingQueue<>();
+
+        @EventHandler(batchSize = 3, batchWindow = 3600000)
+        public void onEvents(final List<TestGuildEvent> events) {
+            this.batches.add(events);
+        }
+    }
+
+    public static class WindowListener {
+        final BlockingQueue<List<TestGuildEvent>> batches = new LinkedBlockingQueue<>();
+
+        @EventHandler(batchSize = 2, batchWindow = 2000)
+        public void onEvents(final List<TestGuildEvent> events) {
+            this.batches.add(events);
+        }
+    }
+
+    /**
+     * Holds up the first batch it receives until the gate is opened, and records how many batches it handles at once.
+     */
+    public static class GatedListener {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final BlockingQueue<List<TestGuildEvent>> batches = new LinkedBlockingQueue<>();
+        final AtomicInteger running = new AtomicInteger();
+        volatile int overlapped = 0;
+
+        @EventHandler(batchSize = 2, batchWindow = 50)
+        public void onEvents(final List<TestGuildEvent> events) throws InterruptedException {
+            if (this.running.incrementAndGet() > 1) {
+                this.overlapped++;
+            }
+
+            this.entered.countDown();
+            this.gate.await(5, TimeUnit.SECONDS);
+            this.batches.add(events);
+            this.running.decrementAndGet();
+        }
+    }
+
+    private Hilda hilda;
+    private AnnotatedEventManager manager;
+
+    @Before
+    public void setup() {
+        this.hilda = new Hilda(Stubs.JDA);
+        this.manager = this.hilda.getEventManager();
+    }
+
+    @After
+    public void teardown() {
+        this.manager.shutdown();
+        this.hilda.getExecutor().shutdownNow();
+    }
+
+    private TestGuildEvent[] handle(final int count) {
+        final TestGuildEvent[] events = new TestGuildEvent[count];
+
+        for (int i = 0; i < count; i++) {
+            events[i] = new TestGuildEvent(1L);
+            this.manager.handle(events[i]);
+        }
+
+        return events;
+    }
+
+    @Test
+    public void fullBatchIsDeliveredImmediately() {
+        final SizeListener listener = new SizeListener();
+        this.manager.register(listener);
+
+        final TestGuildEvent[] events = this.handle(4);
+
+        assertEquals(1, listener.batches.size());
+        assertEquals(Arrays.asList(events[0], events[1], events[2]), listener.batches.poll());
+    }
+
+    @Test
+    public void partialBatchIsDeliveredWhenTheWindowCloses() throws InterruptedException {
+        final WindowListener listener = new WindowListener();
+        this.manager.register(listener);
+
+        final TestGuildEvent[] events = this.handle(1);
+
+        assertTrue(listener.batches.isEmpty());
+        assertEquals(Arrays.asList(events[0]), listener.batches.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void windowOfADeliveredBatchDoesNotCutTheNextShort() throws InterruptedException {
+        final WindowListener listener = new WindowListener();
+        this.manager.register(listener);
+
+        this.handle(2);
+        assertEquals(2, listener.batches.take().size());
+
+        Thread.sleep(1000);
+        final TestGuildEvent[] events = this.handle(1);
+
+        // The first batch's window has closed by now, while the second batch's has most of a second to go
+        Thread.sleep(1200);
+        assertTrue(listener.batches.isEmpty());
+
+        assertEquals(Arrays.asList(events[0]), listener.batches.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fullBatchWaitsForABatchClosedByTheTimer() throws InterruptedException {
+        final GatedListener listener = new GatedListener();
+        this.manager.register(listener);
+
+        // The timer closes the first batch and is held up delivering it
+        final TestGuildEvent[] first = this.handle(1);
+        assertTrue(listener.entered.await(5, TimeUnit.SECONDS));
+
+        // The second batch fills up meanwhile, and is left for the timer's thread rather than delivered alongside
+        final TestGuildEvent[] second = this.handle(2);
+        assertEquals(1, listener.running.get());
+
+        listener.gate.countDown();
+
+        assertEquals(Arrays.asList(first), listener.batches.poll(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(second), listener.batches.poll(5, TimeUnit.SECONDS));
+        assertEquals(0, listener.overlapped);
+    }
+
+    @Test
+    public void unregisteringDeliversTheCurrentBatch() {
+        final SizeListener listener = new SizeListener();
+        this.manager.register(listener);
+
+        final TestGuildEvent[] events = this.handle(2);
+        this.manager.unregister(listener);
+
+        assertEquals(Arrays.asList(events[0], events[1]), listener.batches.poll());
+    }
+
+}
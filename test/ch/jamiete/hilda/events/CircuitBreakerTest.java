@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+    private static final long HOUR = 3600000;
+
+    /**
+     * Opens after three failures if at least half of the invocations failed, and never lets a probe through.
+     */
+    private static final CircuitBreaker.Settings STRICT = new CircuitBreaker.Settings(3, 0.5, CircuitBreakerTest.HOUR, CircuitBreakerTest.HOUR);
+
+    /**
+     * Opens on the first failure and lets a probe through immediately.
+     */
+    private static final CircuitBreaker.Settings PROBE = new CircuitBreaker.Settings(1, 0, CircuitBreakerTest.HOUR, 0);
+
+    @Test
+    public void closedBreakerAllowsEverything() {
+        final CircuitBreaker breaker = new CircuitBreaker();
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(breaker.allow(CircuitBreakerTest.STRICT));
+        }
+
+        assertFalse(breaker.isOpen());
+        assertEquals(0, breaker.getSuppressed());
+    }
+
+    @Test
+    public void tripsAfterEnoughFailures() {
+        final CircuitBreaker breaker = new CircuitBreaker();
+
+        assertEquals(CircuitBreaker.Outcome.CLOSED, breaker.failure(CircuitBreakerTest.STRICT));
+        assertEquals(CircuitBreaker.Outcome.CLOSED, breaker.failure(CircuitBreakerTest.STRICT));
+        assertEquals(CircuitBreaker.Outcome.TRIPPED, breaker.failure(CircuitBreakerTest.STRICT));
+        assertTrue(breaker.isOpen());
+
+        assertFalse(breaker.allow(CircuitBreakerTest.STRICT));
+        assertFalse(breaker.allow(CircuitBreakerTest.STRICT));
+        assertEquals(2, breaker.getSuppressed());
+    }
+
+    @Test
+    public void successesKeepTheRatioDown() {
+        final CircuitBreaker breaker = new CircuitBreaker();
+
+        for (int i = 0; i < 10; i++) {
+            breaker.success();
+        }
+
+        // Five failures out of fifteen invocations is below half
+        for (int i = 0; i < 5; i++) {
+            assertEquals(CircuitBreaker.Outcome.CLOSED, breaker.failure(CircuitBreakerTest.STRICT));
+        }
+
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void failuresOutsideTheWindowAreForgotten() throws InterruptedException {
+        final CircuitBreaker.Settings settings = new CircuitBreaker.Settings(2, 0, 50, CircuitBreakerTest.HOUR);
+        final CircuitBreaker breaker = new CircuitBreaker();
+
+        assertEquals(CircuitBreaker.Outcome.CLOSED, breaker.failure(settings));
+        Thread.sleep(100);
+        assertEquals(CircuitBreaker.Outcome.CLOSED, breaker.failure(settings));
+        assertEquals(CircuitBreaker.Outcome.TRIPPED, breaker.failure(settings));
+    }
+
+    @Test
+    public void zeroFailuresNeverTrips() {
+        final CircuitBreaker.Settings settings = new CircuitBreaker.Settings(0, 0, CircuitBreakerTest.HOUR, CircuitBreakerTest.HOUR);
+        final CircuitBreaker breaker = new CircuitBreaker();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(CircuitBreaker.Outcome.CLOSED, breaker.failure(settings));
+        }
+
+        assertFalse(breaker.isOpen());
+    }
+
+    @Test
+    public void successfulProbeCloses() {
+        final CircuitBreaker breaker = new CircuitBreaker();
+        assertEquals(CircuitBreaker.Outcome.TRIPPED, breaker.failure(CircuitBreakerTest.PROBE));
+
+        // Only a single probe is let through at a time
+        assertTrue(breaker.allow(CircuitBreakerTest.PROBE));
+        assertFalse(breaker.allow(CircuitBreakerTest.PROBE));
+
+        assertTrue(breaker.success());
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allow(CircuitBreakerTest.PROBE));
+        assertFalse(breaker.success());
+    }
+
+    @Test
+    public void failedProbeReopens() {
+        final CircuitBreaker breaker = new CircuitBreaker();
+        assertEquals(CircuitBreaker.Outcome.TRIPPED, breaker.failure(CircuitBreakerTest.PROBE));
+
+        assertTrue(breaker.allow(CircuitBreakerTest.PROBE));
+        assertEquals(CircuitBreaker.Outcome.REOPENED, breaker.failure(CircuitBreakerTest.PROBE));
+        assertTrue(breaker.isOpen());
+
+        // The cool-down starts again from the failed probe
+        assertFalse(breaker.allow(CircuitBreakerTest.STRICT));
+    }
+
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.events.Stubs.TestGuildEvent;
+
+public class CoalescerTest {
+    private static final long WINDOW = 100;
+
+    public static class CoalescingListener {
+        final List<TestGuildEvent> events = new CopyOnWriteArrayList<>();
+        final List<Integer> replaced = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch;
+
+        CoalescingListener(final int expected) {
+            this.latch = new CountDownLatch(expected);
+        }
+
+        @EventHandler(coalesce = CoalesceKey.GUILD, coalesceWindow = CoalescerTest.WINDOW)
+        public void onEvent(final TestGuildEvent event, final int replaced) {
+            this.events.add(event);
+            this.replaced.add(replaced);
+            this.latch.countDown();
+        }
+    }
+
+    private Hilda hilda;
+    private AnnotatedEventManager manager;
+
+    @Before
+    public void setup() {
+        this.hilda = new Hilda(Stubs.JDA);
+        this.manager = this.hilda.getEventManager();
+    }
+
+    @After
+    public void teardown() {
+        this.manager.shutdown();
+        this.hilda.getExecutor().shutdownNow();
+    }
+
+    @Test
+    public void burstIsDeliveredOnceWithTheLatestEvent() throws InterruptedException {
+        final CoalescingListener listener = new CoalescingListener(1);
+        this.manager.register(listener);
+
+        final TestGuildEvent last = new TestGuildEvent(1L);
+        this.manager.handle(new TestGuildEvent(1L));
+        this.manager.handle(new TestGuildEvent(1L));
+        this.manager.handle(last);
+
+        assertTrue(listener.events.isEmpty());
+        assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+
+        Thread.sleep(CoalescerTest.WINDOW * 2);
+
+        assertEquals(1, listener.events.size());
+        assertSame(last, listener.events.get(0));
+        assertEquals(Integer.valueOf(2), listener.replaced.get(0));
+    }
+
+    @Test
+    public void keysAreCoalescedSeparately() throws InterruptedException {
+        final CoalescingListener listener = new CoalescingListener(2);
+        this.manager.register(listener);
+
+        this.manager.handle(new TestGuildEvent(1L));
+        this.manager.handle(new TestGuildEvent(2L));
+
+        assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, listener.events.size());
+        assertEquals(Integer.valueOf(0), listener.replaced.get(0));
+        assertEquals(Integer.valueOf(0), listener.replaced.get(1));
+    }
+
+    @Test
+    public void eventsAfterTheWindowOpenANewOne() throws InterruptedException {
+        final CoalescingListener listener = new CoalescingListener(2);
+        this.manager.register(listener);
+
+        this.manager.handle(new TestGuildEvent(1L));
+        Thread.sleep(CoalescerTest.WINDOW * 3);
+        this.manager.handle(new TestGuildEvent(1L));
+
+        assertTrue(listener.latch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, listener.events.size());
+        assertEquals(Integer.valueOf(0), listener.replaced.get(1));
+    }
+
+    @Test
+    public void unregisteringDiscardsHeldEvents() throws InterruptedException {
+        final CoalescingListener listener = new CoalescingListener(1);
+        this.manager.register(listener);
+
+        this.manager.handle(new TestGuildEvent(1L));
+        this.manager.unregister(listener);
+
+        Thread.sleep(CoalescerTest.WINDOW * 3);
+
+        assertTrue(listener.events.isEmpty());
+    }
+
+}
@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import static org.junit.Assert.assertEquals;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.events.Stubs.TestGuildEvent;
+import ch.jamiete.hilda.events.Stubs.TestSubGuildEvent;
+
+public class DispatchLaneTest {
+
+    public static class OrderListener {
+        final List<TestGuildEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+        @EventHandler
+        public void onEvent(final TestGuildEvent event) {
+            this.events.add(event);
+        }
+    }
+
+    private Hilda hilda;
+    private AnnotatedEventManager manager;
+    private OrderListener listener;
+
+    @Before
+    public void setup() {
+        this.hilda = new Hilda(Stubs.JDA);
+        this.manager = this.hilda.getEventManager();
+        this.listener = new OrderListener();
+        this.manager.register(this.listener);
+    }
+
+    @After
+    public void teardown() {
+        this.manager.shutdown();
+        this.hilda.getExecutor().shutdownNow();
+    }
+
+    private DispatchLane lane(final int capacity, final OverflowPolicy policy) {
+        return new DispatchLane(this.manager, "test", capacity, policy);
+    }
+
+    /**
+     * Queues an event on a lane that has not been started, so that the order it is served in does not depend on timing.
+     */
+    private TestGuildEvent submit(final DispatchLane lane, final TestGuildEvent event, final EventPriority priority) throws InterruptedException {
+        lane.submit(event, event.getGuild().getIdLong(), priority);
+        return event;
+    }
+
+    private List<TestGuildEvent> drain(final DispatchLane lane) throws InterruptedException {
+        lane.start(new Thread(lane));
+        lane.stop(10000);
+        return this.listener.events;
+    }
+
+    @Test
+    public void guildEventsKeepTheirOrderAcrossPriorities() throws InterruptedException {
+        final DispatchLane lane = this.lane(100, OverflowPolicy.BLOCK);
+
+        final TestGuildEvent a = this.submit(lane, new TestGuildEvent(1L), EventPriority.LOW);
+        final TestGuildEvent b = this.submit(lane, new TestGuildEvent(1L), EventPriority.HIGH);
+        final TestGuildEvent c = this.submit(lane, new TestGuildEvent(1L), EventPriority.LOW);
+        final TestGuildEvent d = this.submit(lane, new TestGuildEvent(1L), EventPriority.NORMAL);
+        final TestGuildEvent e = this.submit(lane, new TestGuildEvent(1L), EventPriority.HIGH);
+
+        assertEquals(Arrays.asList(a, b, c, d, e), this.drain(lane));
+    }
+
+    @Test
+    public void higherPriorityGuildsAreServedFirst() throws InterruptedException {
+        final DispatchLane lane = this.lane(100, OverflowPolicy.BLOCK);
+
+        final TestGuildEvent low = this.submit(lane, new TestGuildEvent(1L), EventPriority.LOW);
+        final TestGuildEvent normal = this.submit(lane, new TestGuildEvent(2L), EventPriority.NORMAL);
+        final TestGuildEvent high = this.submit(lane, new TestGuildEvent(3L), EventPriority.HIGH);
+
+        assertEquals(Arrays.asList(high, normal, low), this.drain(lane));
+    }
+
+    @Test
+    public void guildsAreServedAtTheirHighestWaitingPriority() throws InterruptedException {
+        final DispatchLane lane = this.lane(100, OverflowPolicy.BLOCK);
+
+        final TestGuildEvent normal = this.submit(lane, new TestGuildEvent(2L), EventPriority.NORMAL);
+        final TestGuildEvent low = this.submit(lane, new TestGuildEvent(1L), EventPriority.LOW);
+        final TestGuildEvent high = this.submit(lane, new TestGuildEvent(1L), EventPriority.HIGH);
+
+        // The message is stuck behind the presence update of its guild, so the update is served at high priority
+        assertEquals(Arrays.asList(low, high, normal), this.drain(lane));
+    }
+
+    @Test
+    public void guildsTakeTurns() throws InterruptedException {
+        final DispatchLane lane = this.lane(100, OverflowPolicy.BLOCK);
+
+        final TestGuildEvent a1 = this.submit(lane, new TestGuildEvent(1L), EventPriority.NORMAL);
+        final TestGuildEvent a2 = this.submit(lane, new TestGuildEvent(1L), EventPriority.NORMAL);
+        final TestGuildEvent a3 = this.submit(lane, new TestGuildEvent(1L), EventPriority.NORMAL);
+        final TestGuildEvent b1 = this.submit(lane, new TestGuildEvent(2L), EventPriority.NORMAL);
+        final TestGuildEvent b2 = this.submit(lane, new TestGuildEvent(2L), EventPriority.NORMAL);
+
+        assertEquals(Arrays.asList(a1, b1, a2, b2, a3), this.drain(lane));
+    }
+
+    @Test
+    public void lowerPrioritiesAreNotStarved() throws InterruptedException {
+        final DispatchLane lane = this.lane(100, OverflowPolicy.BLOCK);
+
+        for (int i = 0; i < 20; i++) {
+            this.submit(lane, new TestGuildEvent(1L), EventPriority.HIGH);
+        }
+
+        final TestGuildEvent low = this.submit(lane, new TestGuildEvent(2L), EventPriority.LOW);
+
+        assertEquals(DispatchLane.STARVATION_LIMIT, this.drain(lane).indexOf(low));
+    }
+
+    @Test
+    public void dropOldestOnlyDropsFromTheSameGuild() throws InterruptedException {
+        final DispatchLane lane = this.lane(2, OverflowPolicy.DROP_OLDEST);
+
+        final TestGuildEvent a = this.submit(lane, new TestGuildEvent(1L), EventPriority.NORMAL);
+        this.submit(lane, new TestGuildEvent(2L), EventPriority.NORMAL);
+        final TestGuildEvent b2 = this.submit(lane, new TestGuildEvent(2L), EventPriority.NORMAL);
+        this.submit(lane, new TestGuildEvent(3L), EventPriority.NORMAL);
+
+        assertEquals(2, lane.getDropped());
+        assertEquals(Arrays.asList(a, b2), this.drain(lane));
+    }
+
+    @Test
+    public void coalesceReplacesWithinTheSameGuild() throws InterruptedException {
+        final DispatchLane lane = this.lane(3, OverflowPolicy.COALESCE);
+
+        this.submit(lane, new TestGuildEvent(1L), EventPriority.LOW);
+        final TestGuildEvent sub = this.submit(lane, new TestSubGuildEvent(1L), EventPriority.HIGH);
+        final TestGuildEvent other = this.submit(lane, new TestGuildEvent(2L), EventPriority.NORMAL);
+        final TestGuildEvent replacement = this.submit(lane, new TestGuildEvent(1L), EventPriority.LOW);
+
+        assertEquals(1, lane.getDropped());
+        assertEquals(2, lane.getQueueDepth(EventPriority.LOW) + lane.getQueueDepth(EventPriority.HIGH));
+        assertEquals(Arrays.asList(sub, other, replacement), this.drain(lane));
+    }
+
+    @Test
+    public void queueDepthsAreCountedByPriority() throws InterruptedException {
+        final DispatchLane lane = this.lane(100, OverflowPolicy.BLOCK);
+
+        this.submit(lane, new TestGuildEvent(1L), EventPriority.LOW);
+        this.submit(lane, new TestGuildEvent(1L), EventPriority.HIGH);
+        this.submit(lane, new TestGuildEvent(2L), EventPriority.HIGH);
+
+        assertEquals(3, lane.getQueueDepth());
+        assertEquals(2, lane.getQueueDepth(EventPriority.HIGH));
+        assertEquals(1, lane.getQueueDepth(EventPriority.LOW));
+        assertEquals(0, lane.getQueueDepth(EventPriority.NORMAL));
+
+        this.drain(lane);
+
+        assertEquals(0, lane.getQueueDepth());
+        assertEquals(3, lane.getPeakQueueDepth());
+        assertEquals(2, lane.getPeakQueueDepth(EventPriority.HIGH));
+        assertEquals(2, lane.getDispatched(EventPriority.HIGH));
+        assertEquals(1, lane.getDispatched(EventPriority.LOW));
+        assertEquals(3, lane.getDispatched());
+    }
+
+    @Test
+    public void parallelDispatchKeepsGuildOrder() {
+        this.manager.setEventPriority(TestGuildEvent.class, EventPriority.LOW);
+        this.manager.setEventPriority(TestSubGuildEvent.class, EventPriority.HIGH);
+        this.manager.setParallelDispatch(2);
+
+        final List<List<TestGuildEvent>> sent = new ArrayList<>();
+
+        for (int guild = 1; guild <= 4; guild++) {
+            sent.add(new ArrayList<>());
+        }
+
+        for (int i = 0; i < 2000; i++) {
+            final int guild = 1 + i % 4;
+            final TestGuildEvent event = i % 3 == 0 ? new TestSubGuildEvent(guild) : new TestGuildEvent(guild);
+            sent.get(guild - 1).add(event);
+            this.manager.handle(event);
+        }
+
+        // Stopping the lanes waits for them to finish their queues
+        this.manager.setParallelDispatch(0);
+
+        final List<List<TestGuildEvent>> received = new ArrayList<>();
+
+        for (int guild = 1; guild <= 4; guild++) {
+            received.add(new ArrayList<>());
+        }
+
+        for (final TestGuildEvent event : this.listener.events) {
+            received.get((int) event.getGuild().getIdLong() - 1).add(event);
+        }
+
+        assertEquals(sent, received);
+    }
+
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+import ch.jamiete.hilda.events.Stubs.TestGuildEvent;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.Event;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.priv.PrivateMessageReceivedEvent;
+
+public class EventFilterTest {
+    private static final User HUMAN = Stubs.user(100L, false);
+    private static final User BOT = Stubs.user(101L, true);
+
+    public static class Handlers {
+        @EventHandler
+        public void none(final Event event) {
+        }
+
+        @EventHandler(guilds = { 1L, 2L })
+        public void guilds(final Event event) {
+        }
+
+        @EventHandler(channels = 10L)
+        public void channels(final Event event) {
+        }
+
+        @EventHandler(ignoreBots = true)
+        public void ignoreBots(final Event event) {
+        }
+
+        @EventHandler(prefix = "!")
+        public void prefix(final Event event) {
+        }
+
+        @EventHandler(guilds = 1L, channels = 10L, ignoreBots = true, prefix = "!")
+        public void all(final Event event) {
+        }
+    }
+
+    private static EventFilter compile(final String handler, final Class<?> eventClass) throws NoSuchMethodException {
+        return EventFilter.compile(Handlers.class.getMethod(handler, Event.class).getAnnotation(EventHandler.class), eventClass);
+    }
+
+    @Test
+    public void nothingToCheck() throws NoSuchMethodException {
+        assertNull(EventFilterTest.compile("none", GuildMessageReceivedEvent.class));
+    }
+
+    @Test
+    public void guilds() throws NoSuchMethodException {
+        final EventFilter filter = EventFilterTest.compile("guilds", GuildMessageReceivedEvent.class);
+
+        assertTrue(filter.accept(Stubs.guildMessage(1L, 10L, EventFilterTest.HUMAN, "hello")));
+        assertTrue(filter.accept(Stubs.guildMessage(2L, 10L, EventFilterTest.HUMAN, "hello")));
+        assertFalse(filter.accept(Stubs.guildMessage(3L, 10L, EventFilterTest.HUMAN, "hello")));
+        assertSame(EventFilter.NEVER, EventFilterTest.compile("guilds", PrivateMessageReceivedEvent.class));
+    }
+
+    @Test
+    public void channels() throws NoSuchMethodException {
+        final EventFilter guild = EventFilterTest.compile("channels", GuildMessageReceivedEvent.class);
+
+        assertTrue(guild.accept(Stubs.guildMessage(1L, 10L, EventFilterTest.HUMAN, "hello")));
+        assertFalse(guild.accept(Stubs.guildMessage(1L, 11L, EventFilterTest.HUMAN, "hello")));
+
+        final EventFilter dm = EventFilterTest.compile("channels", PrivateMessageReceivedEvent.class);
+
+        assertTrue(dm.accept(Stubs.privateMessage(10L, EventFilterTest.HUMAN, "hello")));
+        assertFalse(dm.accept(Stubs.privateMessage(11L, EventFilterTest.HUMAN, "hello")));
+        assertSame(EventFilter.NEVER, EventFilterTest.compile("channels", TestGuildEvent.class));
+    }
+
+    @Test
+    public void ignoreBots() throws NoSuchMethodException {
+        final EventFilter filter = EventFilterTest.compile("ignoreBots", GuildMessageReceivedEvent.class);
+
+        assertTrue(filter.accept(Stubs.guildMessage(1L, 10L, EventFilterTest.HUMAN, "hello")));
+        assertFalse(filter.accept(Stubs.guildMessage(1L, 10L, EventFilterTest.BOT, "hello")));
+
+        // Events that are not caused by a user have nothing to check
+        assertNull(EventFilterTest.compile("ignoreBots", TestGuildEvent.class));
+    }
+
+    @Test
+    public void prefix() throws NoSuchMethodException {
+        final EventFilter filter = EventFilterTest.compile("prefix", PrivateMessageReceivedEvent.class);
+
+        assertTrue(filter.accept(Stubs.privateMessage(10L, EventFilterTest.HUMAN, "!ping")));
+        assertFalse(filter.accept(Stubs.privateMessage(10L, EventFilterTest.HUMAN, "ping!")));
+        assertSame(EventFilter.NEVER, EventFilterTest.compile("prefix", TestGuildEvent.class));
+    }
+
+    @Test
+    public void everyFilterMustPass() throws NoSuchMethodException {
+        final EventFilter filter = EventFilterTest.compile("all", GuildMessageReceivedEvent.class);
+
+        assertTrue(filter.accept(Stubs.guildMessage(1L, 10L, EventFilterTest.HUMAN, "!ping")));
+        assertFalse(filter.accept(Stubs.guildMessage(2L, 10L, EventFilterTest.HUMAN, "!ping")));
+        assertFalse(filter.accept(Stubs.guildMessage(1L, 11L, EventFilterTest.HUMAN, "!ping")));
+        assertFalse(filter.accept(Stubs.guildMessage(1L, 10L, EventFilterTest.BOT, "!ping")));
+        assertFalse(filter.accept(Stubs.guildMessage(1L, 10L, EventFilterTest.HUMAN, "ping")));
+    }
+
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.events.EventWaiter.Subscription;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.priv.PrivateMessageReceivedEvent;
+
+public class EventWaiterTest {
+    private static final User AUTHOR = Stubs.user(5L, false);
+
+    private Hilda hilda;
+    private AnnotatedEventManager manager;
+    private EventWaiter waiter;
+
+    @Before
+    public void setup() {
+        this.hilda = new Hilda(Stubs.JDA);
+        this.manager = this.hilda.getEventManager();
+        this.waiter = this.manager.getWaiter();
+    }
+
+    @After
+    public void teardown() {
+        this.manager.shutdown();
+        this.hilda.getExecutor().shutdownNow();
+    }
+
+    private GuildMessageReceivedEvent message(final long channel, final String content) {
+        final GuildMessageReceivedEvent event = Stubs.guildMessage(1L, channel, EventWaiterTest.AUTHOR, content);
+        this.manager.handle(event);
+        return event;
+    }
+
+    @Test
+    public void firesOnce() {
+        final List<GuildMessageReceivedEvent> received = new ArrayList<>();
+        final AtomicInteger expired = new AtomicInteger();
+        final Subscription subscription = this.waiter.waitForChannel(10L, GuildMessageReceivedEvent.class, null, received::add, 1, TimeUnit.MINUTES, expired::incrementAndGet);
+
+        assertEquals(1, this.waiter.getWaiting());
+        assertFalse(subscription.isDone());
+
+        final GuildMessageReceivedEvent first = this.message(10L, "first");
+        this.message(10L, "second");
+
+        assertEquals(1, received.size());
+        assertSame(first, received.get(0));
+        assertTrue(subscription.isDone());
+        assertEquals(0, this.waiter.getWaiting());
+        assertFalse(subscription.cancel());
+        assertEquals(0, expired.get());
+    }
+
+    @Test
+    public void firesOnlyForMatchingEvents() {
+        final List<GuildMessageReceivedEvent> received = new ArrayList<>();
+        this.waiter.waitForChannel(10L, GuildMessageReceivedEvent.class, e -> "yes".equals(e.getMessage().getContentRaw()), received::add, 1, TimeUnit.MINUTES, null);
+
+        this.message(11L, "yes");
+        this.manager.handle(Stubs.privateMessage(10L, EventWaiterTest.AUTHOR, "yes"));
+        this.message(10L, "no");
+
+        assertTrue(received.isEmpty());
+        assertEquals(1, this.waiter.getWaiting());
+
+        final GuildMessageReceivedEvent yes = this.message(10L, "yes");
+
+        assertEquals(1, received.size());
+        assertSame(yes, received.get(0));
+    }
+
+    @Test
+    public void waitsByMessageAndUser() {
+        final AtomicInteger messages = new AtomicInteger();
+        final AtomicInteger users = new AtomicInteger();
+        this.waiter.waitForMessage(11L, GuildMessageReceivedEvent.class, null, e -> messages.incrementAndGet(), 1, TimeUnit.MINUTES, null);
+        this.waiter.waitForUser(EventWaiterTest.AUTHOR.getIdLong(), PrivateMessageReceivedEvent.class, null, e -> users.incrementAndGet(), 1, TimeUnit.MINUTES, null);
+
+        // Stubbed messages take the ID after their channel
+        this.message(10L, "hello");
+
+        assertEquals(1, messages.get());
+        assertEquals(0, users.get());
+
+        this.manager.handle(Stubs.privateMessage(20L, EventWaiterTest.AUTHOR, "hello"));
+
+        assertEquals(1, users.get());
+        assertEquals(0, this.waiter.getWaiting());
+    }
+
+    @Test
+    public void timesOut() throws InterruptedException {
+        final AtomicInteger fired = new AtomicInteger();
+        final CountDownLatch expired = new CountDownLatch(1);
+        final Subscription subscription = this.waiter.waitForChannel(10L, GuildMessageReceivedEvent.class, null, e -> fired.incrementAndGet(), 50, TimeUnit.MILLISECONDS, expired::countDown);
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertTrue(subscription.isDone());
+        assertEquals(0, this.waiter.getWaiting());
+
+        this.message(10L, "too late");
+
+        assertEquals(0, fired.get());
+    }
+
+    @Test
+    public void cancelStopsWaiting() throws InterruptedException {
+        final AtomicInteger fired = new AtomicInteger();
+        final AtomicInteger expired = new AtomicInteger();
+        final Subscription subscription = this.waiter.waitForChannel(10L, GuildMessageReceivedEvent.class, null, e -> fired.incrementAndGet(), 50, TimeUnit.MILLISECONDS, expired::incrementAndGet);
+
+        assertTrue(subscription.cancel());
+        assertFalse(subscription.cancel());
+        assertTrue(subscription.isDone());
+        assertEquals(0, this.waiter.getWaiting());
+
+        this.message(10L, "ignored");
+
+        // Well past the timeout, which would have run the timeout action had it not been cancelled
+        Thread.sleep(500);
+
+        assertEquals(0, fired.get());
+        assertEquals(0, expired.get());
+    }
+
+    @Test
+    public void waitersOnTheSameKeyBothFire() {
+        final AtomicInteger first = new AtomicInteger();
+        final AtomicInteger second = new AtomicInteger();
+        this.waiter.waitForChannel(10L, GuildMessageReceivedEvent.class, null, e -> first.incrementAndGet(), 1, TimeUnit.MINUTES, null);
+        this.waiter.waitForChannel(10L, GuildMessageReceivedEvent.class, null, e -> second.incrementAndGet(), 1, TimeUnit.MINUTES, null);
+
+        assertEquals(2, this.waiter.getWaiting());
+
+        this.message(10L, "hello");
+        this.message(10L, "again");
+
+        assertEquals(1, first.get());
+        assertEquals(1, second.get());
+        assertEquals(0, this.waiter.getWaiting());
+    }
+
+    @Test
+    public void failingActionDoesNotStopOtherWaiters() {
+        final AtomicInteger fired = new AtomicInteger();
+        this.waiter.waitForChannel(10L, GuildMessageReceivedEvent.class, null, e -> {
+            throw new IllegalStateException("Expected by the test");
+        }, 1, TimeUnit.MINUTES, null);
+        this.waiter.waitForChannel(10L, GuildMessageReceivedEvent.class, null, e -> fired.incrementAndGet(), 1, TimeUnit.MINUTES, null);
+
+        this.message(10L, "hello");
+
+        assertEquals(1, fired.get());
+        assertEquals(0, this.waiter.getWaiting());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timeoutMustBePositive() {
+        this.waiter.waitForChannel(10L, GuildMessageReceivedEvent.class, null, e -> {
+        }, 0, TimeUnit.SECONDS, null);
+    }
+
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.events.Stubs.TestGuildEvent;
+
+public class ListenerQueueTest {
+
+    /**
+     * Holds up the first event it receives until the gate is opened, so that later events stay queued.
+     */
+    public static class GatedListener {
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final List<TestGuildEvent> received = new CopyOnWriteArrayList<>();
+
+        @EventHandler(async = true, queueSize = 2, overflow = OverflowPolicy.BLOCK)
+        public void block(final TestGuildEvent event) throws InterruptedException {
+            this.receive(event);
+        }
+
+        @EventHandler(async = true, queueSize = 2, overflow = OverflowPolicy.DROP_OLDEST)
+        public void dropOldest(final TestGuildEvent event) throws InterruptedException {
+            this.receive(event);
+        }
+
+        @EventHandler(async = true, queueSize = 2, overflow = OverflowPolicy.DROP_NEWEST)
+        public void dropNewest(final TestGuildEvent event) throws InterruptedException {
+            this.receive(event);
+        }
+
+        @EventHandler(async = true, queueSize = 2, overflow = OverflowPolicy.COALESCE, overflowKey = CoalesceKey.GUILD)
+        public void coalesce(final TestGuildEvent event) throws InterruptedException {
+            this.receive(event);
+        }
+
+        private void receive(final TestGuildEvent event) throws InterruptedException {
+            this.entered.countDown();
+            this.gate.await();
+            this.received.add(event);
+        }
+    }
+
+    private Hilda hilda;
+    private AnnotatedEventManager manager;
+    private GatedListener listener;
+
+    @Before
+    public void setup() {
+        this.hilda = new Hilda(Stubs.JDA);
+        this.manager = this.hilda.getEventManager();
+        this.listener = new GatedListener();
+    }
+
+    @After
+    public void teardown() {
+        this.listener.gate.countDown();
+        this.manager.shutdown();
+        this.hilda.getExecutor().shutdownNow();
+    }
+
+    private ListenerQueue queue(final String method) throws ReflectiveOperationException {
+        return ListenerMethod.reflect(this.manager, this.listener, GatedListener.class.getMethod(method, TestGuildEvent.class), TestGuildEvent.class, false).getQueue();
+    }
+
+    /**
+     * Queues events while the first is held up by the listener, leaving the rest in the queue.
+     * @return The events, in the order they were queued
+     */
+    private TestGuildEvent[] fill(final ListenerQueue queue, final long... guilds) throws InterruptedException {
+        final TestGuildEvent[] events = new TestGuildEvent[guilds.length];
+
+        for (int i = 0; i < guilds.length; i++) {
+            events[i] = new TestGuildEvent(guilds[i]);
+            queue.offer(events[i], guilds[i]);
+
+            if (i == 0) {
+                assertTrue(this.listener.entered.await(5, TimeUnit.SECONDS));
+            }
+        }
+
+        return events;
+    }
+
+    /**
+     * Opens the gate and waits for the listener to receive a number of events.
+     */
+    private List<TestGuildEvent> release(final int expected) throws InterruptedException {
+        this.listener.gate.countDown();
+        final long deadline = System.currentTimeMillis() + 5000;
+
+        while (this.listener.received.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // Give anything that should not have been delivered a chance to show up
+        Thread.sleep(50);
+        return this.listener.received;
+    }
+
+    @Test
+    public void deliversInOrder() throws Exception {
+        final ListenerQueue queue = this.queue("block");
+        final TestGuildEvent[] events = this.fill(queue, 1L, 2L, 3L);
+
+        assertEquals(2, queue.getSize());
+        assertEquals(Arrays.asList(events), this.release(3));
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    public void blockWaitsForSpace() throws Exception {
+        final ListenerQueue queue = this.queue("block");
+        final TestGuildEvent[] events = this.fill(queue, 1L, 2L, 3L);
+        final TestGuildEvent last = new TestGuildEvent(4L);
+
+        final Thread producer = new Thread(() -> {
+            try {
+                queue.offer(last, 4L);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        producer.join(200);
+
+        assertTrue(producer.isAlive());
+
+        assertEquals(Arrays.asList(events[0], events[1], events[2], last), this.release(4));
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    public void dropOldestDiscardsTheHead() throws Exception {
+        final ListenerQueue queue = this.queue("dropOldest");
+        final TestGuildEvent[] events = this.fill(queue, 1L, 2L, 3L, 4L);
+
+        assertEquals(Arrays.asList(events[0], events[2], events[3]), this.release(3));
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    public void dropNewestDiscardsTheNewEvent() throws Exception {
+        final ListenerQueue queue = this.queue("dropNewest");
+        final TestGuildEvent[] events = this.fill(queue, 1L, 2L, 3L, 4L);
+
+        assertEquals(Arrays.asList(events[0], events[1], events[2]), this.release(3));
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    public void coalesceReplacesAnEventWithTheSameKey() throws Exception {
+        final ListenerQueue queue = this.queue("coalesce");
+        final TestGuildEvent[] events = this.fill(queue, 1L, 2L, 3L, 2L);
+
+        // The replacement keeps the place of the event it replaced
+        assertEquals(Arrays.asList(events[0], events[3], events[2]), this.release(3));
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    public void coalesceWithoutAMatchDiscardsTheHead() throws Exception {
+        final ListenerQueue queue = this.queue("coalesce");
+        final TestGuildEvent[] events = this.fill(queue, 1L, 2L, 3L, 4L);
+
+        assertEquals(Arrays.asList(events[0], events[2], events[3]), this.release(3));
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    public void closeDiscardsQueuedEventsAndReleasesBlockedThreads() throws Exception {
+        final ListenerQueue queue = this.queue("block");
+        final TestGuildEvent[] events = this.fill(queue, 1L, 2L, 3L);
+
+        final Thread producer = new Thread(() -> {
+            try {
+                queue.offer(new TestGuildEvent(4L), 4L);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        producer.join(200);
+
+        queue.close();
+        producer.join(5000);
+
+        assertFalse(producer.isAlive());
+        assertEquals(0, queue.getSize());
+        assertEquals(Arrays.asList(events[0]), this.release(1));
+    }
+
+    @Test
+    public void eventsAreDiscardedOnceTheManagerHasShutDown() throws Exception {
+        final ListenerQueue queue = this.queue("dropNewest");
+        this.manager.shutdown();
+
+        queue.offer(new TestGuildEvent(1L), 1L);
+        queue.offer(new TestGuildEvent(2L), 2L);
+
+        assertEquals(0, queue.getSize());
+        assertEquals(2, queue.getDropped());
+        assertTrue(this.release(0).isEmpty());
+    }
+
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import ch.jamiete.hilda.events.Stubs.TestGuildEvent;
+import ch.jamiete.hilda.events.Stubs.TestSubGuildEvent;
+import net.dv8tion.jda.api.events.Event;
+import net.dv8tion.jda.api.events.guild.GenericGuildEvent;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.priv.PrivateMessageReceivedEvent;
+
+public class ListenerRegistryTest {
+
+    public static class GuildListener {
+        @EventHandler
+        public void onGuild(final TestGuildEvent event) {
+        }
+    }
+
+    public static class SubListener {
+        @EventHandler
+        public void onSub(final TestSubGuildEvent event) {
+        }
+    }
+
+    public static class FilteredListener {
+        @EventHandler(guilds = 1L)
+        public void onEvent(final Event event) {
+        }
+    }
+
+    /**
+     * Binds the {@link EventHandler} methods of a listener the way {@link AnnotatedEventManager} does when it has to scan.
+     */
+    static List<ListenerMethod> bind(final Object listener) throws IllegalAccessException {
+        final List<ListenerMethod> found = new ArrayList<>();
+
+        for (final Method method : listener.getClass().getDeclaredMethods()) {
+            if (method.isAnnotationPresent(EventHandler.class)) {
+                found.add(ListenerMethod.reflect(null, listener, method, method.getParameterTypes()[0], false));
+            }
+        }
+
+        return found;
+    }
+
+    private static ListenerRegistry register(final ListenerRegistry registry, final Object listener) throws IllegalAccessException {
+        return registry.with(listener, ListenerRegistryTest.bind(listener));
+    }
+
+    @Test
+    public void withLeavesTheOriginalUnchanged() throws IllegalAccessException {
+        final GuildListener listener = new GuildListener();
+        final ListenerRegistry registry = ListenerRegistryTest.register(ListenerRegistry.EMPTY, listener);
+
+        assertNotSame(ListenerRegistry.EMPTY, registry);
+        assertFalse(ListenerRegistry.EMPTY.contains(listener));
+        assertTrue(registry.contains(listener));
+        assertEquals(0, ListenerRegistry.EMPTY.getDispatch(TestGuildEvent.class).targets.length);
+        assertEquals(1, registry.getDispatch(TestGuildEvent.class).targets.length);
+    }
+
+    @Test
+    public void withoutLeavesTheOriginalUnchanged() throws IllegalAccessException {
+        final GuildListener listener = new GuildListener();
+        final ListenerRegistry registry = ListenerRegistryTest.register(ListenerRegistry.EMPTY, listener);
+        final ListenerRegistry removed = registry.without(listener);
+
+        assertFalse(removed.contains(listener));
+        assertTrue(removed.getMethods(listener).isEmpty());
+        assertEquals(0, removed.getDispatch(TestGuildEvent.class).targets.length);
+        assertTrue(registry.contains(listener));
+        assertEquals(1, registry.getDispatch(TestGuildEvent.class).targets.length);
+    }
+
+    @Test
+    public void withoutUnknownListenerReturnsSameSnapshot() throws IllegalAccessException {
+        final ListenerRegistry registry = ListenerRegistryTest.register(ListenerRegistry.EMPTY, new GuildListener());
+
+        assertSame(registry, registry.without(new GuildListener()));
+    }
+
+    @Test
+    public void listenersKeepRegistrationOrder() throws IllegalAccessException {
+        final Object first = new GuildListener();
+        final Object second = new SubListener();
+        final Object third = new GuildListener();
+
+        ListenerRegistry registry = ListenerRegistry.EMPTY;
+        registry = ListenerRegistryTest.register(registry, first);
+        registry = ListenerRegistryTest.register(registry, second);
+        registry = ListenerRegistryTest.register(registry, third);
+
+        assertEquals(Arrays.asList(first, second, third), registry.getListeners());
+        assertEquals(Arrays.asList(first, third), registry.without(second).getListeners());
+        assertEquals(3, registry.getMethods().size());
+    }
+
+    @Test
+    public void dispatchIsCachedPerSnapshot() throws IllegalAccessException {
+        final ListenerRegistry registry = ListenerRegistryTest.register(ListenerRegistry.EMPTY, new GuildListener());
+        final DispatchEntry entry = registry.getDispatch(TestGuildEvent.class);
+
+        assertSame(entry, registry.getDispatch(TestGuildEvent.class));
+        assertNotSame(entry, ListenerRegistryTest.register(registry, new GuildListener()).getDispatch(TestGuildEvent.class));
+        assertNotSame(entry, registry.withStatistics(!registry.isStatistics()).getDispatch(TestGuildEvent.class));
+    }
+
+    @Test
+    public void dispatchPutsMostSpecificClassFirst() throws IllegalAccessException {
+        final GuildListener guild = new GuildListener();
+        final SubListener sub = new SubListener();
+
+        ListenerRegistry registry = ListenerRegistry.EMPTY;
+        registry = ListenerRegistryTest.register(registry, guild);
+        registry = ListenerRegistryTest.register(registry, sub);
+
+        final DispatchTarget[] targets = registry.getDispatch(TestSubGuildEvent.class).targets;
+
+        assertEquals(2, targets.length);
+        assertSame(sub, targets[0].method.getListener());
+        assertSame(guild, targets[1].method.getListener());
+
+        final DispatchTarget[] superclass = registry.getDispatch(TestGuildEvent.class).targets;
+
+        assertEquals(1, superclass.length);
+        assertSame(guild, superclass[0].method.getListener());
+    }
+
+    @Test
+    public void dispatchLeavesOutMethodsThatCannotMatch() throws IllegalAccessException {
+        final ListenerRegistry registry = ListenerRegistryTest.register(ListenerRegistry.EMPTY, new FilteredListener());
+
+        // Private messages never belong to a guild, so a guild filter can never pass
+        assertEquals(0, registry.getDispatch(PrivateMessageReceivedEvent.class).targets.length);
+
+        final DispatchTarget[] targets = registry.getDispatch(TestGuildEvent.class).targets;
+
+        assertEquals(1, targets.length);
+        assertNotNull(targets[0].filter);
+        assertTrue(targets[0].filter.accept(new TestGuildEvent(1L)));
+        assertFalse(targets[0].filter.accept(new TestGuildEvent(2L)));
+    }
+
+    @Test
+    public void prioritiesFollowSuperclasses() throws IllegalAccessException {
+        final ListenerRegistry registry = ListenerRegistryTest.register(ListenerRegistry.EMPTY, new GuildListener());
+
+        assertEquals(EventPriority.HIGH, registry.getPriority(GuildMessageReceivedEvent.class));
+        assertEquals(EventPriority.NORMAL, registry.getPriority(TestGuildEvent.class));
+
+        final ListenerRegistry low = registry.withPriority(GenericGuildEvent.class, EventPriority.LOW);
+
+        assertEquals(EventPriority.LOW, low.getPriority(TestSubGuildEvent.class));
+        assertEquals(EventPriority.LOW, low.getDispatch(TestGuildEvent.class).priority);
+        assertEquals(EventPriority.NORMAL, registry.getDispatch(TestGuildEvent.class).priority);
+        assertEquals(EventPriority.NORMAL, low.withPriority(GenericGuildEvent.class, null).getPriority(TestGuildEvent.class));
+    }
+
+}
@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ch.jamiete.hilda.Hilda;
+import ch.jamiete.hilda.events.Stubs.TestGuildEvent;
+import ch.jamiete.hilda.events.processor.ListenerTableProcessor;
+import net.dv8tion.jda.api.events.Event;
+
+/**
+ * Compiles listener sources with the {@link ListenerTableProcessor} and checks the tables it generates.
+ */
+public class ListenerTableProcessorTest {
+    private static final String LISTENER = String.join("\n",
+            "package listeners;",
+            "",
+            "import java.util.List;",
+            "import ch.jamiete.hilda.events.CoalesceKey;",
+            "import ch.jamiete.hilda.events.EventHandler;",
+            "import ch.jamiete.hilda.events.OverflowPolicy;",
+            "import net.dv8tion.jda.api.events.Event;",
+            "",
+            "public class Listener {",
+            "    public static List<Event> batch;",
+            "    public Event received;",
+            "    public int count;",
+            "",
+            "    @EventHandler(guilds = { 1L, 2L }, overflow = OverflowPolicy.DROP_OLDEST, prefix = \"say \\\"hi\\\"\\n\")",
+            "    public void onEvent(final Event event) {",
+            "        this.received = event;",
+            "    }",
+            "",
+            "    @EventHandler(coalesce = CoalesceKey.GUILD, coalesceWindow = 50)",
+            "    void onCoalesced(final Event event, final int count) {",
+            "        this.count = count;",
+            "    }",
+            "",
+            "    @EventHandler(batchSize = 5)",
+            "    static void onBatch(final List<Event> events) {",
+            "        Listener.batch = events;",
+            "    }",
+            "}");
+
+    private static final class Source extends SimpleJavaFileObject {
+        private final String content;
+
+        private Source(final String name, final String content) {
+            super(URI.create("string:///" + name.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension), JavaFileObject.Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+            return this.content;
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+    private static String getLocation(final Class<?> c) throws URISyntaxException {
+        return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    /**
+     * @return Whether the source compiled
+     */
+    private boolean compile(final String name, final String source) throws IOException, URISyntaxException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final String classpath = ListenerTableProcessorTest.getLocation(EventHandler.class) + File.pathSeparator + ListenerTableProcessorTest.getLocation(Event.class);
+        final List<String> options = Arrays.asList("-d", this.folder.getRoot().getPath(), "-s", this.folder.getRoot().getPath(), "-classpath", classpath);
+
+        try (StandardJavaFileManager files = compiler.getStandardFileManager(this.diagnostics, null, null)) {
+            final JavaCompiler.CompilationTask task = compiler.getTask(null, files, this.diagnostics, options, null, Collections.singletonList(new Source(name, source)));
+            task.setProcessors(Collections.singletonList(new ListenerTableProcessor()));
+            return task.call();
+        }
+    }
+
+    private boolean hasDiagnostic(final Diagnostic.Kind kind, final String text) {
+        return this.diagnostics.getDiagnostics().stream().anyMatch(d -> d.getKind() == kind && d.getMessage(null).contains(text));
+    }
+
+    private boolean hasTable(final String name) {
+        return new File(this.folder.getRoot(), name.replace('.', File.separatorChar) + ListenerTable.SUFFIX + ".class").exists();
+    }
+
+    @Test
+    public void generatesTable() throws Throwable {
+        assertTrue(this.diagnostics.getDiagnostics().toString(), this.compile("listeners.Listener", ListenerTableProcessorTest.LISTENER));
+        assertTrue(this.hasTable("listeners.Listener"));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { this.folder.getRoot().toURI().toURL() }, this.getClass().getClassLoader())) {
+            final Class<?> listenerClass = loader.loadClass("listeners.Listener");
+            final ListenerTable table = loader.loadClass("listeners.Listener" + ListenerTable.SUFFIX).asSubclass(ListenerTable.class).getDeclaredConstructor().newInstance();
+            final List<ListenerTable.Entry> entries = table.getEntries();
+
+            assertEquals(3, entries.size());
+
+            final Object listener = listenerClass.getDeclaredConstructor().newInstance();
+            final TestGuildEvent event = new TestGuildEvent(1L);
+
+            final ListenerTable.Entry plain = entries.get(0);
+            assertEquals("onEvent", plain.name);
+            assertSame(Event.class, plain.eventClass);
+            assertFalse(plain.batch);
+            assertFalse(plain.isStatic);
+            assertSame(EventHandler.class, plain.annotation.annotationType());
+            assertArrayEquals(new long[] { 1L, 2L }, plain.annotation.guilds());
+            assertEquals(0, plain.annotation.channels().length);
+            assertEquals(OverflowPolicy.DROP_OLDEST, plain.annotation.overflow());
+            assertEquals("say \"hi\"\n", plain.annotation.prefix());
+            assertEquals(1000, plain.annotation.queueSize());
+
+            plain.invoker.invoke(listener, event, 0);
+            assertSame(event, listenerClass.getField("received").get(listener));
+
+            final ListenerTable.Entry coalesced = entries.get(1);
+            assertEquals("onCoalesced", coalesced.name);
+            assertEquals(CoalesceKey.GUILD, coalesced.annotation.coalesce());
+            assertEquals(50, coalesced.annotation.coalesceWindow());
+
+            coalesced.invoker.invoke(listener, event, 7);
+            assertEquals(7, listenerClass.getField("count").get(listener));
+
+            final ListenerTable.Entry batch = entries.get(2);
+            assertEquals("onBatch", batch.name);
+            assertSame(Event.class, batch.eventClass);
+            assertTrue(batch.batch);
+            assertTrue(batch.isStatic);
+            assertEquals(5, batch.annotation.batchSize());
+
+            final List<Event> events = Collections.singletonList(event);
+            batch.invoker.invoke(null, events, 1);
+            assertSame(events, listenerClass.getField("batch").get(null));
+        }
+    }
+
+    @Test
+    public void classesWithPrivateMethodsAreLeftToScanning() throws Exception {
+        final String source = String.join("\n",
+                "package listeners;",
+                "public class Private {",
+                "    public int received;",
+                "",
+                "    @ch.jamiete.hilda.events.EventHandler",
+                "    public void onEvent(final net.dv8tion.jda.api.events.Event event) {",
+                "        this.received++;",
+                "    }",
+                "",
+                "    @ch.jamiete.hilda.events.EventHandler",
+                "    private void onPrivate(final net.dv8tion.jda.api.events.Event event) {",
+                "        this.received++;",
+                "    }",
+                "}");
+
+        assertTrue(this.diagnostics.getDiagnostics().toString(), this.compile("listeners.Private", source));
+        assertTrue(this.hasDiagnostic(Diagnostic.Kind.NOTE, "will be scanned at runtime"));
+        assertFalse(this.hasDiagnostic(Diagnostic.Kind.ERROR, ""));
+        assertFalse(this.hasTable("listeners.Private"));
+
+        // Both methods are found by scanning the class instead
+        final Hilda hilda = new Hilda(Stubs.JDA);
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] { this.folder.getRoot().toURI().toURL() }, this.getClass().getClassLoader())) {
+            final Class<?> listenerClass = loader.loadClass("listeners.Private");
+            final Object listener = listenerClass.getDeclaredConstructor().newInstance();
+
+            hilda.getEventManager().register(listener);
+            hilda.getEventManager().handle(new TestGuildEvent(1L));
+
+            assertEquals(2, listenerClass.getField("received").get(listener));
+        } finally {
+            hilda.getEventManager().shutdown();
+            hilda.getExecutor().shutdownNow();
+        }
+    }
+
+    @Test
+    public void inaccessibleClassesAreLeftToScanning() throws Exception {
+        final String source = String.join("\n",
+                "package listeners;",
+                "public class Outer {",
+                "    private static class Hidden {",
+                "        @ch.jamiete.hilda.events.EventHandler",
+                "        private void onEvent(final net.dv8tion.jda.api.events.Event event) {",
+                "        }",
+                "    }",
+                "}");
+
+        assertTrue(this.diagnostics.getDiagnostics().toString(), this.compile("listeners.Outer", source));
+        assertFalse(this.hasTable("listeners.Outer$Hidden"));
+    }
+
+    @Test
+    public void invalidParametersAreWarnings() throws Exception {
+        final String source = String.join("\n",
+                "package listeners;",
+                "public class Invalid {",
+                "    @ch.jamiete.hilda.events.EventHandler",
+                "    public void onEvent(final String event) {",
+                "    }",
+                "}");
+
+        assertTrue(this.diagnostics.getDiagnostics().toString(), this.compile("listeners.Invalid", source));
+        assertTrue(this.hasDiagnostic(Diagnostic.Kind.WARNING, "will be ignored"));
+        assertFalse(this.hasTable("listeners.Invalid"));
+    }
+
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.events;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.PrivateChannel;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.guild.GenericGuildEvent;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.priv.PrivateMessageReceivedEvent;
+
+/**
+ * Builds JDA entities and events for tests without a connection to Discord.
+ */
+public final class Stubs {
+
+    /**
+     * Answers a stubbed method from the arguments it was called with.
+     */
+    @FunctionalInterface
+    public interface Answer {
+        Object answer(Object[] arguments);
+    }
+
+    public static final JDA JDA = Stubs.stub(JDA.class);
+
+    /**
+     * A guild event that listeners in tests can handle without matching any event JDA fires itself.
+     */
+    static class TestGuildEvent extends GenericGuildEvent {
+        TestGuildEvent(final long guild) {
+            super(Stubs.JDA, 0, Stubs.guild(guild));
+        }
+    }
+
+    /**
+     * A subclass of {@link TestGuildEvent}, for testing dispatch to methods declared for a superclass.
+     */
+    static class TestSubGuildEvent extends TestGuildEvent {
+        TestSubGuildEvent(final long guild) {
+            super(guild);
+        }
+    }
+
+    /**
+     * Creates an implementation of an interface that answers methods by name. <p>
+     * Methods without an answer return {@code false}, zero or {@code null}.
+     * @param type The interface to implement
+     * @param answers Pairs of method names and the values they return, or an {@link Answer} to compute the value
+     * @return The implementation
+     */
+    public static <T> T stub(final Class<T> type, final Object... answers) {
+        final Map<String, Object> values = new HashMap<>();
+
+        for (int i = 0; i < answers.length; i += 2) {
+            values.put((String) answers[i], answers[i + 1]);
+        }
+
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + values;
+                default:
+                    if (!values.containsKey(method.getName())) {
+                        return Stubs.empty(method);
+                    }
+
+                    final Object value = values.get(method.getName());
+                    return value instanceof Answer ? ((Answer) value).answer(args) : value;
+            }
+        }));
+    }
+
+    public static Guild guild(final long id) {
+        return Stubs.stub(Guild.class, "getIdLong", id, "getName", "Guild " + id);
+    }
+
+    public static User user(final long id, final boolean bot) {
+        return Stubs.stub(User.class, "getIdLong", id, "isBot", bot);
+    }
+
+    static GuildMessageReceivedEvent guildMessage(final long guild, final long channel, final User author, final String content) {
+        final TextChannel text = Stubs.stub(TextChannel.class, "getIdLong", channel, "getGuild", Stubs.guild(guild), "getType", ChannelType.TEXT);
+        final Message message = Stubs.stub(Message.class, "getIdLong", channel + 1, "getAuthor", author, "getContentRaw", content, "getChannel", text, "getTextChannel", text, "getGuild", text.getGuild());
+
+        return new GuildMessageReceivedEvent(Stubs.JDA, 0, message);
+    }
+
+    static PrivateMessageReceivedEvent privateMessage(final long channel, final User author, final String content) {
+        final PrivateChannel dm = Stubs.stub(PrivateChannel.class, "getIdLong", channel, "getUser", author, "getType", ChannelType.PRIVATE);
+        final Message message = Stubs.stub(Message.class, "getIdLong", channel + 1, "getAuthor", author, "getContentRaw", content, "getChannel", dm, "getPrivateChannel", dm);
+
+        return new PrivateMessageReceivedEvent(Stubs.JDA, 0, message);
+    }
+
+    private static Object empty(final Method method) {
+        final Class<?> type = method.getReturnType();
+
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        }
+
+        if (type == long.class) {
+            return 0L;
+        }
+
+        if (type == int.class) {
+            return 0;
+        }
+
+        return null;
+    }
+
+    private Stubs() {
+    }
+
+}
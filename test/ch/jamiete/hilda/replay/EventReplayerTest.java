@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.replay;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ch.jamiete.hilda.events.EventHandler;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.ChannelType;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.PrivateChannel;
+import net.dv8tion.jda.api.entities.SelfUser;
+import net.dv8tion.jda.api.entities.TextChannel;
+import net.dv8tion.jda.api.entities.User;
+import net.dv8tion.jda.api.events.Event;
+import net.dv8tion.jda.api.events.message.guild.GuildMessageReceivedEvent;
+import net.dv8tion.jda.api.events.message.priv.PrivateMessageReceivedEvent;
+
+public class EventReplayerTest {
+
+    public static class MessageListener {
+        final List<GuildMessageReceivedEvent> guild = new ArrayList<>();
+        final List<PrivateMessageReceivedEvent> direct = new ArrayList<>();
+
+        @EventHandler
+        public void onGuildMessage(final GuildMessageReceivedEvent event) {
+            this.guild.add(event);
+        }
+
+        @EventHandler
+        public void onPrivateMessage(final PrivateMessageReceivedEvent event) {
+            this.direct.add(event);
+        }
+    }
+
+    public static class UnsupportedEvent extends Event {
+        public UnsupportedEvent(final JDA api) {
+            super(api);
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final StubFactory stubs = new StubFactory();
+    private final JDA jda;
+    private EventReplayer replayer;
+
+    public EventReplayerTest() {
+        final Map<String, Object> self = new HashMap<>();
+        self.put("getIdLong", 1L);
+
+        final Map<String, Object> jda = new HashMap<>();
+        jda.put("getSelfUser", this.stubs.create(SelfUser.class, self));
+        this.jda = this.stubs.create(JDA.class, jda);
+    }
+
+    @After
+    public void tearDown() {
+        if (this.replayer != null) {
+            this.replayer.getHilda().getEventManager().shutdown();
+        }
+    }
+
+    private Message message(final Guild guild, final long channel, final long id, final long author, final boolean bot, final String content) {
+        final Map<String, Object> user = new HashMap<>();
+        user.put("getIdLong", author);
+        user.put("getName", "User " + author);
+        user.put("isBot", bot);
+
+        final Map<String, Object> answers = new HashMap<>();
+        answers.put("getIdLong", id);
+        answers.put("getJDA", this.jda);
+        answers.put("getAuthor", this.stubs.create(User.class, user));
+        answers.put("getGuild", guild);
+        answers.put("getChannel", guild == null ? this.stubs.create(PrivateChannel.class, this.snowflake(channel)) : this.stubs.create(TextChannel.class, this.snowflake(channel)));
+        answers.put("isFromType", (StubFactory.Answer) a -> a[0] == (guild == null ? ChannelType.PRIVATE : ChannelType.TEXT));
+        answers.put("getContentRaw", content);
+        return this.stubs.create(Message.class, answers);
+    }
+
+    private EventReplayer replayer(final boolean strict) {
+        this.replayer = new EventReplayer(false, strict, null);
+        return this.replayer;
+    }
+
+    private Map<String, Object> snowflake(final long id) {
+        final Map<String, Object> answers = new HashMap<>();
+        answers.put("getIdLong", id);
+        return answers;
+    }
+
+    @Test
+    public void messagesRoundTrip() throws IOException {
+        // A path with a space, as the console command now accepts
+        final File file = new File(this.folder.getRoot(), "my recording.bin");
+        final Guild guild = this.stubs.create(Guild.class, this.snowflake(10L));
+
+        final EventRecorder recorder = new EventRecorder(file);
+        recorder.record(new GuildMessageReceivedEvent(this.jda, 1L, this.message(guild, 20L, 30L, 40L, false, "hello world")));
+        recorder.record(new PrivateMessageReceivedEvent(this.jda, 2L, this.message(null, 21L, 31L, 1L, true, "from myself")));
+        recorder.close();
+        assertEquals(2, recorder.getRecorded());
+
+        final EventReplayer replayer = this.replayer(true);
+        final MessageListener listener = new MessageListener();
+        replayer.getHilda().getEventManager().register(listener);
+        replayer.replay(file);
+
+        assertEquals(2, replayer.getReplayed());
+        assertEquals(0, replayer.getSkipped());
+
+        assertEquals(1, listener.guild.size());
+        final Message message = listener.guild.get(0).getMessage();
+        assertEquals(10L, message.getGuild().getIdLong());
+        assertEquals(20L, message.getChannel().getIdLong());
+        assertEquals(30L, message.getIdLong());
+        assertEquals(40L, message.getAuthor().getIdLong());
+        assertEquals("User 40", message.getAuthor().getName());
+        assertFalse(message.getAuthor().isBot());
+        assertEquals("hello world", message.getContentRaw());
+        assertTrue(message.isFromType(ChannelType.TEXT));
+
+        assertEquals(1, listener.direct.size());
+        final Message direct = listener.direct.get(0).getMessage();
+        assertEquals(21L, direct.getChannel().getIdLong());
+        assertEquals("from myself", direct.getContentRaw());
+        assertSame(replayer.getHilda().getBot().getSelfUser(), direct.getAuthor());
+    }
+
+    @Test
+    public void reopeningAppends() throws IOException {
+        final File file = this.folder.newFile("appended.bin");
+        final Guild guild = this.stubs.create(Guild.class, this.snowflake(10L));
+
+        for (int i = 0; i < 2; i++) {
+            final EventRecorder recorder = new EventRecorder(file);
+            recorder.record(new GuildMessageReceivedEvent(this.jda, i, this.message(guild, 20L, 30L + i, 40L, false, "message " + i)));
+            recorder.close();
+        }
+
+        final EventReplayer replayer = this.replayer(true);
+        final MessageListener listener = new MessageListener();
+        replayer.getHilda().getEventManager().register(listener);
+        replayer.replay(file);
+
+        assertEquals(2, listener.guild.size());
+        assertEquals("message 0", listener.guild.get(0).getMessage().getContentRaw());
+        assertEquals("message 1", listener.guild.get(1).getMessage().getContentRaw());
+    }
+
+    @Test
+    public void unsupportedEventsAreSkipped() throws IOException {
+        final File file = this.folder.newFile("unsupported.bin");
+
+        final EventRecorder recorder = new EventRecorder(file);
+        recorder.record(new UnsupportedEvent(this.jda));
+        recorder.close();
+
+        final EventReplayer replayer = this.replayer(false);
+        replayer.replay(file);
+
+        assertEquals(0, replayer.getReplayed());
+        assertEquals(1, replayer.getSkipped());
+    }
+
+    @Test(expected = IOException.class)
+    public void unsupportedEventsFailStrictReplays() throws IOException {
+        final File file = this.folder.newFile("strict.bin");
+
+        final EventRecorder recorder = new EventRecorder(file);
+        recorder.record(new UnsupportedEvent(this.jda));
+        recorder.close();
+
+        this.replayer(true).replay(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        final File file = this.folder.newFile("other.bin");
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] { 1, 2, 3, 4, 5 });
+        }
+
+        this.replayer(false).replay(file);
+    }
+
+}
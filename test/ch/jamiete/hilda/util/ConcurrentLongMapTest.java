@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ConcurrentLongMapTest {
+
+    @Test
+    public void putGetAndRemove() {
+        final ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.put(81384788765712384L, "!"));
+        assertEquals("!", map.get(81384788765712384L));
+        assertNull(map.get(81384788765712385L));
+        assertEquals(1, map.size());
+
+        assertEquals("!", map.put(81384788765712384L, "?"));
+        assertEquals("?", map.get(81384788765712384L));
+        assertEquals(1, map.size());
+
+        assertNull(map.remove(81384788765712385L));
+        assertEquals("?", map.remove(81384788765712384L));
+        assertNull(map.get(81384788765712384L));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void holdsManyEntries() {
+        final ConcurrentLongMap<Long> map = new ConcurrentLongMap<>();
+
+        for (long id = 1; id <= 1000; id++) {
+            map.put(id * 4096, id);
+        }
+
+        assertEquals(1000, map.size());
+
+        for (long id = 1; id <= 1000; id += 2) {
+            map.remove(id * 4096);
+        }
+
+        assertEquals(500, map.size());
+
+        for (long id = 1; id <= 1000; id++) {
+            assertEquals(id % 2 == 0 ? Long.valueOf(id) : null, map.get(id * 4096));
+        }
+    }
+
+    @Test
+    public void keysIsACopy() {
+        final ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+        map.put(3L, "c");
+        map.put(1L, "a");
+
+        final long[] keys = map.keys();
+        Arrays.sort(keys);
+
+        assertArrayEquals(new long[] { 1L, 3L }, keys);
+
+        keys[0] = 2L;
+
+        assertNull(map.get(2L));
+    }
+
+    @Test
+    public void clearEmptiesTheMap() {
+        final ConcurrentLongMap<String> map = new ConcurrentLongMap<>();
+        map.put(1L, "a");
+
+        map.clear();
+
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1L));
+        assertEquals(0, map.keys().length);
+    }
+
+    @Test
+    public void zeroIsNeverMapped() {
+        assertNull(new ConcurrentLongMap<String>().get(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putRejectsZero() {
+        new ConcurrentLongMap<String>().put(0L, "a");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void putRejectsNull() {
+        new ConcurrentLongMap<String>().put(1L, null);
+    }
+
+}
@@ -0,0 +1,132 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class ConcurrentLongSetTest {
+
+    private static long[] sorted(final ConcurrentLongSet set) {
+        final long[] values = set.toArray();
+        Arrays.sort(values);
+        return values;
+    }
+
+    @Test
+    public void addAndRemove() {
+        final ConcurrentLongSet set = new ConcurrentLongSet();
+
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(81384788765712384L));
+        assertFalse(set.add(81384788765712384L));
+        assertTrue(set.contains(81384788765712384L));
+        assertFalse(set.contains(81384788765712385L));
+        assertEquals(1, set.size());
+
+        assertFalse(set.remove(81384788765712385L));
+        assertTrue(set.remove(81384788765712384L));
+        assertFalse(set.contains(81384788765712384L));
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.size());
+    }
+
+    @Test
+    public void holdsManyValues() {
+        final ConcurrentLongSet set = new ConcurrentLongSet();
+
+        for (long id = 1; id <= 1000; id++) {
+            set.add(id * 4096);
+        }
+
+        assertEquals(1000, set.size());
+
+        for (long id = 1; id <= 1000; id++) {
+            assertTrue(set.contains(id * 4096));
+            assertFalse(set.contains(id * 4096 + 1));
+        }
+
+        for (long id = 1; id <= 1000; id += 2) {
+            set.remove(id * 4096);
+        }
+
+        assertEquals(500, set.size());
+
+        for (long id = 1; id <= 1000; id++) {
+            assertEquals(id % 2 == 0, set.contains(id * 4096));
+        }
+    }
+
+    @Test
+    public void setReplacesContentsAndIgnoresDuplicates() {
+        final ConcurrentLongSet set = new ConcurrentLongSet();
+        set.add(5L);
+
+        set.set(new long[] { 3L, 1L, 3L, 2L });
+
+        assertEquals(3, set.size());
+        assertFalse(set.contains(5L));
+        assertArrayEquals(new long[] { 1L, 2L, 3L }, ConcurrentLongSetTest.sorted(set));
+
+        set.set(new long[0]);
+
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void toArrayIsACopy() {
+        final ConcurrentLongSet set = new ConcurrentLongSet();
+        set.add(7L);
+
+        final long[] values = set.toArray();
+        values[0] = 8L;
+
+        assertTrue(set.contains(7L));
+        assertFalse(set.contains(8L));
+    }
+
+    @Test
+    public void clearEmptiesTheSet() {
+        final ConcurrentLongSet set = new ConcurrentLongSet();
+        set.set(new long[] { 1L, 2L });
+
+        set.clear();
+
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(1L));
+        assertEquals(0, set.toArray().length);
+    }
+
+    @Test
+    public void zeroIsNeverContained() {
+        assertFalse(new ConcurrentLongSet().contains(0L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addRejectsZero() {
+        new ConcurrentLongSet().add(0L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setRejectsZero() {
+        new ConcurrentLongSet().set(new long[] { 1L, 0L });
+    }
+
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class CooldownWheelTest {
+    private static final long HOUR = 3600000;
+
+    /**
+     * The time the wheels under test see, which only moves when a test moves it.
+     */
+    private final AtomicLong now = new AtomicLong(1000000000L);
+
+    private CooldownWheel wheel(final long cooldown) {
+        return new CooldownWheel(cooldown, this.now::get);
+    }
+
+    @Test
+    public void unmarkedIdsAreFree() {
+        final CooldownWheel wheel = this.wheel(CooldownWheelTest.HOUR);
+
+        assertEquals(CooldownWheelTest.HOUR, wheel.getCooldown());
+        assertFalse(wheel.isCooling(81384788765712384L));
+        assertEquals(0L, wheel.getRemaining(81384788765712384L));
+    }
+
+    @Test
+    public void markedIdsCool() {
+        final CooldownWheel wheel = this.wheel(CooldownWheelTest.HOUR);
+        wheel.mark(81384788765712384L);
+
+        assertTrue(wheel.isCooling(81384788765712384L));
+        assertFalse(wheel.isCooling(81384788765712385L));
+        assertEquals(CooldownWheelTest.HOUR, wheel.getRemaining(81384788765712384L));
+
+        this.now.addAndGet(1000);
+        assertEquals(CooldownWheelTest.HOUR - 1000, wheel.getRemaining(81384788765712384L));
+    }
+
+    @Test
+    public void markedIdsCoolWithTheSystemClock() {
+        final CooldownWheel wheel = new CooldownWheel(CooldownWheelTest.HOUR);
+        wheel.mark(81384788765712384L);
+
+        // Allows for a very slow machine, as this is the one test using the real time
+        final long remaining = wheel.getRemaining(81384788765712384L);
+        assertTrue(remaining > CooldownWheelTest.HOUR - 60000 && remaining <= CooldownWheelTest.HOUR);
+    }
+
+    @Test
+    public void cooldownExpires() {
+        final CooldownWheel wheel = this.wheel(50);
+        wheel.mark(81384788765712384L);
+
+        this.now.addAndGet(49);
+        assertTrue(wheel.isCooling(81384788765712384L));
+        assertEquals(1, wheel.getRemaining(81384788765712384L));
+
+        this.now.addAndGet(1);
+        assertFalse(wheel.isCooling(81384788765712384L));
+    }
+
+    @Test
+    public void markingAgainRestartsTheCooldown() {
+        final CooldownWheel wheel = this.wheel(200);
+        wheel.mark(81384788765712384L);
+
+        this.now.addAndGet(120);
+        wheel.mark(81384788765712384L);
+
+        // The first mark alone would have expired by now
+        this.now.addAndGet(120);
+        assertTrue(wheel.isCooling(81384788765712384L));
+        assertEquals(80, wheel.getRemaining(81384788765712384L));
+    }
+
+    @Test
+    public void expiredSlotsAreReused() {
+        final CooldownWheel wheel = this.wheel(14);
+
+        // Go round the wheel several times, marking a different ID in each slot
+        for (long id = 1; id <= 40; id++) {
+            wheel.mark(id);
+            assertTrue(wheel.isCooling(id));
+
+            if (id > 5) {
+                // Marked 15ms ago, so a slot that was not reused would still hold it
+                assertFalse(wheel.isCooling(id - 5));
+            }
+
+            this.now.addAndGet(3);
+        }
+
+        this.now.addAndGet(14);
+
+        for (long id = 1; id <= 40; id++) {
+            assertFalse(wheel.isCooling(id));
+        }
+    }
+
+    @Test
+    public void holdsManyIds() {
+        final CooldownWheel wheel = this.wheel(CooldownWheelTest.HOUR);
+
+        // Far more than a slot's initial table holds, so it must grow without losing marks
+        for (long id = 1; id <= 1000; id++) {
+            wheel.mark(id * 4096);
+        }
+
+        for (long id = 1; id <= 1000; id++) {
+            assertTrue(wheel.isCooling(id * 4096));
+            assertFalse(wheel.isCooling(id * 4096 + 1));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroCannotBeMarked() {
+        new CooldownWheel(CooldownWheelTest.HOUR).mark(0L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void cooldownMustBePositive() {
+        new CooldownWheel(0);
+    }
+
+}
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean());
+        assertEquals(0, histogram.getTotal());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void recordsCountTotalMeanAndMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(200);
+        histogram.record(600);
+
+        assertEquals(3, histogram.getCount());
+        assertEquals(900, histogram.getTotal());
+        assertEquals(300, histogram.getMean());
+        assertEquals(600, histogram.getMax());
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (int i = 0; i < 4; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(0, histogram.getPercentile(25));
+        assertEquals(1, histogram.getPercentile(50));
+        assertEquals(2, histogram.getPercentile(75));
+        assertEquals(3, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreWithinAQuarter() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        for (final int percentile : new int[] { 10, 50, 90, 99 }) {
+            final long actual = percentile * 10 * 1000L;
+            final long estimate = histogram.getPercentile(percentile);
+
+            assertTrue(percentile + "th percentile " + estimate + " is below " + actual, estimate >= actual);
+            assertTrue(percentile + "th percentile " + estimate + " is too far above " + actual, estimate <= actual * 5 / 4);
+        }
+
+        assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void percentilesNeverExceedTheMax() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+
+        assertEquals(1000, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void negativeDurationsCountAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-50);
+
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getTotal());
+        assertEquals(0, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void recordsTheLongestDurations() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void resetRemovesEverything() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(500);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getTotal());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void concurrentRecordsAreNotLost() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i);
+                }
+            });
+            threads[t].start();
+        }
+
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.getCount());
+        assertEquals(4 * (9999L * 10000 / 2), histogram.getTotal());
+        assertEquals(9999, histogram.getPercentile(100));
+    }
+
+}
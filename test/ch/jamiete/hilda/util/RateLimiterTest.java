@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright 2017 jamietech
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package ch.jamiete.hilda.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+public class RateLimiterTest {
+    private static final long HOUR = 3600000;
+
+    /**
+     * The time in nanoseconds the limiters under test see, which only moves when a test moves it.
+     */
+    private final AtomicLong now = new AtomicLong();
+
+    private RateLimiter limiter(final int tokens, final long period, final int size) {
+        return new RateLimiter(tokens, period, size, this.now::get);
+    }
+
+    private void advance(final long millis) {
+        this.now.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Test
+    public void takesUpToTheTokens() {
+        final RateLimiter limiter = this.limiter(3, RateLimiterTest.HOUR, 64);
+
+        assertEquals(RateLimiterTest.HOUR, limiter.getPeriod());
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(81384788765712384L));
+        }
+
+        assertFalse(limiter.tryAcquire(81384788765712384L));
+        assertFalse(limiter.tryAcquire(81384788765712384L));
+    }
+
+    @Test
+    public void bucketsAreIndependent() {
+        final RateLimiter limiter = this.limiter(1, RateLimiterTest.HOUR, 64);
+
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+        assertFalse(limiter.tryAcquire(81384788765712384L));
+        assertTrue(limiter.tryAcquire(81384788765712385L));
+    }
+
+    @Test
+    public void bucketsRefill() {
+        final RateLimiter limiter = this.limiter(2, 100, 64);
+
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+        assertFalse(limiter.tryAcquire(81384788765712384L));
+
+        // One token comes back every 50 milliseconds
+        this.advance(49);
+        assertFalse(limiter.tryAcquire(81384788765712384L));
+
+        this.advance(1);
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+        assertFalse(limiter.tryAcquire(81384788765712384L));
+
+        // Never more than the bucket holds, however long it was left
+        this.advance(RateLimiterTest.HOUR);
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+        assertFalse(limiter.tryAcquire(81384788765712384L));
+    }
+
+    @Test
+    public void bucketsRefillWithTheSystemClock() throws InterruptedException {
+        final RateLimiter limiter = new RateLimiter(1, 50, 64);
+
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+
+        // Only ever late, so sleeping well past the period cannot make this fail
+        Thread.sleep(200);
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+    }
+
+    @Test
+    public void releaseGivesATokenBack() {
+        final RateLimiter limiter = this.limiter(2, RateLimiterTest.HOUR, 64);
+
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+        assertFalse(limiter.tryAcquire(81384788765712384L));
+
+        limiter.release(81384788765712384L);
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+        assertFalse(limiter.tryAcquire(81384788765712384L));
+    }
+
+    @Test
+    public void releaseWithoutABucketDoesNothing() {
+        final RateLimiter limiter = this.limiter(1, RateLimiterTest.HOUR, 64);
+
+        limiter.release(81384788765712384L);
+        limiter.release(0L);
+
+        assertTrue(limiter.tryAcquire(81384788765712384L));
+        assertFalse(limiter.tryAcquire(81384788765712384L));
+    }
+
+    @Test
+    public void zeroIsNeverLimited() {
+        final RateLimiter limiter = this.limiter(1, RateLimiterTest.HOUR, 64);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquire(0L));
+        }
+    }
+
+    @Test
+    public void idsAreLetThroughWhenTheTableIsFull() {
+        final RateLimiter limiter = this.limiter(1, RateLimiterTest.HOUR, 16);
+
+        for (long id = 1; id <= 16; id++) {
+            assertTrue(limiter.tryAcquire(id));
+        }
+
+        // Every slot holds a bucket that is still refilling, so the next ID cannot be tracked
+        assertTrue(limiter.tryAcquire(17L));
+        assertTrue(limiter.tryAcquire(17L));
+        assertFalse(limiter.tryAcquire(1L));
+    }
+
+    @Test
+    public void fullBucketsAreTakenOver() {
+        final RateLimiter limiter = this.limiter(1, 50, 16);
+
+        for (long id = 1; id <= 16; id++) {
+            assertTrue(limiter.tryAcquire(id));
+        }
+
+        this.advance(50);
+
+        assertTrue(limiter.tryAcquire(17L));
+        assertFalse(limiter.tryAcquire(17L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tokensMustBePositive() {
+        new RateLimiter(0, RateLimiterTest.HOUR, 64);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sizeMustBePositive() {
+        new RateLimiter(1, RateLimiterTest.HOUR, 0);
+    }
+
+}